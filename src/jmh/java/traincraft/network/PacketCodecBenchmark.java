@@ -0,0 +1,137 @@
+/*
+ * Traincraft
+ * Copyright (c) 2011-2020.
+ *
+ * This file ("PacketCodecBenchmark.java") is part of the Traincraft mod for Minecraft.
+ * It is created by all people that are listed with @author below.
+ * It is distributed under LGPL-v3.0.
+ * You can find the source code at https://github.com/Traincraft/Traincraft
+ */
+
+package traincraft.network;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraftforge.fml.common.network.ByteBufUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes and decodes the sync packet of a moving steam locomotive with the field schema of {@link EntityPacketData}
+ * and like before it: the packet ordinal and entity id as int, followed by the complete NBT.
+ * The bytes per packet are reported as "bytes" counter.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PacketCodecBenchmark {
+    
+    private static final int ENTITY_ID = 4711;
+    
+    private NBTTagCompound syncData;
+    private ByteBuf buf;
+    private ByteBuf encodedNBT;
+    private ByteBuf encodedSchema;
+    
+    @Setup
+    public void setup(){
+        this.syncData = new NBTTagCompound();
+        this.syncData.setUniqueId("owner", new UUID(0x0123456789ABCDEFL, 0xFEDCBA9876543210L));
+        this.syncData.setInteger("restriction", 1);
+        this.syncData.setInteger("active_skin", 2);
+        this.syncData.setDouble("travel_distance", 12345.678D);
+        this.syncData.setDouble("speed", 8.25D);
+        this.syncData.setDouble("boiler_temperature", 356.4D);
+        this.syncData.setDouble("pos_x", -1024.53125D);
+        this.syncData.setDouble("pos_y", 64.0D);
+        this.syncData.setDouble("pos_z", 2048.1875D);
+        
+        this.buf = Unpooled.buffer(256);
+        this.encodedNBT = Unpooled.buffer(256);
+        writeNBT(this.encodedNBT, this.syncData);
+        this.encodedSchema = Unpooled.buffer(256);
+        writeSchema(this.encodedSchema, this.syncData);
+    }
+    
+    @Benchmark
+    public ByteBuf encodeNBT(Size size){
+        this.buf.clear();
+        writeNBT(this.buf, this.syncData);
+        size.bytes += this.buf.writerIndex();
+        return this.buf;
+    }
+    
+    @Benchmark
+    public ByteBuf encodeSchema(Size size){
+        this.buf.clear();
+        writeSchema(this.buf, this.syncData);
+        size.bytes += this.buf.writerIndex();
+        return this.buf;
+    }
+    
+    /**
+     * Decodes the packet and reads the fields the packet handlers read.
+     */
+    @Benchmark
+    public void decodeNBT(Blackhole blackhole){
+        this.encodedNBT.readerIndex(0);
+        blackhole.consume(this.encodedNBT.readInt());
+        blackhole.consume(this.encodedNBT.readInt());
+        NBTTagCompound nbt = ByteBufUtils.readTag(this.encodedNBT);
+        blackhole.consume(nbt.getUniqueId("owner"));
+        blackhole.consume(nbt.getInteger("restriction"));
+        blackhole.consume(nbt.getInteger("active_skin"));
+        blackhole.consume(nbt.getDouble("travel_distance"));
+        blackhole.consume(nbt.getDouble("speed"));
+        blackhole.consume(nbt.getDouble("boiler_temperature"));
+        blackhole.consume(nbt.getDouble("pos_x"));
+        blackhole.consume(nbt.getDouble("pos_y"));
+        blackhole.consume(nbt.getDouble("pos_z"));
+    }
+    
+    @Benchmark
+    @SuppressWarnings("deprecation")
+    public void decodeSchema(Blackhole blackhole){
+        this.encodedSchema.readerIndex(0);
+        PacketTraincraftEntity packet = new PacketTraincraftEntity();
+        packet.fromBytes(this.encodedSchema);
+        EntityPacketData data = packet.getData();
+        blackhole.consume(packet.getEntityId());
+        blackhole.consume(data.getUniqueId(EntityField.OWNER_MOST, EntityField.OWNER_LEAST));
+        blackhole.consume(data.getInt(EntityField.RESTRICTION));
+        blackhole.consume(data.getInt(EntityField.ACTIVE_SKIN));
+        blackhole.consume(data.getDouble(EntityField.TRAVEL_DISTANCE));
+        blackhole.consume(data.getDouble(EntityField.SPEED));
+        blackhole.consume(data.getDouble(EntityField.TEMPERATURE));
+        blackhole.consume(data.getDouble(EntityField.POS_X));
+        blackhole.consume(data.getDouble(EntityField.POS_Y));
+        blackhole.consume(data.getDouble(EntityField.POS_Z));
+    }
+    
+    private static void writeNBT(ByteBuf buf, NBTTagCompound nbt){
+        buf.writeInt(TCEntityPackets.SYNC.ordinal());
+        buf.writeInt(ENTITY_ID);
+        ByteBufUtils.writeTag(buf, nbt);
+    }
+    
+    /**
+     * Like the sending side: the schema data is created from the sync NBT.
+     */
+    private static void writeSchema(ByteBuf buf, NBTTagCompound nbt){
+        new PacketTraincraftEntity(ENTITY_ID, TCEntityPackets.SYNC, EntityPacketData.fromNBT(nbt)).write(buf);
+    }
+    
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Size {
+        
+        public long bytes;
+    }
+}
@@ -25,6 +25,8 @@ import net.minecraftforge.fml.common.Mod;
 import net.minecraftforge.fml.common.event.FMLInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLPostInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLPreInitializationEvent;
+import net.minecraftforge.fml.common.event.FMLServerStartingEvent;
+import net.minecraftforge.fml.common.event.FMLServerStoppingEvent;
 import net.minecraftforge.fml.common.network.NetworkRegistry;
 import net.minecraftforge.fml.common.network.simpleimpl.SimpleNetworkWrapper;
 import net.minecraftforge.fml.common.registry.ForgeRegistries;
@@ -38,11 +40,14 @@ import traincraft.blocks.assemblytables.AssemblyTableRecipe;
 import traincraft.blocks.distillery.DistilleryRecipe;
 import traincraft.blocks.trainworkbench.TrainWorkbenchRecipe;
 import traincraft.capabilities.CapabilityWorldWind;
+import traincraft.command.CommandTraincraft;
 import traincraft.entity.TCEntities;
 import traincraft.items.TCItems;
 import traincraft.liquids.TCLiquids;
 import traincraft.network.GuiHandler;
+import traincraft.network.PacketCapture;
 import traincraft.network.PacketTraincraftEntity;
+import traincraft.network.PacketTraincraftEntityBatch;
 import traincraft.world.OreHandler;
 import traincraft.world.WorldGenWorld;
 
@@ -100,7 +105,7 @@ public class Traincraft {
     }
     
     public Traincraft(){
-    
+        
     }
     
     @Mod.EventHandler
@@ -133,6 +138,7 @@ public class Traincraft {
         NetworkRegistry.INSTANCE.registerGuiHandler(Traincraft.INSTANCE, new GuiHandler());
         TC_NETWORK.registerMessage(PacketTraincraftEntity.class, PacketTraincraftEntity.class, 0, Side.SERVER);
         TC_NETWORK.registerMessage(PacketTraincraftEntity.class, PacketTraincraftEntity.class, 1, Side.CLIENT);
+        TC_NETWORK.registerMessage(PacketTraincraftEntityBatch.class, PacketTraincraftEntityBatch.class, 2, Side.CLIENT);
         
         if(event.getSide() == Side.CLIENT){
             LOGGER.info("Register item color handler");
@@ -180,6 +186,16 @@ public class Traincraft {
         LOGGER.info("Finished PostInitialization");
     }
     
+    @Mod.EventHandler
+    public void serverStarting(FMLServerStartingEvent event){
+        event.registerServerCommand(new CommandTraincraft());
+    }
+    
+    @Mod.EventHandler
+    public void serverStopping(FMLServerStoppingEvent event){
+        PacketCapture.stop(); // the file is complete before the server is gone
+    }
+    
     public void onResourceReload(IResourceManager resourceManager){
         // add distillery & trainworkbench recipes to new list
         DistilleryRecipe.DISTIL_RECIPES.clear();
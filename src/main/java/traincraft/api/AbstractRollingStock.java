@@ -10,58 +10,118 @@
 
 package traincraft.api;
 
+import io.netty.buffer.ByteBuf;
 import net.minecraft.client.renderer.GlStateManager;
 import net.minecraft.client.renderer.RenderGlobal;
 import net.minecraft.client.renderer.entity.RenderManager;
 import net.minecraft.client.renderer.texture.TextureMap;
 import net.minecraft.entity.Entity;
+import net.minecraft.entity.EntityList;
+import net.minecraft.entity.IEntityMultiPart;
+import net.minecraft.entity.MultiPartEntityPart;
 import net.minecraft.entity.item.EntityMinecart;
 import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.item.ItemStack;
 import net.minecraft.nbt.NBTBase;
 import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
 import net.minecraft.util.EnumActionResult;
 import net.minecraft.util.EnumFacing;
+import net.minecraft.util.DamageSource;
 import net.minecraft.util.EnumHand;
 import net.minecraft.util.ResourceLocation;
 import net.minecraft.util.math.AxisAlignedBB;
+import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.MathHelper;
 import net.minecraft.util.math.Vec3d;
 import net.minecraft.world.World;
+import net.minecraft.world.WorldServer;
 import net.minecraftforge.common.capabilities.Capability;
 import net.minecraftforge.common.util.Constants;
 import net.minecraftforge.common.util.INBTSerializable;
+import net.minecraftforge.common.util.ITeleporter;
 import net.minecraftforge.energy.CapabilityEnergy;
 import net.minecraftforge.energy.IEnergyStorage;
 import net.minecraftforge.fluids.capability.CapabilityFluidHandler;
 import net.minecraftforge.fluids.capability.IFluidHandler;
 import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+import net.minecraftforge.fml.common.registry.IEntityAdditionalSpawnData;
+import net.minecraftforge.fml.relauncher.Side;
+import net.minecraftforge.fml.relauncher.SideOnly;
 import net.minecraftforge.items.CapabilityItemHandler;
 import net.minecraftforge.items.IItemHandler;
+import net.minecraftforge.items.IItemHandlerModifiable;
 import net.minecraftforge.items.wrapper.InvWrapper;
+import traincraft.Traincraft;
 import traincraft.compat.CompatibilityManager;
+import traincraft.event.TCEvents;
 import traincraft.items.ItemConnector;
 import traincraft.items.ItemSkinChanger;
+import traincraft.network.EntityField;
+import traincraft.network.EntityPacketData;
 import traincraft.network.EnumKeyEvent;
 import traincraft.network.GuiHandler;
+import traincraft.network.NBTDelta;
+import traincraft.network.NetworkStats;
 import traincraft.network.TCEntityPackets;
 import traincraft.tile.BaseTile;
+import traincraft.track.TrackEnvironment;
+import traincraft.track.TrackNetwork;
+import traincraft.track.TrackSegment;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.*;
 
-public abstract class AbstractRollingStock<A extends AbstractRollingStock<A>> extends EntityMinecart implements IRollingStock {
+public abstract class AbstractRollingStock<A extends AbstractRollingStock<A>> extends EntityMinecart implements IRollingStock, IEntityMultiPart, IEntityAdditionalSpawnData {
+    
+    /**
+     * The maximum length of the root bounding box and of every {@link RollingStockPart}.
+     * Entity searches only look {@link World#MAX_ENTITY_RADIUS} around the chunk of every entity, so half of this has to stay within it.
+     */
+    public static final double MAX_SECTION_LENGTH = 2.0D;
+    
+    /**
+     * The version of the compact save layout, see {@link #writeCompactSave(NBTTagCompound)}.
+     * Saves without a version have the old layout with a key per field, which is still used for the sync data.
+     */
+    public static final byte SAVE_VERSION = 1;
+    private static final String SAVE_VERSION_KEY = "tc_v";
     
     private UUID owner;
     private String name;
     private EnumRestriction restriction = EnumRestriction.PUBLIC;
     private int activeSkin = 0;
     private double travelDistance = 0D;
+    private double speed = 0D;
+    private AutomaticTrainOperation automaticTrainOperation;
+    private final DriverInput driverInput = new DriverInput();
+    private TrackSegment occupiedSegment;
+    private BlockPos occupancyPos;
+    private long occupancyGeneration = -1L;
+    private TrackEnvironment environment;
+    private BlockPos environmentMin, environmentMax;
+    private TrackEnvironment.Area environmentArea;
     private Map<String, ResourceLocation> skins;
     private AbstractRollingStock<?> next, previous;
     private List<Vec3d> axes;
     private List<PassengerSeat> seats;
+    private RollingStockPart[] parts;
+    private AxisAlignedBB fullBoundingBox;
+    private NBTTagCompound lastSyncData;
+    private boolean initialStateReceived; // client side
+    boolean consistPending; // server side, held until the other cars of its saved consist are loaded. See ConsistStore
+    private int consistPendingTicks;
+    private boolean changingDimension;
+    // server side consist snapshot state, only used by the lead. See Consist
+    int[] lastSnapshotCars = new int[0], lastSnapshotOffsets = new int[0];
+    Vec3d lastSnapshotPosition, lastSnapshotVelocity;
+    long lastSnapshotTime;
+    boolean forceSnapshot;
+    // client side consist position
+    ConsistTrail consistTrail;
+    double consistOffset;
     
     public AbstractRollingStock(World worldIn){
         super(worldIn);
@@ -83,6 +143,16 @@ public abstract class AbstractRollingStock<A extends AbstractRollingStock<A>> ex
         
         this.seats = new ArrayList<>();
         this.registerSeats(this, this.seats);
+        
+        // the parts have to be created together with this entity, the client calculates their ids relative to this one
+        Vec3d size = this.getSize(this);
+        int sections = (int) Math.ceil(Math.max(size.x, size.z) / MAX_SECTION_LENGTH);
+        if(sections > 1){
+            this.parts = new RollingStockPart[sections];
+            for(int i = 0; i < sections; i++){
+                this.parts[i] = new RollingStockPart(this, i);
+            }
+        }
     }
     
     @Override
@@ -98,6 +168,13 @@ public abstract class AbstractRollingStock<A extends AbstractRollingStock<A>> ex
         }
         
         if(world.isRemote){
+            if(this.consistTrail != null){
+                // the whole consist is moved by the snapshots of its lead
+                long time = this.world.getTotalWorldTime();
+                Vec3d position = this.consistTrail.getPosition(this.consistOffset, time);
+                this.rotationYaw = this.consistTrail.getYaw(this.consistOffset, time, this.rotationYaw);
+                this.setPosition(position.x, position.y, position.z);
+            }
             // todo client code
         } else{
             this.prevPosX = this.posX;
@@ -107,6 +184,23 @@ public abstract class AbstractRollingStock<A extends AbstractRollingStock<A>> ex
                 this.motionY -= 0.03999999910593033D;
             }
             
+            this.applyDriverInput();
+            if(this.automaticTrainOperation != null){
+                this.speed = this.automaticTrainOperation.update(this, this.speed);
+                if(this.automaticTrainOperation.hasArrived()){
+                    this.automaticTrainOperation = null;
+                }
+            }
+            if(this.consistPending){
+                this.speed = 0.0D; // the consist gets its speed back, when all cars are loaded
+                if(++this.consistPendingTicks > ConsistStore.PENDING_TIMEOUT_TICKS){
+                    TCEvents.getSaveData(this.world).getConsistStore().releasePending((WorldServer) this.world, this);
+                }
+            } else{
+                this.consistPendingTicks = 0;
+            }
+            this.travelDistance += Math.abs(this.speed) / 20.0D;
+            
             /*
             Vec3d positionVector = new Vec3d(this.posX, this.posY, this.posZ);
             Vec3d frontAxis = this.getFrontAxis(this);
@@ -139,7 +233,16 @@ public abstract class AbstractRollingStock<A extends AbstractRollingStock<A>> ex
                 }
             }*/
             
-            this.doBlockCollisions();
+            this.updateOccupancy();
+            TrackEnvironment.Area environment = this.getEnvironmentArea();
+            if(environment == null){
+                this.doBlockCollisions();
+            } else{
+                environment.collideWithBlocks(this);
+                if(environment.isObstructed()){
+                    this.speed = 0.0D; // something is blocking the loading gauge
+                }
+            }
             this.rotationPitch = 0.0F;
             double deltaX = this.prevPosX - this.posX;
             double deltaZ = this.prevPosZ - this.posZ;
@@ -151,9 +254,15 @@ public abstract class AbstractRollingStock<A extends AbstractRollingStock<A>> ex
             // apply collisions to entities except passengers
             List<AxisAlignedBB> collisionBoxes = this.getCollisionBoxes(this, new Vec3d(this.posX, this.posY, this.posZ));
             if(!collisionBoxes.isEmpty()){
-                List<Entity> list = new ArrayList<>();
+                Set<Entity> list = new LinkedHashSet<>();
                 for(AxisAlignedBB collisionBox : collisionBoxes){
-                    list.addAll(this.world.getEntitiesWithinAABBExcludingEntity(this, collisionBox));
+                    for(Entity entity : this.world.getEntitiesWithinAABBExcludingEntity(this, collisionBox)){
+                        // collide with the owner of a part, but never with own parts
+                        Entity collided = entity instanceof RollingStockPart ? ((RollingStockPart) entity).getRollingStock() : entity;
+                        if(collided != this){
+                            list.add(collided);
+                        }
+                    }
                 }
                 for(Entity entity : list){
                     if(!this.isPassenger(entity) && entity.canBePushed()){
@@ -164,10 +273,93 @@ public abstract class AbstractRollingStock<A extends AbstractRollingStock<A>> ex
                     }
                 }
             }
-            this.handleWaterMovement();
+            if(environment == null){
+                this.handleWaterMovement();
+            } else{
+                this.inWater = environment.isInWater();
+                if(this.inWater){
+                    this.extinguish();
+                } else if(environment.isInLava()){
+                    this.setOnFireFromLava();
+                }
+            }
+            if(this.getPreviousCar() == null){
+                Consist.update(this);
+            }
+        }
+        if(this.parts != null && !this.isDead){
+            for(RollingStockPart part : this.parts){
+                part.updateChunk();
+            }
         }
     }
     
+    /**
+     * Reports entering and leaving of track segments to the {@link traincraft.track.TrackOccupancy}.
+     * The segment lookup is only done if the block position or the track network has changed.
+     */
+    private void updateOccupancy(){
+        TrackNetwork network = TCEvents.getSaveData(this.world).getTrackNetwork();
+        BlockPos pos = this.getPosition();
+        if(pos.equals(this.occupancyPos) && network.getGeneration() == this.occupancyGeneration){
+            return;
+        }
+        this.occupancyPos = pos;
+        this.occupancyGeneration = network.getGeneration();
+        TrackSegment segment = network.getSegmentAt(pos);
+        if(!Objects.equals(segment, this.occupiedSegment)){
+            if(this.occupiedSegment != null){
+                network.getOccupancy().leave(this.occupiedSegment);
+            }
+            if(segment != null){
+                network.getOccupancy().enter(segment);
+            }
+            this.occupiedSegment = segment;
+        }
+    }
+    
+    /**
+     * The environment within the full bounds of this rolling stock, from the cached {@link TrackEnvironment} of its segment.
+     * It is only looked up again if the environment or the blocks within the bounds have changed.
+     *
+     * @return Null if this isn't on a segment or reaches out of the computed area of it
+     */
+    @Nullable
+    private TrackEnvironment.Area getEnvironmentArea(){
+        if(this.occupiedSegment == null){
+            return null;
+        }
+        TrackEnvironment environment = TCEvents.getSaveData(this.world).getTrackNetwork().getEnvironment(this.world, this.occupiedSegment);
+        AxisAlignedBB bounds = this.getFullBoundingBox();
+        BlockPos min = new BlockPos(bounds.minX + 0.001D, bounds.minY + 0.001D, bounds.minZ + 0.001D);
+        BlockPos max = new BlockPos(bounds.maxX - 0.001D, bounds.maxY - 0.001D, bounds.maxZ - 0.001D);
+        if(environment != this.environment || !min.equals(this.environmentMin) || !max.equals(this.environmentMax)){
+            this.environment = environment;
+            this.environmentMin = min;
+            this.environmentMax = max;
+            this.environmentArea = environment.getArea(min, max);
+        }
+        return this.environmentArea;
+    }
+    
+    /**
+     * Leaves the currently occupied segment. Called when this rolling stock is removed from the world.
+     */
+    public void releaseOccupancy(){
+        if(this.occupiedSegment != null && !this.world.isRemote){
+            TCEvents.getSaveData(this.world).getTrackNetwork().getOccupancy().leave(this.occupiedSegment);
+        }
+        this.occupiedSegment = null;
+        this.occupancyPos = null;
+        this.environment = null;
+        this.environmentArea = null;
+    }
+    
+    @Nullable
+    public TrackSegment getOccupiedSegment(){
+        return this.occupiedSegment;
+    }
+    
     @Override
     public void setPosition(double x, double y, double z){
         this.posX = x;
@@ -179,7 +371,105 @@ public abstract class AbstractRollingStock<A extends AbstractRollingStock<A>> ex
         double halfDepth = (size.z / 2.0D);
         AxisAlignedBB bb = new AxisAlignedBB(x - halfWidth, y, z - halfDepth, x + halfWidth, y + height, z + halfDepth);
         // todo rotate aabb -> TCUtil.generateRotatedAABB
+        this.fullBoundingBox = bb;
+        if(this.parts != null){
+            // the root stays small, the whole length is covered by the parts
+            double halfSection = MAX_SECTION_LENGTH / 2.0D;
+            halfWidth = Math.min(halfWidth, halfSection);
+            halfDepth = Math.min(halfDepth, halfSection);
+            bb = new AxisAlignedBB(x - halfWidth, y, z - halfDepth, x + halfWidth, y + height, z + halfDepth);
+        }
         this.setEntityBoundingBox(bb);
+        this.updateParts();
+    }
+    
+    /**
+     * Splits the area of the collision boxes into one section per part, along the longer horizontal axis.
+     */
+    private void updateParts(){
+        if(this.parts == null){
+            return;
+        }
+        List<AxisAlignedBB> collisionBoxes = this.getCollisionBoxes(this, new Vec3d(this.posX, this.posY, this.posZ));
+        AxisAlignedBB area = collisionBoxes.isEmpty() ? this.fullBoundingBox : collisionBoxes.get(0);
+        for(AxisAlignedBB collisionBox : collisionBoxes){
+            area = area.union(collisionBox);
+        }
+        boolean alongX = area.maxX - area.minX >= area.maxZ - area.minZ;
+        double sectionLength = ((alongX ? area.maxX - area.minX : area.maxZ - area.minZ)) / this.parts.length;
+        for(int i = 0; i < this.parts.length; i++){
+            double start = (alongX ? area.minX : area.minZ) + i * sectionLength;
+            this.parts[i].setBox(alongX ? new AxisAlignedBB(start, area.minY, area.minZ, start + sectionLength, area.maxY, area.maxZ) : new AxisAlignedBB(area.minX, area.minY, start, area.maxX, area.maxY, start + sectionLength));
+        }
+    }
+    
+    /**
+     * @return The bounding box over the full size of this rolling stock, which can be longer than the entity bounding box
+     */
+    public AxisAlignedBB getFullBoundingBox(){
+        return this.fullBoundingBox != null ? this.fullBoundingBox : this.getEntityBoundingBox();
+    }
+    
+    @Nullable
+    @Override
+    public Entity[] getParts(){
+        return this.parts;
+    }
+    
+    @Nonnull
+    @Override
+    public World getWorld(){
+        return this.world;
+    }
+    
+    @Override
+    public boolean attackEntityFromPart(@Nonnull MultiPartEntityPart part, @Nonnull DamageSource source, float damage){
+        return this.attackEntityFrom(source, damage);
+    }
+    
+    @SideOnly(Side.CLIENT)
+    @Nonnull
+    @Override
+    public AxisAlignedBB getRenderBoundingBox(){
+        return this.getFullBoundingBox();
+    }
+    
+    /**
+     * The car leaves the dimension like an unloaded one, its consist stays saved. See {@link ConsistStore#releasePending(WorldServer, AbstractRollingStock)}
+     */
+    @Nullable
+    @Override
+    public Entity changeDimension(int dimension, @Nonnull ITeleporter teleporter){
+        this.changingDimension = true;
+        try{
+            return super.changeDimension(dimension, teleporter);
+        } finally{
+            this.changingDimension = false;
+        }
+    }
+    
+    @Override
+    public void setDead(){
+        if(!this.world.isRemote && !this.isDead){
+            if(this.changingDimension){
+                TCEvents.getSaveData(this.world).getConsistStore().onCarUnloaded(this);
+            } else{
+                TCEvents.getSaveData(this.world).getConsistStore().onCarRemoved(this);
+            }
+        }
+        this.removePartsFromChunks();
+        super.setDead();
+    }
+    
+    /**
+     * Takes the parts out of the entity lists of their chunks, when this is killed or unloaded.
+     */
+    public void removePartsFromChunks(){
+        if(this.parts != null){
+            for(RollingStockPart part : this.parts){
+                part.removeFromChunk();
+            }
+        }
     }
     
     @Override
@@ -196,6 +486,9 @@ public abstract class AbstractRollingStock<A extends AbstractRollingStock<A>> ex
     
     @Override
     public void setPositionAndRotationDirect(double x, double y, double z, float yaw, float pitch, int posRotationIncrements, boolean teleport){
+        if(this.consistTrail != null){
+            return; // the rare vanilla updates are older than the prediction of the consist
+        }
         super.setPositionAndRotationDirect(x, y, z, yaw, pitch, posRotationIncrements, teleport);
         this.setPosition(x, y, z); // to recalculate the bounding box
     }
@@ -208,6 +501,18 @@ public abstract class AbstractRollingStock<A extends AbstractRollingStock<A>> ex
     
     @Override
     public void readFromNBT(AbstractRollingStock<?> rollingStock, NBTTagCompound nbt, BaseTile.NBTState state){
+        if(state == BaseTile.NBTState.SAVE && isCompactSave(nbt)){
+            this.readCompactSave(nbt, nbt.getByte(SAVE_VERSION_KEY));
+        } else{
+            this.readNamedFields(nbt, state); // sync data and saves from before the compact layout
+        }
+        // todo read energy capabililty
+        
+        CompatibilityManager.readRollingStockNBT(this, nbt, state);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private void readNamedFields(NBTTagCompound nbt, BaseTile.NBTState state){
         if(nbt.hasUniqueId("owner")){
             this.owner = nbt.getUniqueId("owner");
         }
@@ -215,13 +520,19 @@ public abstract class AbstractRollingStock<A extends AbstractRollingStock<A>> ex
             this.name = nbt.getString("name");
         }
         if(nbt.hasKey("restriction", Constants.NBT.TAG_INT)){
-            this.restriction = EnumRestriction.values()[nbt.getInteger("restriction")];
+            this.restriction = getRestriction(nbt.getInteger("restriction"));
         }
         if(nbt.hasKey("active_skin", Constants.NBT.TAG_INT)){
             this.activeSkin = nbt.getInteger("active_skin");
         }
         if(nbt.hasKey("travel_distance", Constants.NBT.TAG_DOUBLE)){
-            this.travelDistance = nbt.getInteger("travel_distance");
+            this.travelDistance = nbt.getDouble("travel_distance");
+        }
+        if(nbt.hasKey("speed", Constants.NBT.TAG_DOUBLE)){
+            this.speed = nbt.getDouble("speed");
+        }
+        if(state == BaseTile.NBTState.SAVE && nbt.hasKey("ato", Constants.NBT.TAG_COMPOUND)){
+            this.automaticTrainOperation = AutomaticTrainOperation.readFromNBT(nbt.getCompoundTag("ato"));
         }
         if(nbt.hasKey("inventory")){
             NBTTagCompound inventoryNBT = nbt.getCompoundTag("inventory");
@@ -237,13 +548,21 @@ public abstract class AbstractRollingStock<A extends AbstractRollingStock<A>> ex
                 ((INBTSerializable<NBTTagCompound>) fluidHandler).deserializeNBT(fluidTankNBT);
             }
         }
-        // todo read energy capabililty
-        
-        CompatibilityManager.readRollingStockNBT(this, nbt, state);
     }
     
     @Override
     public void writeToNBT(AbstractRollingStock<?> rollingStock, NBTTagCompound nbt, BaseTile.NBTState state){
+        if(state == BaseTile.NBTState.SAVE){
+            this.writeCompactSave(nbt);
+        } else{
+            this.writeNamedFields(nbt, state);
+        }
+        // todo write energy capabililty
+        
+        CompatibilityManager.writeRollingStockNBT(this, nbt, state);
+    }
+    
+    private void writeNamedFields(NBTTagCompound nbt, BaseTile.NBTState state){
         if(this.owner != null){
             nbt.setUniqueId("owner", this.owner);
         }
@@ -253,6 +572,10 @@ public abstract class AbstractRollingStock<A extends AbstractRollingStock<A>> ex
         nbt.setInteger("restriction", this.restriction.ordinal());
         nbt.setInteger("active_skin", this.activeSkin);
         nbt.setDouble("travel_distance", this.travelDistance);
+        nbt.setDouble("speed", this.speed);
+        if(state == BaseTile.NBTState.SAVE && this.automaticTrainOperation != null){
+            nbt.setTag("ato", this.automaticTrainOperation.writeToNBT());
+        }
         
         IItemHandler inventory = this.getInventory(this, null);
         if(inventory instanceof InvWrapper && ((InvWrapper) inventory).getInv() instanceof INBTSerializable<?>){
@@ -269,10 +592,161 @@ public abstract class AbstractRollingStock<A extends AbstractRollingStock<A>> ex
                 nbt.setTag("fluid_tank", value);
             }
         }
+    }
+    
+    /**
+     * The save layout of version {@link #SAVE_VERSION}: the scalar fields are packed into int arrays, default values
+     * are left out and only the filled inventory slots are written.
+     * <ul>
+     *     <li>tc_i: restriction and active skin, without trailing zeros</li>
+     *     <li>tc_d: travel distance and speed as two ints each, without trailing zeros</li>
+     *     <li>tc_o: the owner as four ints</li>
+     *     <li>tc_n: the name</li>
+     *     <li>ato: the automatic train operation</li>
+     *     <li>tc_inv: the filled slots, every stack with its slot as byte</li>
+     *     <li>tc_fl: the fluid tank, if it isn't empty</li>
+     * </ul>
+     */
+    private void writeCompactSave(NBTTagCompound nbt){
+        nbt.setByte(SAVE_VERSION_KEY, SAVE_VERSION);
+        int[] ints = trimZeros(new int[]{this.restriction.ordinal(), this.activeSkin});
+        if(ints.length > 0){
+            nbt.setIntArray("tc_i", ints);
+        }
+        int[] doubles = trimZeros(packDoubles(this.travelDistance, this.speed));
+        if(doubles.length > 0){
+            nbt.setIntArray("tc_d", doubles);
+        }
+        if(this.owner != null){
+            nbt.setIntArray("tc_o", packLongs(this.owner.getMostSignificantBits(), this.owner.getLeastSignificantBits()));
+        }
+        if(this.name != null){
+            nbt.setString("tc_n", this.name);
+        }
+        if(this.automaticTrainOperation != null){
+            nbt.setTag("ato", this.automaticTrainOperation.writeToNBT());
+        }
         
-        // todo write energy capabililty
+        IItemHandler inventory = this.getInventory(this, null);
+        if(inventory != null){
+            NBTTagList stacks = new NBTTagList();
+            for(int slot = 0; slot < inventory.getSlots(); slot++){
+                ItemStack stack = inventory.getStackInSlot(slot);
+                if(!stack.isEmpty()){
+                    NBTTagCompound stackNBT = stack.writeToNBT(new NBTTagCompound());
+                    InventoryBase.writeSlot(stackNBT, slot);
+                    stacks.appendTag(stackNBT);
+                }
+            }
+            if(stacks.tagCount() > 0){
+                nbt.setTag("tc_inv", stacks);
+            }
+        }
         
-        CompatibilityManager.writeRollingStockNBT(this, nbt, state);
+        IFluidHandler fluidHandler = this.getFluidTank(this, null);
+        if(fluidHandler instanceof INBTSerializable<?> && Arrays.stream(fluidHandler.getTankProperties()).anyMatch(tank -> tank.getContents() != null)){
+            NBTBase value = ((INBTSerializable<?>) fluidHandler).serializeNBT();
+            if(value instanceof NBTTagCompound){
+                nbt.setTag("tc_fl", value);
+            }
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private void readCompactSave(NBTTagCompound nbt, int version){
+        if(version > SAVE_VERSION){
+            Traincraft.LOGGER.warn("The rolling stock {} was saved by a newer Traincraft version (save version {}), some data may be lost", this.getTypeId(), version);
+        }
+        int[] ints = Arrays.copyOf(nbt.getIntArray("tc_i"), 2);
+        this.restriction = getRestriction(ints[0]);
+        this.activeSkin = ints[1];
+        int[] doubles = Arrays.copyOf(nbt.getIntArray("tc_d"), 4);
+        this.travelDistance = unpackDouble(doubles, 0);
+        this.speed = unpackDouble(doubles, 1);
+        int[] owner = nbt.getIntArray("tc_o");
+        this.owner = owner.length == 4 ? new UUID(unpackLong(owner, 0), unpackLong(owner, 1)) : null;
+        this.name = nbt.hasKey("tc_n", Constants.NBT.TAG_STRING) ? nbt.getString("tc_n") : null;
+        this.automaticTrainOperation = nbt.hasKey("ato", Constants.NBT.TAG_COMPOUND) ? AutomaticTrainOperation.readFromNBT(nbt.getCompoundTag("ato")) : null;
+        
+        // the save is a complete state, everything which isn't part of it is empty
+        IItemHandler inventory = this.getInventory(this, null);
+        if(inventory instanceof IItemHandlerModifiable){
+            boolean[] read = new boolean[inventory.getSlots()];
+            NBTTagList stacks = nbt.getTagList("tc_inv", Constants.NBT.TAG_COMPOUND);
+            for(int i = 0; i < stacks.tagCount(); i++){
+                NBTTagCompound stackNBT = stacks.getCompoundTagAt(i);
+                int slot = InventoryBase.readSlot(stackNBT);
+                if(slot >= 0 && slot < read.length){
+                    ((IItemHandlerModifiable) inventory).setStackInSlot(slot, new ItemStack(stackNBT));
+                    read[slot] = true;
+                }
+            }
+            for(int slot = 0; slot < read.length; slot++){
+                if(!read[slot] && !inventory.getStackInSlot(slot).isEmpty()){
+                    ((IItemHandlerModifiable) inventory).setStackInSlot(slot, ItemStack.EMPTY);
+                }
+            }
+        }
+        
+        IFluidHandler fluidHandler = this.getFluidTank(this, null);
+        if(fluidHandler instanceof INBTSerializable<?>){
+            NBTTagCompound fluidNBT = nbt.getCompoundTag("tc_fl");
+            if(fluidNBT.hasNoTags()){
+                fluidNBT.setString("Empty", ""); // like an empty FluidTank
+            }
+            ((INBTSerializable<NBTTagCompound>) fluidHandler).deserializeNBT(fluidNBT);
+        }
+    }
+    
+    private static EnumRestriction getRestriction(int ordinal){
+        return ordinal >= 0 && ordinal < EnumRestriction.values().length ? EnumRestriction.values()[ordinal] : EnumRestriction.PUBLIC;
+    }
+    
+    /**
+     * @return True if the save has the compact layout. Subclasses read their own fields from it in the same way
+     */
+    protected static boolean isCompactSave(NBTTagCompound nbt){
+        return nbt.hasKey(SAVE_VERSION_KEY, Constants.NBT.TAG_BYTE);
+    }
+    
+    /**
+     * @return Two ints per double, for an int array of the compact save layout
+     */
+    protected static int[] packDoubles(double... values){
+        long[] bits = new long[values.length];
+        for(int i = 0; i < values.length; i++){
+            bits[i] = Double.doubleToLongBits(values[i]);
+        }
+        return packLongs(bits);
+    }
+    
+    protected static int[] packLongs(long... values){
+        int[] ints = new int[values.length * 2];
+        for(int i = 0; i < values.length; i++){
+            ints[i * 2] = (int) (values[i] >>> 32);
+            ints[i * 2 + 1] = (int) values[i];
+        }
+        return ints;
+    }
+    
+    protected static long unpackLong(int[] ints, int index){
+        return ((long) ints[index * 2] << 32) | (ints[index * 2 + 1] & 0xFFFFFFFFL);
+    }
+    
+    protected static double unpackDouble(int[] ints, int index){
+        return Double.longBitsToDouble(unpackLong(ints, index));
+    }
+    
+    /**
+     * The default values of the compact save layout are zero, so they are left out at the end of the array.
+     * The reading side pads the array with {@link Arrays#copyOf(int[], int)}.
+     */
+    protected static int[] trimZeros(int[] ints){
+        int length = ints.length;
+        while(length > 0 && ints[length - 1] == 0){
+            length--;
+        }
+        return length == ints.length ? ints : Arrays.copyOf(ints, length);
     }
     
     // called every frame! should be cached if possible!!!
@@ -306,14 +780,63 @@ public abstract class AbstractRollingStock<A extends AbstractRollingStock<A>> ex
         return false;
     }
     
+    /**
+     * Only the back of this rolling stock can be linked to the front of the other one, so a consist is always a simple chain.
+     */
     @Override
     public boolean canLinkToAnotherRollingStock(@Nonnull AbstractRollingStock<?> rollingStock, @Nonnull AbstractRollingStock<?> other, @Nullable EntityPlayer linker){
-        return false; //todo
+        if(other == this || other.world != this.world || this.next != null || other.previous != null || Consist.getCars(this).contains(other)){
+            return false;
+        }
+        Vec3d size = this.getSize(this), otherSize = other.getSize(other);
+        double maxDistance = (Math.max(size.x, size.z) + Math.max(otherSize.x, otherSize.z)) / 2.0D + 1.5D; // todo check the track between both
+        return this.getDistanceSq(other) <= maxDistance * maxDistance;
     }
     
     @Override
     public void linkToAnotherRollingStock(@Nonnull AbstractRollingStock<?> rollingStock, @Nonnull AbstractRollingStock<?> other, @Nullable EntityPlayer linker){
+        if(this.next == null && other.previous == null){
+            this.next = other;
+            other.previous = this;
+        } else if(other.next == this){
+            this.previous = other; // the other side of the same link
+        }
+    }
     
+    /**
+     * Replaces both links without any checks, for restoring a saved consist.
+     */
+    void setLinks(@Nullable AbstractRollingStock<?> previous, @Nullable AbstractRollingStock<?> next){
+        this.previous = previous;
+        this.next = next;
+    }
+    
+    /**
+     * Removes the link to the next rolling stock, if there is one.
+     */
+    public void unlinkNextCar(){
+        if(this.next != null){
+            if(this.next.previous == this){
+                this.next.previous = null;
+            }
+            this.next = null;
+        }
+    }
+    
+    /**
+     * @return The rolling stock in front of this one, or null if this is the lead of its {@link Consist}
+     */
+    @Nullable
+    public AbstractRollingStock<?> getPreviousCar(){
+        return this.previous != null && !this.previous.isDead ? this.previous : null;
+    }
+    
+    /**
+     * @return The rolling stock behind this one
+     */
+    @Nullable
+    public AbstractRollingStock<?> getNextCar(){
+        return this.next != null && !this.next.isDead ? this.next : null;
     }
     
     @Override
@@ -354,6 +877,9 @@ public abstract class AbstractRollingStock<A extends AbstractRollingStock<A>> ex
     
     @Override
     protected void removePassenger(@Nonnull Entity passenger){
+        if(passenger == this.getControllingPassenger()){
+            this.driverInput.reset();
+        }
         this.seats.stream().filter(passengerSeat -> passengerSeat.isUsedBy(passenger)).forEach(passengerSeat -> passengerSeat.setCurrentUser(null));
         super.removePassenger(passenger);
     }
@@ -426,6 +952,21 @@ public abstract class AbstractRollingStock<A extends AbstractRollingStock<A>> ex
         return this.seats.stream().filter(PassengerSeat::isControllingSeat).findFirst().map(PassengerSeat::getCurrentUser).orElse(null);
     }
     
+    /**
+     * @return The id this type of rolling stock is registered with
+     */
+    public ResourceLocation getTypeId(){
+        ResourceLocation id = EntityList.getKey(this);
+        return id != null ? id : NetworkStats.UNKNOWN_TYPE;
+    }
+    
+    /**
+     * @return How the entity tracker handles this type. Has to match the values it was registered with
+     */
+    public TrackingProfile getTrackingProfile(){
+        return TrackingProfile.DEFAULT;
+    }
+    
     public UUID getOwner(){
         return this.owner;
     }
@@ -494,21 +1035,205 @@ public abstract class AbstractRollingStock<A extends AbstractRollingStock<A>> ex
         return this.travelDistance;
     }
     
-    public IMessage onNetworkPacketClient(@Nonnull TCEntityPackets packet, @Nonnull NBTTagCompound data){
+    /**
+     * @return The current speed in m/s
+     */
+    public double getSpeed(){
+        return this.speed;
+    }
+    
+    public A setSpeed(double speed){
+        this.speed = speed;
+        return (A) this;
+    }
+    
+    @Nullable
+    public AutomaticTrainOperation getAutomaticTrainOperation(){
+        return this.automaticTrainOperation;
+    }
+    
+    /**
+     * Starts or stops (null) the automatic train operation of this rolling stock.
+     * This is only possible for rolling stock, which can drive automatically.
+     *
+     * @param automaticTrainOperation The new automatic train operation or null to stop it
+     * @return True if the automatic train operation was changed
+     * @see IRollingStock#canDriveAutomatically(AbstractRollingStock)
+     */
+    public boolean setAutomaticTrainOperation(@Nullable AutomaticTrainOperation automaticTrainOperation){
+        if(automaticTrainOperation != null && !this.canDriveAutomatically(this)){
+            return false;
+        }
+        this.automaticTrainOperation = automaticTrainOperation;
+        return true;
+    }
+    
+    public IMessage onNetworkPacketClient(@Nonnull TCEntityPackets packet, @Nonnull EntityPacketData data){
         return packet.run(this, data);
     }
     
-    public IMessage onNetworkPacketServer(@Nonnull TCEntityPackets packet, @Nonnull NBTTagCompound data){
+    /**
+     * @param sender The player who sent the packet
+     */
+    public IMessage onNetworkPacketServer(@Nonnull TCEntityPackets packet, @Nonnull EntityPacketData data, @Nonnull EntityPlayerMP sender){
+        if(packet.isDriverOnly() && this.getControllingPassenger() != sender){
+            return null; // only the driver controls the train
+        }
         return packet.run(this, data);
     }
     
+    /**
+     * Applies a received sync packet. The schema fields are read directly, everything else goes through
+     * {@link #readFromNBT(AbstractRollingStock, NBTTagCompound, BaseTile.NBTState)} with the SYNC state.
+     * Subclasses with own schema fields have to override this.
+     *
+     * @param data The received data, which only contains the changed fields
+     */
+    public void readSyncData(@Nonnull EntityPacketData data){
+        if(data.hasExtra()){
+            NBTDelta.getRemovedKeys(data.getExtra()).forEach(this::resetSyncKey);
+        }
+        UUID owner = data.getUniqueId(EntityField.OWNER_MOST, EntityField.OWNER_LEAST);
+        if(owner != null){
+            this.owner = owner;
+        }
+        if(data.has(EntityField.NAME)){
+            this.name = data.getString(EntityField.NAME);
+        }
+        if(data.has(EntityField.RESTRICTION)){
+            int restriction = data.getInt(EntityField.RESTRICTION);
+            if(restriction >= 0 && restriction < EnumRestriction.values().length){
+                this.restriction = EnumRestriction.values()[restriction];
+            }
+        }
+        if(data.has(EntityField.ACTIVE_SKIN)){
+            this.activeSkin = data.getInt(EntityField.ACTIVE_SKIN);
+        }
+        if(data.has(EntityField.TRAVEL_DISTANCE)){
+            this.travelDistance = data.getDouble(EntityField.TRAVEL_DISTANCE);
+        }
+        if(data.has(EntityField.SPEED)){
+            this.speed = data.getDouble(EntityField.SPEED);
+        }
+        if(data.hasExtra()){
+            this.readFromNBT(this, data.getExtra(), BaseTile.NBTState.SYNC);
+        }
+    }
+    
+    /**
+     * Client side: Resets the field of a key, which isn't part of the sync state anymore. See {@link NBTDelta}
+     * Subclasses which leave out some of their own sync keys have to override this.
+     */
+    protected void resetSyncKey(@Nonnull String key){
+        switch(key){
+            case "ownerMost":
+            case "ownerLeast":
+                this.owner = null;
+                break;
+            case "name":
+                this.name = null;
+                break;
+            default:
+                break;
+        }
+    }
+    
+    /**
+     * Called once per server tick for every key the driver is holding.
+     *
+     * @see DriverInput
+     */
     public void clientKeyPress(EnumKeyEvent key, boolean isGuiOpen){
     }
     
+    public DriverInput getDriverInput(){
+        return this.driverInput;
+    }
+    
+    /**
+     * Sends the input of the driver to the server. Has to be called every client tick while driving,
+     * but only changes (and a keep alive once a second) are actually sent.
+     *
+     * @param inputState The bitmask of all pressed keys, see {@link EnumKeyEvent#getMask()}
+     * @param isGuiOpen  If the driver has a gui open
+     */
+    @SideOnly(Side.CLIENT)
+    public void sendInputState(int inputState, boolean isGuiOpen){
+        int clientTick = DriverInput.getClientTick(); // the world time can jump backwards with the time updates of the server
+        if(this.driverInput.shouldSend(inputState, isGuiOpen, clientTick)){
+            TCEntityPackets.KEY_PRESS.sendToServer(this, new EntityPacketData()
+                .setInt(EntityField.INPUT_STATE, inputState)
+                .setBoolean(EntityField.GUI_OPEN, isGuiOpen)
+                .setInt(EntityField.CLIENT_TICK, clientTick));
+        }
+    }
+    
+    private void applyDriverInput(){
+        if(this.getControllingPassenger() == null){
+            this.driverInput.reset();
+            return;
+        }
+        this.driverInput.update();
+        int inputState = this.driverInput.getState();
+        if(inputState != 0){
+            boolean isGuiOpen = this.driverInput.isGuiOpen();
+            for(EnumKeyEvent key : EnumKeyEvent.getPressed(inputState)){
+                this.clientKeyPress(key, isGuiOpen);
+            }
+        }
+    }
+    
+    /**
+     * The spawn data is empty. New clients get the last sent sync state later with a STATE packet from the
+     * {@link traincraft.network.InitialStateQueue}, so all following deltas apply to exactly the state they were made from.
+     */
+    @Override
+    public void writeSpawnData(ByteBuf buffer){
+        new EntityPacketData().write(buffer); // the state follows with a STATE packet, see InitialStateQueue
+    }
+    
+    @Override
+    public void readSpawnData(ByteBuf buffer){
+        this.readSyncData(EntityPacketData.read(buffer));
+    }
+    
+    /**
+     * Server side: The complete sync state, as the clients know it after the last sync.
+     * The following sync packets are deltas on top of it.
+     */
+    public NBTTagCompound getInitialState(){
+        if(this.lastSyncData == null){
+            this.lastSyncData = new NBTTagCompound();
+            this.writeToNBT(this, this.lastSyncData, BaseTile.NBTState.SYNC);
+        }
+        return this.lastSyncData;
+    }
+    
+    public void onInitialStateReceived(){
+        this.initialStateReceived = true;
+    }
+    
+    /**
+     * Client side: If the state of this rolling stock has arrived. Until then it is rendered as placeholder.
+     */
+    public boolean hasInitialState(){
+        return this.initialStateReceived;
+    }
+    
     /* Utility methods below*/
+    
+    /**
+     * Sends all fields that have changed since the last sync to the clients. Nothing is sent if nothing has changed.
+     *
+     * @see NBTDelta
+     */
     public void sendSyncPacketToClients(){
         NBTTagCompound syncData = new NBTTagCompound();
         this.writeToNBT(this, syncData, BaseTile.NBTState.SYNC);
-        TCEntityPackets.SYNC.sendToClientsAround(this, syncData);
+        NBTTagCompound delta = this.lastSyncData != null ? NBTDelta.diff(this.lastSyncData, syncData) : syncData;
+        this.lastSyncData = syncData;
+        if(!delta.getKeySet().isEmpty()){
+            TCEntityPackets.SYNC.sendToClientsAround(this, delta);
+        }
     }
 }
@@ -0,0 +1,210 @@
+/*
+ * Traincraft
+ * Copyright (c) 2011-2020.
+ *
+ * This file ("AutomaticTrainOperation.java") is part of the Traincraft mod for Minecraft.
+ * It is created by all people that are listed with @author below.
+ * It is distributed under LGPL-v3.0.
+ * You can find the source code at https://github.com/Traincraft/Traincraft
+ */
+
+package traincraft.api;
+
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTUtil;
+import net.minecraft.util.math.BlockPos;
+import traincraft.event.TCEvents;
+import traincraft.track.Route;
+import traincraft.track.RoutePlanner;
+import traincraft.track.SpeedProfile;
+import traincraft.track.TrackNetwork;
+import traincraft.track.TrackSegment;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Automatic train operation (ATO) for locomotives.
+ * The route is requested from the {@link RoutePlanner} and the {@link SpeedProfile} is computed once when the route arrives.
+ * Every tick only the target speed for the driven distance is looked up and the speed is changed towards it,
+ * limited by the acceleration and the braking deceleration of the rolling stock. There is no lookahead along the track.
+ * When the track network changes, the route is requested again from the next node ahead and the distance is counted from there.
+ *
+ * @see AbstractRollingStock#setAutomaticTrainOperation(AutomaticTrainOperation)
+ */
+public class AutomaticTrainOperation {
+    
+    private static final double TICKS_PER_SECOND = 20.0D;
+    private static final int MIN_RETRY_DELAY_TICKS = 10;
+    private static final int MAX_RETRY_DELAY_TICKS = 200;
+    
+    private final BlockPos destination;
+    private BlockPos start; // of the current route
+    private CompletableFuture<Route> pendingRoute;
+    private Route route;
+    private SpeedProfile profile;
+    private double distance = 0.0D;
+    private boolean arrived = false;
+    private long retryTime;
+    private int retryDelay = MIN_RETRY_DELAY_TICKS;
+    
+    public AutomaticTrainOperation(@Nonnull BlockPos start, @Nonnull BlockPos destination){
+        this.start = start.toImmutable();
+        this.destination = destination.toImmutable();
+    }
+    
+    /**
+     * Called every server tick by the controlled rolling stock.
+     *
+     * @param rollingStock The controlled rolling stock
+     * @param speed        The current speed in m/s
+     * @return The new speed in m/s
+     */
+    public double update(@Nonnull AbstractRollingStock<?> rollingStock, double speed){
+        if(this.arrived){
+            return 0.0D;
+        }
+        if(this.route != null && !this.route.isValidFor(TCEvents.getSaveData(rollingStock.world).getTrackNetwork())){
+            // the network has changed, so the route has to be computed again. Brake until it is there.
+            this.restartAtNextNode(rollingStock);
+            this.route = null;
+            this.profile = null;
+        }
+        if(this.profile == null){
+            this.requestRouteIfNeeded(rollingStock);
+            return Math.max(0.0D, speed - getDeceleration(rollingStock) / TICKS_PER_SECOND);
+        }
+        
+        double targetSpeed = this.profile.getTargetSpeed(this.distance);
+        if(speed < targetSpeed){
+            speed = Math.min(targetSpeed, speed + rollingStock.getAcceleration(rollingStock) / TICKS_PER_SECOND);
+        } else if(speed > targetSpeed){
+            speed = Math.max(targetSpeed, speed - getDeceleration(rollingStock) / TICKS_PER_SECOND);
+        }
+        this.distance += speed / TICKS_PER_SECOND;
+        if(speed <= 0.0D && this.distance >= this.profile.getLength() - SpeedProfile.SAMPLE_DISTANCE){
+            this.arrived = true;
+        }
+        return speed;
+    }
+    
+    private void requestRouteIfNeeded(AbstractRollingStock<?> rollingStock){
+        if(this.pendingRoute != null && !this.pendingRoute.isDone() || rollingStock.world.getTotalWorldTime() < this.retryTime){
+            return;
+        }
+        this.pendingRoute = RoutePlanner.requestRoute(rollingStock.world, this.start, this.destination);
+        this.pendingRoute.whenComplete((route, throwable) -> { // on the server thread, see RoutePlanner#applyFinishedRoutes
+            if(throwable instanceof CancellationException){
+                return; // the network has changed, requested again on the next tick
+            }
+            if(throwable != null){
+                // the planner is busy or has failed, so don't ask it every tick
+                this.retryTime = rollingStock.world.getTotalWorldTime() + this.retryDelay;
+                this.retryDelay = Math.min(this.retryDelay * 2, MAX_RETRY_DELAY_TICKS);
+                return;
+            }
+            this.retryDelay = MIN_RETRY_DELAY_TICKS;
+            if(route != null){
+                this.route = route;
+                this.profile = SpeedProfile.create(route, rollingStock.getMaxSpeed(rollingStock), getDeceleration(rollingStock));
+            } else{
+                this.arrived = true; // there is no route, stop here
+            }
+        });
+    }
+    
+    /**
+     * The next route starts at the next node ahead on the current route. The distance to it is still to be driven,
+     * so the new distance starts negative. If the node was removed, the nearer node of the segment below the rolling stock is used.
+     */
+    private void restartAtNextNode(AbstractRollingStock<?> rollingStock){
+        List<TrackSegment> segments = this.route.getSegments();
+        if(segments.isEmpty()){
+            return; // already at the destination
+        }
+        int index = 0;
+        double passed = 0.0D;
+        while(index < segments.size() - 1 && passed + segments.get(index).getLength() <= this.distance){
+            passed += segments.get(index).getLength();
+            index++;
+        }
+        BlockPos next = this.route.getNodes().get(index + 1);
+        double remaining = Math.max(0.0D, passed + segments.get(index).getLength() - this.distance);
+        TrackNetwork network = TCEvents.getSaveData(rollingStock.world).getTrackNetwork();
+        if(network.getSegmentsAt(next).isEmpty()){
+            TrackSegment segment = network.getSegmentAt(rollingStock.getPosition());
+            if(segment != null){
+                next = segment.getStart().distanceSq(next) <= segment.getEnd().distanceSq(next) ? segment.getStart() : segment.getEnd();
+                remaining = Math.sqrt(rollingStock.getDistanceSq(next));
+            }
+        }
+        this.start = next;
+        this.distance = -remaining;
+    }
+    
+    /**
+     * The break power is the deceleration of the rolling stock with only its own mass.
+     * With more mass behind the same brakes (e.g. loaded cars) the deceleration decreases.
+     *
+     * @param rollingStock The braking rolling stock
+     * @return The deceleration of its whole consist in m/s²
+     */
+    public static double getDeceleration(AbstractRollingStock<?> rollingStock){
+        return getDeceleration(rollingStock, getConsistMass(rollingStock));
+    }
+    
+    /**
+     * @return The mass of all cars in the consist of the rolling stock, itself included
+     */
+    public static double getConsistMass(AbstractRollingStock<?> rollingStock){
+        double mass = 0.0D;
+        for(AbstractRollingStock<?> car : Consist.getCars(rollingStock)){
+            mass += car.getMass(car);
+        }
+        return mass;
+    }
+    
+    public static double getDeceleration(AbstractRollingStock<?> rollingStock, double trainMass){
+        double mass = rollingStock.getMass(rollingStock);
+        if(mass <= 0.0D || trainMass <= 0.0D){
+            return rollingStock.getBreakPower(rollingStock);
+        }
+        return rollingStock.getBreakPower(rollingStock) * (mass / trainMass);
+    }
+    
+    @Nullable
+    public Route getRoute(){
+        return this.route;
+    }
+    
+    public BlockPos getDestination(){
+        return this.destination;
+    }
+    
+    public double getDistance(){
+        return this.distance;
+    }
+    
+    public boolean hasArrived(){
+        return this.arrived;
+    }
+    
+    public NBTTagCompound writeToNBT(){
+        NBTTagCompound nbt = new NBTTagCompound();
+        nbt.setTag("start", NBTUtil.createPosTag(this.start));
+        nbt.setTag("destination", NBTUtil.createPosTag(this.destination));
+        nbt.setDouble("distance", this.distance);
+        nbt.setBoolean("arrived", this.arrived);
+        return nbt;
+    }
+    
+    public static AutomaticTrainOperation readFromNBT(NBTTagCompound nbt){
+        AutomaticTrainOperation ato = new AutomaticTrainOperation(NBTUtil.getPosFromTag(nbt.getCompoundTag("start")), NBTUtil.getPosFromTag(nbt.getCompoundTag("destination")));
+        ato.distance = nbt.getDouble("distance");
+        ato.arrived = nbt.getBoolean("arrived");
+        return ato;
+    }
+}
@@ -28,6 +28,31 @@ public class ConfigHandler {
     @Config.Comment("This toggles whether Petroleum and Oil Sands will generate in the world. Must be set before world generates.")
     public static boolean OTHER_ORE_GEN = true;
     
+    @Config.LangKey(Traincraft.MOD_ID + ":config.network_near_distance")
+    @Config.Comment("Players within this distance (blocks) of a rolling stock get every update. Riders always get every update.")
+    @Config.RangeInt(min = 0, max = 256)
+    public static int NETWORK_NEAR_DISTANCE = 32;
+    
+    @Config.LangKey(Traincraft.MOD_ID + ":config.network_mid_distance")
+    @Config.Comment("Players within this distance (blocks) of a rolling stock get updates every 'network_mid_interval' ticks. Players further away get them every 'network_far_interval' ticks.")
+    @Config.RangeInt(min = 0, max = 256)
+    public static int NETWORK_MID_DISTANCE = 64;
+    
+    @Config.LangKey(Traincraft.MOD_ID + ":config.network_mid_interval")
+    @Config.Comment("The update interval in ticks for players in the middle distance.")
+    @Config.RangeInt(min = 1, max = 100)
+    public static int NETWORK_MID_INTERVAL = 4;
+    
+    @Config.LangKey(Traincraft.MOD_ID + ":config.network_far_interval")
+    @Config.Comment("The update interval in ticks for players further away than the middle distance.")
+    @Config.RangeInt(min = 1, max = 100)
+    public static int NETWORK_FAR_INTERVAL = 10;
+    
+    @Config.LangKey(Traincraft.MOD_ID + ":config.network_initial_state_budget")
+    @Config.Comment("The bytes of rolling stock states a player gets per tick when starting to track them, e.g. after a teleport. At least one state is sent every tick.")
+    @Config.RangeInt(min = 1024, max = 1048576)
+    public static int NETWORK_INITIAL_STATE_BUDGET = 8192;
+    
     @Mod.EventBusSubscriber(modid = Traincraft.MOD_ID)
     private static class EventHandler {
         
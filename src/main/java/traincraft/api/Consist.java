@@ -0,0 +1,271 @@
+/*
+ * Traincraft
+ * Copyright (c) 2011-2020.
+ *
+ * This file ("Consist.java") is part of the Traincraft mod for Minecraft.
+ * It is created by all people that are listed with @author below.
+ * It is distributed under LGPL-v3.0.
+ * You can find the source code at https://github.com/Traincraft/Traincraft
+ */
+
+package traincraft.api;
+
+import net.minecraft.entity.Entity;
+import net.minecraft.util.math.Vec3d;
+import net.minecraft.world.World;
+import traincraft.event.TCEvents;
+import traincraft.network.EntityField;
+import traincraft.network.EntityPacketData;
+import traincraft.network.TCEntityPackets;
+
+import javax.annotation.Nonnull;
+import java.util.*;
+
+/**
+ * A consist are all rolling stocks which are linked together, from the front car (the lead) to the last car.
+ * Instead of a position update for every car, the lead sends a single {@link TCEntityPackets#CONSIST} snapshot
+ * with its position and velocity and the distance of every other car behind it. The clients put the cars on the
+ * {@link ConsistTrail} of the lead, so the traffic of a moving train doesn't depend on its number of cars.
+ * Single cars are a consist with only a lead.
+ * <p>
+ * The clients predict the movement of the lead with its last velocity, so while the prediction is right nothing is sent.
+ * The vanilla movement updates of rolling stock are only a rare fallback, see {@link #TRACKER_UPDATE_FREQUENCY}.
+ * <p>
+ * The server saves consists as units in the {@link ConsistStore} of the dimension.
+ */
+public final class Consist {
+    
+    /**
+     * Protection against broken links, no consist can be longer than this.
+     */
+    public static final int MAX_CARS = 256;
+    
+    /**
+     * The ticks between two vanilla movement updates of rolling stock. They are only a fallback, the position comes from the snapshots.
+     */
+    public static final int TRACKER_UPDATE_FREQUENCY = 100;
+    
+    /**
+     * A new snapshot is sent as soon as the predicted position of the clients is further off than this (in blocks).
+     */
+    public static final double POSITION_THRESHOLD = 0.125D;
+    
+    /**
+     * A new snapshot is sent as soon as the velocity has changed by more than this (in m/s).
+     */
+    public static final double VELOCITY_THRESHOLD = 0.05D;
+    
+    private static final double OFFSET_SCALE = 16.0D; // 1/16 m
+    private static final long TICK_MASK = 0xFFFF;
+    
+    private Consist(){
+    }
+    
+    /**
+     * @param car Any car of the consist
+     * @return All cars, from the lead to the last car. Dead cars end the consist
+     */
+    public static List<AbstractRollingStock<?>> getCars(@Nonnull AbstractRollingStock<?> car){
+        AbstractRollingStock<?> lead = car;
+        for(int i = 0; i < MAX_CARS && isLinked(lead.getPreviousCar()) && lead.getPreviousCar() != car; i++){
+            lead = lead.getPreviousCar();
+        }
+        List<AbstractRollingStock<?>> cars = new ArrayList<>();
+        Set<AbstractRollingStock<?>> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        for(AbstractRollingStock<?> current = lead; isLinked(current) && visited.add(current) && cars.size() < MAX_CARS; current = current.getNextCar()){
+            cars.add(current);
+        }
+        return cars;
+    }
+    
+    private static boolean isLinked(AbstractRollingStock<?> car){
+        return car != null && !car.isDead;
+    }
+    
+    /**
+     * Server side: Sends a snapshot if the clients' prediction of the lead is too far off, or if the consist has changed.
+     * The server predicts the lead exactly like the clients do from the last snapshot, so it knows their error.
+     * Called every tick by every car without a previous car, single cars included.
+     */
+    static void update(@Nonnull AbstractRollingStock<?> lead){
+        if(isIdle(lead)){
+            return; // most rolling stock, so nothing is allocated for it
+        }
+        List<AbstractRollingStock<?>> cars = getCars(lead);
+        int[] ids = new int[cars.size() - 1];
+        int[] offsets = new int[ids.length];
+        double offset = 0.0D;
+        for(int i = 0; i < ids.length; i++){
+            AbstractRollingStock<?> car = cars.get(i + 1);
+            offset += cars.get(i).getDistance(car);
+            ids[i] = car.getEntityId();
+            offsets[i] = (int) Math.round(offset * OFFSET_SCALE);
+        }
+        long time = lead.world.getTotalWorldTime();
+        Vec3d position = lead.getPositionVector();
+        Vec3d velocity = new Vec3d(lead.posX - lead.prevPosX, lead.posY - lead.prevPosY, lead.posZ - lead.prevPosZ).scale(20.0D);
+        
+        boolean changed = !Arrays.equals(ids, lead.lastSnapshotCars) || hasOffsetChanged(lead.lastSnapshotOffsets, offsets);
+        if(cars.stream().noneMatch(car -> car.consistPending)){
+            TCEvents.getSaveData(lead.world).getConsistStore().update(cars, offsets, changed);
+        }
+        boolean send = lead.forceSnapshot || changed;
+        if(!send){
+            if(lead.lastSnapshotPosition == null){
+                send = velocity.lengthSquared() > 0.0D; // standing still, the clients have the right position from the spawn packet
+            } else{
+                Vec3d predicted = ConsistTrail.predict(lead.lastSnapshotPosition, lead.lastSnapshotVelocity, time - lead.lastSnapshotTime);
+                send = predicted.squareDistanceTo(position) > POSITION_THRESHOLD * POSITION_THRESHOLD
+                    || velocity.squareDistanceTo(lead.lastSnapshotVelocity) > VELOCITY_THRESHOLD * VELOCITY_THRESHOLD;
+            }
+        }
+        if(!send){
+            return;
+        }
+        lead.forceSnapshot = false;
+        lead.lastSnapshotCars = ids;
+        lead.lastSnapshotOffsets = offsets;
+        lead.lastSnapshotPosition = position;
+        lead.lastSnapshotVelocity = velocity;
+        lead.lastSnapshotTime = time;
+        
+        int[] encodedIds = new int[ids.length];
+        for(int i = 0; i < ids.length; i++){
+            encodedIds[i] = ids[i] - lead.getEntityId(); // small numbers, since the cars are mostly spawned one after another
+        }
+        EntityPacketData data = new EntityPacketData()
+            .setDouble(EntityField.POS_X, position.x)
+            .setDouble(EntityField.POS_Y, position.y)
+            .setDouble(EntityField.POS_Z, position.z)
+            .setDouble(EntityField.VELOCITY_X, velocity.x)
+            .setDouble(EntityField.VELOCITY_Y, velocity.y)
+            .setDouble(EntityField.VELOCITY_Z, velocity.z)
+            .setInt(EntityField.SNAPSHOT_TICK, (int) (time & TICK_MASK))
+            .setIntArray(EntityField.CONSIST_CARS, encodedIds)
+            .setIntArray(EntityField.CONSIST_OFFSETS, offsets);
+        TCEntityPackets.CONSIST.sendToClientsTracking(lead, data, cars);
+    }
+    
+    /**
+     * Server side: The next tick a snapshot is sent, even if the prediction is right. Used for new tracking players,
+     * which don't know the last snapshot.
+     */
+    public static void requestSnapshot(@Nonnull AbstractRollingStock<?> car){
+        List<AbstractRollingStock<?>> cars = getCars(car);
+        if(!cars.isEmpty()){
+            cars.get(0).forceSnapshot = true;
+        }
+    }
+    
+    /**
+     * @return True for a single car which stands still where the clients know it from, without a requested snapshot.
+     * It has nothing to send and nothing to save in the {@link ConsistStore}
+     */
+    private static boolean isIdle(AbstractRollingStock<?> lead){
+        if(lead.forceSnapshot || lead.consistPending || isLinked(lead.getNextCar()) || lead.lastSnapshotCars.length > 0){
+            return false;
+        }
+        if(lead.posX != lead.prevPosX || lead.posY != lead.prevPosY || lead.posZ != lead.prevPosZ){
+            return false;
+        }
+        return lead.lastSnapshotPosition == null || (lead.lastSnapshotVelocity.lengthSquared() == 0.0D
+            && lead.lastSnapshotPosition.squareDistanceTo(lead.posX, lead.posY, lead.posZ) <= POSITION_THRESHOLD * POSITION_THRESHOLD);
+    }
+    
+    private static boolean hasOffsetChanged(int[] last, int[] current){
+        if(last.length != current.length){
+            return true;
+        }
+        for(int i = 0; i < current.length; i++){
+            if(Math.abs(current[i] - last[i]) > POSITION_THRESHOLD * OFFSET_SCALE){
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Client side: Puts the cars of a received snapshot on the trail of their lead.
+     * The lead itself doesn't have to be known by this client, the snapshot contains everything.
+     * Also used by the {@link traincraft.network.CaptureReplay} on the server.
+     *
+     * @param world  The client world
+     * @param leadId The entity id of the lead
+     * @param data   The received snapshot
+     */
+    public static void applySnapshot(@Nonnull World world, int leadId, @Nonnull EntityPacketData data){
+        int[] encodedIds = data.getIntArray(EntityField.CONSIST_CARS);
+        int[] encodedOffsets = data.getIntArray(EntityField.CONSIST_OFFSETS);
+        int count = Math.min(encodedIds.length, encodedOffsets.length);
+        int[] ids = new int[count];
+        double[] offsets = new double[count];
+        for(int i = 0; i < count; i++){
+            ids[i] = leadId + encodedIds[i];
+            offsets[i] = encodedOffsets[i] / OFFSET_SCALE;
+        }
+        
+        AbstractRollingStock<?> lead = getRollingStock(world, leadId);
+        if(lead == null && count == 0){
+            return;
+        }
+        ConsistTrail trail = lead != null ? lead.consistTrail : null;
+        for(int i = 0; i < count && (trail == null || trail.getLeadId() != leadId); i++){
+            AbstractRollingStock<?> car = getRollingStock(world, ids[i]);
+            trail = car != null ? car.consistTrail : null;
+        }
+        boolean isNew = trail == null || trail.getLeadId() != leadId;
+        if(isNew){
+            trail = new ConsistTrail(leadId);
+        }
+        
+        // cars which have left this consist are moved by the vanilla updates again
+        for(int oldId : trail.getCars()){
+            AbstractRollingStock<?> car = getRollingStock(world, oldId);
+            if(car != null && car.consistTrail == trail && Arrays.stream(ids).noneMatch(id -> id == oldId)){
+                car.consistTrail = null;
+            }
+        }
+        
+        // the snapshot may have waited in the queue of the server, the world times of server and client are (nearly) the same
+        long time = world.getTotalWorldTime();
+        long age = (time - data.getInt(EntityField.SNAPSHOT_TICK)) & TICK_MASK;
+        long snapshotTime = age > TICK_MASK / 2 ? time : time - age;
+        double length = count > 0 ? offsets[count - 1] : 0.0D;
+        if(isNew){
+            // the trail starts at the current positions of the cars, from the last car to the lead
+            for(int i = count - 1; i >= 0; i--){
+                AbstractRollingStock<?> car = getRollingStock(world, ids[i]);
+                if(car != null){
+                    trail.addPoint(car.getPositionVector(), Vec3d.ZERO, snapshotTime, length);
+                }
+            }
+        }
+        trail.setCars(ids);
+        trail.addPoint(new Vec3d(data.getDouble(EntityField.POS_X), data.getDouble(EntityField.POS_Y), data.getDouble(EntityField.POS_Z)),
+            new Vec3d(data.getDouble(EntityField.VELOCITY_X), data.getDouble(EntityField.VELOCITY_Y), data.getDouble(EntityField.VELOCITY_Z)),
+            snapshotTime, length);
+        if(lead != null){
+            lead.consistTrail = trail;
+            lead.consistOffset = 0.0D;
+        }
+        for(int i = 0; i < count; i++){
+            AbstractRollingStock<?> car = getRollingStock(world, ids[i]);
+            if(car != null){
+                car.consistTrail = trail;
+                car.consistOffset = offsets[i];
+            }
+        }
+    }
+    
+    /**
+     * Client side: The lead of the trail the car follows, or -1 if it moves on its own
+     */
+    public static int getLeadId(@Nonnull AbstractRollingStock<?> car){
+        return car.consistTrail != null ? car.consistTrail.getLeadId() : -1;
+    }
+    
+    private static AbstractRollingStock<?> getRollingStock(World world, int id){
+        Entity entity = world.getEntityByID(id);
+        return entity instanceof AbstractRollingStock<?> ? (AbstractRollingStock<?>) entity : null;
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * Traincraft
+ * Copyright (c) 2011-2020.
+ *
+ * This file ("ConsistStore.java") is part of the Traincraft mod for Minecraft.
+ * It is created by all people that are listed with @author below.
+ * It is distributed under LGPL-v3.0.
+ * You can find the source code at https://github.com/Traincraft/Traincraft
+ */
+
+package traincraft.api;
+
+import net.minecraft.entity.Entity;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.world.WorldServer;
+import net.minecraftforge.common.util.Constants;
+import net.minecraftforge.fml.common.registry.ForgeRegistries;
+
+import javax.annotation.Nonnull;
+import java.util.*;
+
+/**
+ * The {@link Consist}s of a single dimension, saved as units: their cars in order (by entity uuid), the offsets between
+ * them and the state they share. The cars themselves are still saved with their chunks, so a train can be split over
+ * chunks which aren't loaded at the same time.
+ * <p>
+ * No chunks are loaded for a consist. A car of a saved consist is held still when it is loaded, until all other cars
+ * have arrived, then the whole consist is linked again at once. Cars with a type which isn't registered anymore are
+ * removed from the consist, so are cars with a different type or which aren't at their offset anymore.
+ * If the other cars don't arrive within {@link #PENDING_TIMEOUT_TICKS}, the loaded ones are linked without them,
+ * e.g. when a car has left the dimension or its chunk isn't loaded anymore.
+ * This is owned by the server thread and must only be used from there.
+ *
+ * @see traincraft.save.TCDimensionSaveData#getConsistStore()
+ */
+public class ConsistStore {
+    
+    /**
+     * Two loaded cars are only linked again, if their distance differs by at most this much from the saved one (in blocks).
+     */
+    public static final double OFFSET_TOLERANCE = 1.0D;
+    
+    /**
+     * A held car waits this long for the other cars of its consist (in ticks).
+     */
+    public static final int PENDING_TIMEOUT_TICKS = 600;
+    
+    private static final double OFFSET_SCALE = 16.0D; // like the consist snapshots
+    
+    private final Map<UUID, StoredConsist> consists = new HashMap<>();
+    private final Map<UUID, UUID> carToConsist = new HashMap<>();
+    private final Runnable dirtyListener;
+    
+    /**
+     * @param dirtyListener Called every time a consist is changed, to mark the owning save data dirty
+     */
+    public ConsistStore(Runnable dirtyListener){
+        this.dirtyListener = dirtyListener;
+    }
+    
+    /**
+     * Called every tick by the lead of every consist, which has no held cars.
+     *
+     * @param cars    All cars, from the lead to the last car
+     * @param offsets The offsets of all cars behind the lead, in 1/16 blocks
+     * @param changed If the cars or offsets have changed since the last call
+     */
+    void update(@Nonnull List<AbstractRollingStock<?>> cars, @Nonnull int[] offsets, boolean changed){
+        AbstractRollingStock<?> lead = cars.get(0);
+        UUID id = this.carToConsist.get(lead.getUniqueID());
+        if(!changed){
+            StoredConsist consist = id != null ? this.consists.get(id) : null;
+            if(consist != null && consist.speed != lead.getSpeed()){
+                consist.speed = lead.getSpeed();
+                this.dirtyListener.run();
+            }
+            return;
+        }
+        if(id != null){
+            this.removeConsist(id);
+        }
+        for(AbstractRollingStock<?> car : cars){
+            this.removeCar(car.getUniqueID());
+        }
+        if(cars.size() > 1){
+            List<StoredCar> stored = new ArrayList<>(cars.size());
+            for(AbstractRollingStock<?> car : cars){
+                stored.add(new StoredCar(car.getUniqueID(), car.getTypeId()));
+            }
+            this.putConsist(new StoredConsist(id != null ? id : UUID.randomUUID(), stored, offsets.clone(), lead.getSpeed()));
+        }
+        this.dirtyListener.run();
+    }
+    
+    /**
+     * Called when a rolling stock joins the world, also when its chunk is loaded.
+     */
+    public void onCarLoaded(@Nonnull WorldServer world, @Nonnull AbstractRollingStock<?> car){
+        UUID id = this.carToConsist.get(car.getUniqueID());
+        StoredConsist consist = id != null ? this.consists.get(id) : null;
+        if(consist == null){
+            return;
+        }
+        StoredCar stored = consist.cars.stream().filter(c -> c.id.equals(car.getUniqueID())).findFirst().orElse(null);
+        if(stored == null || !stored.type.equals(car.getTypeId())){
+            this.removeCar(car.getUniqueID()); // an other entity with the same uuid
+            this.dirtyListener.run();
+            return;
+        }
+        // cars of removed types never arrive
+        List<StoredCar> unregistered = new ArrayList<>();
+        consist.cars.stream().filter(c -> !ForgeRegistries.ENTITIES.containsKey(c.type)).forEach(unregistered::add);
+        if(!unregistered.isEmpty()){
+            unregistered.forEach(c -> this.removeCar(c.id));
+            this.dirtyListener.run();
+            if(!this.consists.containsKey(id)){
+                return;
+            }
+        }
+        car.consistPending = true;
+        this.tryRestore(world, this.consists.get(id), car);
+    }
+    
+    /**
+     * Called when a rolling stock is destroyed, not when it is unloaded.
+     */
+    void onCarRemoved(@Nonnull AbstractRollingStock<?> car){
+        if(this.carToConsist.containsKey(car.getUniqueID())){
+            this.removeCar(car.getUniqueID());
+            this.dirtyListener.run();
+        }
+    }
+    
+    /**
+     * Called when a rolling stock is unloaded with its chunk or leaves the dimension. The loaded cars of its consist drop their links to it,
+     * so it isn't kept in memory by them. If the consist is saved, they are held like after loading, until it is loaded again.
+     */
+    public void onCarUnloaded(@Nonnull AbstractRollingStock<?> car){
+        boolean stored = this.carToConsist.containsKey(car.getUniqueID());
+        for(AbstractRollingStock<?> other : Consist.getCars(car)){
+            if(other != car){
+                AbstractRollingStock<?> previous = other.getPreviousCar(), next = other.getNextCar();
+                other.setLinks(previous == car ? null : previous, next == car ? null : next);
+                other.consistPending |= stored;
+            }
+        }
+        car.setLinks(null, null);
+    }
+    
+    /**
+     * Called by a held car after {@link #PENDING_TIMEOUT_TICKS}. The missing cars are removed from its consist,
+     * the loaded ones are linked again and drive on. A removed car is on its own when it is loaded later.
+     */
+    void releasePending(@Nonnull WorldServer world, @Nonnull AbstractRollingStock<?> car){
+        UUID id = this.carToConsist.get(car.getUniqueID());
+        StoredConsist consist = id != null ? this.consists.get(id) : null;
+        if(consist != null){
+            List<StoredCar> missing = new ArrayList<>();
+            for(StoredCar stored : consist.cars){
+                Entity entity = world.getEntityFromUuid(stored.id);
+                if(!(entity instanceof AbstractRollingStock<?>) || entity.isDead){
+                    missing.add(stored);
+                }
+            }
+            if(!missing.isEmpty()){
+                missing.forEach(c -> this.removeCar(c.id));
+                this.dirtyListener.run();
+            }
+            consist = this.consists.get(id);
+        }
+        if(consist != null){
+            this.tryRestore(world, consist, car);
+        } else{
+            // nothing left to restore, the cars keep the links they still have
+            for(AbstractRollingStock<?> other : Consist.getCars(car)){
+                other.consistPending = false;
+            }
+            car.consistPending = false;
+        }
+    }
+    
+    public int getConsistCount(){
+        return this.consists.size();
+    }
+    
+    /**
+     * Links the cars again, as soon as all of them are loaded. The arriving car isn't in the world yet.
+     */
+    private void tryRestore(WorldServer world, StoredConsist consist, AbstractRollingStock<?> arriving){
+        List<AbstractRollingStock<?>> cars = new ArrayList<>(consist.cars.size());
+        for(StoredCar stored : consist.cars){
+            Entity entity = stored.id.equals(arriving.getUniqueID()) ? arriving : world.getEntityFromUuid(stored.id);
+            if(!(entity instanceof AbstractRollingStock<?>) || entity.isDead){
+                return; // still waiting
+            }
+            cars.add((AbstractRollingStock<?>) entity);
+        }
+        for(AbstractRollingStock<?> car : cars){
+            car.consistPending = false;
+            car.setLinks(null, null);
+            car.setSpeed(consist.speed);
+        }
+        for(int i = 1; i < cars.size(); i++){
+            AbstractRollingStock<?> previous = cars.get(i - 1), car = cars.get(i);
+            double offset = (consist.offsets[i - 1] - (i > 1 ? consist.offsets[i - 2] : 0)) / OFFSET_SCALE;
+            if(Math.abs(previous.getDistance(car) - offset) <= OFFSET_TOLERANCE){
+                previous.setLinks(previous.getPreviousCar(), car);
+                car.setLinks(previous, null);
+            } // else the consist is split here, the next update of the leads saves both parts
+        }
+        Consist.requestSnapshot(cars.get(0));
+    }
+    
+    private void putConsist(StoredConsist consist){
+        this.consists.put(consist.id, consist);
+        for(StoredCar car : consist.cars){
+            this.carToConsist.put(car.id, consist.id);
+        }
+    }
+    
+    private void removeConsist(UUID id){
+        StoredConsist consist = this.consists.remove(id);
+        if(consist != null){
+            consist.cars.forEach(car -> this.carToConsist.remove(car.id));
+        }
+    }
+    
+    /**
+     * Removes a single car. The consist is removed with its last but one car.
+     */
+    private void removeCar(UUID car){
+        UUID id = this.carToConsist.remove(car);
+        StoredConsist consist = id != null ? this.consists.get(id) : null;
+        if(consist == null){
+            return;
+        }
+        int index = 0;
+        while(index < consist.cars.size() && !consist.cars.get(index).id.equals(car)){
+            index++;
+        }
+        if(index == consist.cars.size()){
+            return;
+        }
+        consist.cars.remove(index);
+        if(consist.cars.size() < 2){
+            this.removeConsist(id);
+            return;
+        }
+        // the offsets are relative to the lead, so a removed lead moves all of them
+        List<Integer> positions = new ArrayList<>(consist.cars.size() + 1);
+        positions.add(0);
+        Arrays.stream(consist.offsets).forEach(positions::add);
+        positions.remove(index);
+        int[] offsets = new int[positions.size() - 1];
+        for(int i = 0; i < offsets.length; i++){
+            offsets[i] = positions.get(i + 1) - positions.get(0);
+        }
+        consist.offsets = offsets;
+    }
+    
+    public void readFromNBT(@Nonnull NBTTagCompound nbt){
+        this.consists.clear();
+        this.carToConsist.clear();
+        NBTTagList list = nbt.getTagList("consists", Constants.NBT.TAG_COMPOUND);
+        for(int i = 0; i < list.tagCount(); i++){
+            NBTTagCompound consistNBT = list.getCompoundTagAt(i);
+            NBTTagList carsNBT = consistNBT.getTagList("cars", Constants.NBT.TAG_COMPOUND);
+            List<StoredCar> cars = new ArrayList<>(carsNBT.tagCount());
+            for(int j = 0; j < carsNBT.tagCount(); j++){
+                NBTTagCompound carNBT = carsNBT.getCompoundTagAt(j);
+                cars.add(new StoredCar(carNBT.getUniqueId("id"), new ResourceLocation(carNBT.getString("type"))));
+            }
+            int[] offsets = consistNBT.getIntArray("offsets");
+            if(cars.size() > 1 && offsets.length == cars.size() - 1){
+                this.putConsist(new StoredConsist(consistNBT.getUniqueId("id"), cars, offsets, consistNBT.getDouble("speed")));
+            }
+        }
+    }
+    
+    public NBTTagCompound writeToNBT(@Nonnull NBTTagCompound nbt){
+        NBTTagList list = new NBTTagList();
+        for(StoredConsist consist : this.consists.values()){
+            NBTTagCompound consistNBT = new NBTTagCompound();
+            consistNBT.setUniqueId("id", consist.id);
+            NBTTagList carsNBT = new NBTTagList();
+            for(StoredCar car : consist.cars){
+                NBTTagCompound carNBT = new NBTTagCompound();
+                carNBT.setUniqueId("id", car.id);
+                carNBT.setString("type", car.type.toString());
+                carsNBT.appendTag(carNBT);
+            }
+            consistNBT.setTag("cars", carsNBT);
+            consistNBT.setIntArray("offsets", consist.offsets);
+            consistNBT.setDouble("speed", consist.speed);
+            list.appendTag(consistNBT);
+        }
+        nbt.setTag("consists", list);
+        return nbt;
+    }
+    
+    private static class StoredConsist {
+        
+        private final UUID id;
+        private final List<StoredCar> cars;
+        private int[] offsets;
+        private double speed; // shared by all cars
+        
+        private StoredConsist(UUID id, List<StoredCar> cars, int[] offsets, double speed){
+            this.id = id;
+            this.cars = cars;
+            this.offsets = offsets;
+            this.speed = speed;
+        }
+    }
+    
+    private static class StoredCar {
+        
+        private final UUID id;
+        private final ResourceLocation type;
+        
+        private StoredCar(UUID id, ResourceLocation type){
+            this.id = id;
+            this.type = type;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Traincraft
+ * Copyright (c) 2011-2020.
+ *
+ * This file ("ConsistTrail.java") is part of the Traincraft mod for Minecraft.
+ * It is created by all people that are listed with @author below.
+ * It is distributed under LGPL-v3.0.
+ * You can find the source code at https://github.com/Traincraft/Traincraft
+ */
+
+package traincraft.api;
+
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.util.math.Vec3d;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Client side: The path the lead car of a {@link Consist} has driven, as a trail of the received lead positions.
+ * All following cars drive on the same track as the lead, so their positions are looked up on this trail by their
+ * distance behind the lead. Between two snapshots the lead is moved on with the last received velocity.
+ * <p>
+ * The odometer of the trail is signed: it goes down while the consist reverses, so the lead backs over its own trail
+ * and the following cars stay behind it. The points the lead has backed over are dropped.
+ */
+public final class ConsistTrail {
+    
+    /**
+     * The lead is moved on with the received velocity for at most this many ticks without a new snapshot.
+     */
+    public static final int MAX_EXTRAPOLATION_TICKS = 20;
+    
+    private static final double TRAIL_MARGIN = 8.0D;
+    
+    private final int leadId;
+    private final ArrayDeque<Point> points = new ArrayDeque<>(); // the newest point first
+    private Vec3d velocity = Vec3d.ZERO;
+    private long snapshotTime;
+    private double length;
+    private int[] cars = new int[0];
+    
+    ConsistTrail(int leadId){
+        this.leadId = leadId;
+    }
+    
+    /**
+     * Adds a new lead position.
+     *
+     * @param position The lead position
+     * @param velocity The lead velocity in m/s
+     * @param time     The world time of the snapshot
+     * @param length   The distance between the lead and the last car
+     */
+    void addPoint(Vec3d position, Vec3d velocity, long time, double length){
+        Point head = this.points.peekFirst();
+        if(head == null){
+            this.points.addFirst(new Point(position, 0.0D));
+        } else{
+            double step = head.position.distanceTo(position);
+            Vec3d forward = this.getForward();
+            if(forward != null && position.subtract(head.position).dotProduct(forward) < 0.0D){
+                step = -step; // reversing
+            }
+            if(step != 0.0D){
+                double odometer = head.odometer + step;
+                while(!this.points.isEmpty() && this.points.peekFirst().odometer >= odometer){
+                    this.points.removeFirst(); // backed over
+                }
+                this.points.addFirst(new Point(position, odometer));
+            }
+        }
+        this.velocity = velocity;
+        this.snapshotTime = time;
+        this.length = length;
+        // forget everything behind the last car
+        double odometer = this.points.peekFirst().odometer;
+        while(this.points.size() > 2 && this.points.peekLast().odometer < odometer - length - TRAIL_MARGIN){
+            this.points.removeLast();
+        }
+    }
+    
+    /**
+     * @param distanceBehind The distance behind the lead along the trail
+     * @param time           The current world time
+     * @return The position on the trail
+     */
+    public Vec3d getPosition(double distanceBehind, long time){
+        Point head = this.points.peekFirst();
+        if(head == null){
+            return Vec3d.ZERO;
+        }
+        Vec3d travelled = predict(Vec3d.ZERO, this.velocity, time - this.snapshotTime);
+        Vec3d forward = this.getForward();
+        if(forward == null){
+            forward = travelled.length() > 0.0D ? travelled.normalize() : Vec3d.ZERO;
+        }
+        double target = head.odometer + (travelled.dotProduct(forward) < 0.0D ? -travelled.length() : travelled.length()) - distanceBehind;
+        if(target >= head.odometer){
+            // in front of the newest point, on the way the lead is going
+            return head.position.add(forward.scale(target - head.odometer));
+        }
+        Iterator<Point> iterator = this.points.iterator();
+        Point newer = iterator.next();
+        while(iterator.hasNext()){
+            Point older = iterator.next();
+            if(older.odometer <= target){
+                double progress = (target - older.odometer) / (newer.odometer - older.odometer);
+                return older.position.add(newer.position.subtract(older.position).scale(progress));
+            }
+            newer = older;
+        }
+        return newer.position; // the trail doesn't reach back that far yet
+    }
+    
+    /**
+     * @return The direction of the trail at its newest point, or null if there is only one point
+     */
+    private Vec3d getForward(){
+        if(this.points.size() < 2){
+            return null;
+        }
+        Iterator<Point> iterator = this.points.iterator();
+        Vec3d head = iterator.next().position;
+        return head.subtract(iterator.next().position).normalize();
+    }
+    
+    /**
+     * The prediction of the lead position, the same on the server and on the clients.
+     *
+     * @param position The position of the last snapshot
+     * @param velocity The velocity of the last snapshot in m/s
+     * @param ticks    The ticks since the last snapshot
+     * @return The predicted position
+     */
+    public static Vec3d predict(Vec3d position, Vec3d velocity, long ticks){
+        return position.add(velocity.scale(Math.min(Math.max(ticks, 0L), MAX_EXTRAPOLATION_TICKS) / 20.0D));
+    }
+    
+    /**
+     * @return The yaw of the trail at this distance behind the lead, like {@link net.minecraft.entity.Entity#rotationYaw}
+     */
+    public float getYaw(double distanceBehind, long time, float fallback){
+        Vec3d front = this.getPosition(distanceBehind - 0.5D, time);
+        Vec3d back = this.getPosition(distanceBehind + 0.5D, time);
+        double deltaX = back.x - front.x, deltaZ = back.z - front.z;
+        if(deltaX * deltaX + deltaZ * deltaZ <= 0.001D){
+            return fallback;
+        }
+        return (float) (MathHelper.atan2(deltaZ, deltaX) * 180.0D / Math.PI);
+    }
+    
+    public int getLeadId(){
+        return this.leadId;
+    }
+    
+    public double getLength(){
+        return this.length;
+    }
+    
+    int[] getCars(){
+        return this.cars;
+    }
+    
+    void setCars(int[] cars){
+        this.cars = cars;
+    }
+    
+    private static class Point {
+        
+        private final Vec3d position;
+        private final double odometer; // the driven distance of the lead at this point, counted down while reversing
+        
+        private Point(Vec3d position, double odometer){
+            this.position = position;
+            this.odometer = odometer;
+        }
+    }
+}
@@ -12,19 +12,27 @@ package traincraft.api;
 
 import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.inventory.Container;
+import net.minecraft.inventory.IContainerListener;
 import net.minecraft.inventory.Slot;
 import net.minecraft.item.ItemStack;
 import net.minecraft.tileentity.TileEntityFurnace;
 import net.minecraftforge.fluids.capability.CapabilityFluidHandler;
 import net.minecraftforge.items.IItemHandler;
+import net.minecraftforge.fml.relauncher.Side;
+import net.minecraftforge.fml.relauncher.SideOnly;
 import net.minecraftforge.items.wrapper.InvWrapper;
 
 public class ContainerLocomotiveSteam extends Container {
     
     private final LocomotiveSteam<?> locomotiveSteam;
+    private final ContainerPropertySync propertySync;
     
     public ContainerLocomotiveSteam(LocomotiveSteam<?> locomotiveSteam, EntityPlayer player){
         this.locomotiveSteam = locomotiveSteam;
+        // the burn progress is only needed by players with this gui open
+        this.propertySync = new ContainerPropertySync()
+            .add(() -> locomotiveSteam.burnTime, value -> locomotiveSteam.burnTime = value)
+            .add(() -> locomotiveSteam.maxBurnTime, value -> locomotiveSteam.maxBurnTime = value);
         IItemHandler inventory = locomotiveSteam.getInventory(locomotiveSteam, null);
         if(inventory instanceof InvWrapper){
             this.addSlotToContainer(new SlotSpecific(((InvWrapper) inventory).getInv(), 0, 8, 53, TileEntityFurnace::isItemFuel));
@@ -47,6 +55,24 @@ public class ContainerLocomotiveSteam extends Container {
         }
     }
     
+    @Override
+    public void addListener(IContainerListener listener){
+        super.addListener(listener);
+        this.propertySync.sendAll(this, listener);
+    }
+    
+    @Override
+    public void detectAndSendChanges(){
+        super.detectAndSendChanges();
+        this.propertySync.detectAndSendChanges(this, this.listeners);
+    }
+    
+    @SideOnly(Side.CLIENT)
+    @Override
+    public void updateProgressBar(int id, int data){
+        this.propertySync.update(id, data);
+    }
+    
     @Override
     public ItemStack transferStackInSlot(EntityPlayer playerIn, int index){
         return ItemStack.EMPTY;
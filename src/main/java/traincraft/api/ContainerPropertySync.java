@@ -0,0 +1,93 @@
+/*
+ * Traincraft
+ * Copyright (c) 2011-2020.
+ *
+ * This file ("ContainerPropertySync.java") is part of the Traincraft mod for Minecraft.
+ * It is created by all people that are listed with @author below.
+ * It is distributed under LGPL-v3.0.
+ * You can find the source code at https://github.com/Traincraft/Traincraft
+ */
+
+package traincraft.api;
+
+import net.minecraft.inventory.Container;
+import net.minecraft.inventory.IContainerListener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntConsumer;
+import java.util.function.IntSupplier;
+
+/**
+ * Syncs int values (e.g. burn times) of a container to the players which have it open, through the vanilla window properties.
+ * Window properties are only shorts, so every value uses two property ids: the lower and the upper 16 bits.
+ * Values are only sent when they have changed.
+ */
+public class ContainerPropertySync {
+    
+    private final List<IntSupplier> getters = new ArrayList<>();
+    private final List<IntConsumer> setters = new ArrayList<>();
+    private int[] lastValues = new int[0];
+    
+    /**
+     * @param getter Reads the value on the server
+     * @param setter Sets the value on the client
+     * @return This, for chaining
+     */
+    public ContainerPropertySync add(IntSupplier getter, IntConsumer setter){
+        this.getters.add(getter);
+        this.setters.add(setter);
+        return this;
+    }
+    
+    /**
+     * Sends all values to a new listener. Called from {@link Container#addListener(IContainerListener)}.
+     */
+    public void sendAll(Container container, IContainerListener listener){
+        for(int i = 0; i < this.getters.size(); i++){
+            send(container, listener, i, this.getters.get(i).getAsInt());
+        }
+    }
+    
+    /**
+     * Sends the changed values to all listeners. Called from {@link Container#detectAndSendChanges()}.
+     */
+    public void detectAndSendChanges(Container container, List<IContainerListener> listeners){
+        if(this.lastValues.length != this.getters.size()){
+            this.lastValues = new int[this.getters.size()];
+            for(int i = 0; i < this.lastValues.length; i++){
+                this.lastValues[i] = ~this.getters.get(i).getAsInt(); // force the first send
+            }
+        }
+        for(int i = 0; i < this.getters.size(); i++){
+            int value = this.getters.get(i).getAsInt();
+            if(value != this.lastValues[i]){
+                this.lastValues[i] = value;
+                for(IContainerListener listener : listeners){
+                    send(container, listener, i, value);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Applies a received window property. Called from {@link Container#updateProgressBar(int, int)} on the client.
+     *
+     * @return False if the id doesn't belong to this sync
+     */
+    public boolean update(int id, int data){
+        int index = id / 2;
+        if(id < 0 || index >= this.setters.size()){
+            return false;
+        }
+        int shift = (id % 2) * 16;
+        int current = this.getters.get(index).getAsInt();
+        this.setters.get(index).accept((current & ~(0xFFFF << shift)) | ((data & 0xFFFF) << shift));
+        return true;
+    }
+    
+    private static void send(Container container, IContainerListener listener, int index, int value){
+        listener.sendWindowProperty(container, index * 2, value & 0xFFFF);
+        listener.sendWindowProperty(container, index * 2 + 1, (value >>> 16) & 0xFFFF);
+    }
+}
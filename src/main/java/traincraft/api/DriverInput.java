@@ -0,0 +1,162 @@
+/*
+ * Traincraft
+ * Copyright (c) 2011-2020.
+ *
+ * This file ("DriverInput.java") is part of the Traincraft mod for Minecraft.
+ * It is created by all people that are listed with @author below.
+ * It is distributed under LGPL-v3.0.
+ * You can find the source code at https://github.com/Traincraft/Traincraft
+ */
+
+package traincraft.api;
+
+import net.minecraftforge.fml.relauncher.Side;
+import net.minecraftforge.fml.relauncher.SideOnly;
+import traincraft.network.EnumKeyEvent;
+
+/**
+ * The input state of the driver of a rolling stock.
+ * The client sends the bitmask of all pressed {@link EnumKeyEvent}s only when it changes (and once a second as keep alive),
+ * stamped with its client tick. The client ticks are counted from the connection, so unlike the world time they never
+ * go backwards. The server buffers the newest state from the packet handler and applies it once per tick,
+ * so many packets in one tick cost nothing more than a single one.
+ */
+public final class DriverInput {
+    
+    /**
+     * The client resends an unchanged state after this many ticks, in case the last change was dropped.
+     */
+    public static final int KEEP_ALIVE_TICKS = 20;
+    
+    /**
+     * More packets per second than this are dropped without looking at them.
+     * A client can only change its input once per tick, so everything above 20 is a flood.
+     */
+    public static final int MAX_PACKETS_PER_SECOND = 40;
+    
+    private static final long RATE_WINDOW_NANOS = 1_000_000_000L;
+    
+    private static int clientTick; // the client ticks since the connection
+    
+    // client side
+    private int lastSentState = -1;
+    private boolean lastSentGuiOpen;
+    private int lastSentTick;
+    
+    // server side, written by the packet handler
+    private int bufferedState;
+    private boolean bufferedGuiOpen;
+    private int lastClientTick = -1;
+    private long rateWindowStart;
+    private int packetsInWindow;
+    private int droppedPackets;
+    
+    // server side, only used by the server thread
+    private int appliedState;
+    private boolean appliedGuiOpen;
+    
+    /**
+     * Client side: Counts the client ticks, called at the start of every client tick.
+     */
+    @SideOnly(Side.CLIENT)
+    public static void tickClient(){
+        clientTick = (clientTick + 1) & Integer.MAX_VALUE;
+    }
+    
+    /**
+     * Client side: Starts counting the client ticks again, for a new connection.
+     */
+    @SideOnly(Side.CLIENT)
+    public static void resetClient(){
+        clientTick = 0;
+    }
+    
+    /**
+     * @return The client ticks since the connection, the stamp of the sent input
+     */
+    @SideOnly(Side.CLIENT)
+    public static int getClientTick(){
+        return clientTick;
+    }
+    
+    /**
+     * Client side: Checks if the input has to be sent and remembers it if so.
+     *
+     * @param inputState The bitmask of all pressed keys
+     * @param isGuiOpen  If the driver has a gui open
+     * @param clientTick The current client tick
+     * @return True if the state should be sent to the server
+     */
+    public boolean shouldSend(int inputState, boolean isGuiOpen, int clientTick){
+        if(inputState == this.lastSentState && isGuiOpen == this.lastSentGuiOpen && clientTick - this.lastSentTick < KEEP_ALIVE_TICKS){
+            return false;
+        }
+        this.lastSentState = inputState;
+        this.lastSentGuiOpen = isGuiOpen;
+        this.lastSentTick = clientTick;
+        return true;
+    }
+    
+    /**
+     * Server side, called from the packet handler: Buffers the received input.
+     * Packets over the rate limit and packets older than the buffered one are dropped.
+     *
+     * @return False if the packet was dropped
+     */
+    public synchronized boolean offer(int inputState, boolean isGuiOpen, int clientTick){
+        long now = System.nanoTime();
+        if(now - this.rateWindowStart > RATE_WINDOW_NANOS){
+            this.rateWindowStart = now;
+            this.packetsInWindow = 0;
+        }
+        if(++this.packetsInWindow > MAX_PACKETS_PER_SECOND){
+            this.droppedPackets++;
+            return false;
+        }
+        clientTick &= Integer.MAX_VALUE;
+        if(this.lastClientTick >= 0){
+            int age = (this.lastClientTick - clientTick) & Integer.MAX_VALUE;
+            if(age < KEEP_ALIVE_TICKS * 60){ // not newer than the buffered state. Older than a minute means the client has restarted
+                this.droppedPackets++;
+                return false;
+            }
+        }
+        this.lastClientTick = clientTick;
+        this.bufferedState = inputState;
+        this.bufferedGuiOpen = isGuiOpen;
+        return true;
+    }
+    
+    /**
+     * Server side: Takes over the newest buffered input. Called once per tick before it is applied.
+     *
+     * @return True if the input state has changed since the last tick
+     */
+    public synchronized boolean update(){
+        boolean changed = this.bufferedState != this.appliedState || this.bufferedGuiOpen != this.appliedGuiOpen;
+        this.appliedState = this.bufferedState;
+        this.appliedGuiOpen = this.bufferedGuiOpen;
+        return changed;
+    }
+    
+    /**
+     * Server side: Releases all keys, e.g. when the driver has left.
+     */
+    public synchronized void reset(){
+        this.bufferedState = this.appliedState = 0;
+        this.bufferedGuiOpen = this.appliedGuiOpen = false;
+        this.lastClientTick = -1;
+    }
+    
+    public int getState(){
+        return this.appliedState;
+    }
+    
+    public boolean isGuiOpen(){
+        return this.appliedGuiOpen;
+    }
+    
+    public synchronized int getDroppedPackets(){
+        return this.droppedPackets;
+    }
+}
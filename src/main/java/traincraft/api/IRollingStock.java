@@ -86,7 +86,8 @@ public interface IRollingStock {
     
     /**
      * Used to return a List with {@link AxisAlignedBB} as collision boxes.
-     * Called every server tick for this rolling stock.
+     * Called every server tick and on every position change for this rolling stock.
+     * The area of these boxes is also split into the {@link RollingStockPart}s of long rolling stock.
      * Leaving this empty would lead to this rolling stock not having a collision at all.
      * Normally this returns a singleton list with default collision box logic applied.
      *
@@ -99,7 +100,7 @@ public interface IRollingStock {
         if(collisionHandler != null){
             return Collections.singletonList(collisionHandler.getMinecartCollisionBox(rollingStock));
         }
-        return Collections.singletonList(rollingStock.getEntityBoundingBox().grow(0.2D, 0.0D, 0.2D));
+        return Collections.singletonList(rollingStock.getFullBoundingBox().grow(0.2D, 0.0D, 0.2D));
     }
     
     /**
@@ -141,6 +142,17 @@ public interface IRollingStock {
      */
     double getMaxReverseSpeed(AbstractRollingStock<?> rollingStock);
     
+    /**
+     * Determines if this rolling stock can be driven by an {@link AutomaticTrainOperation}.
+     * This should only be true for locomotives.
+     *
+     * @param rollingStock This rolling stock
+     * @return True if this rolling stock can drive automatically
+     */
+    default boolean canDriveAutomatically(AbstractRollingStock<?> rollingStock){
+        return false;
+    }
+    
     /**
      * Gets the mass of the empty rolling stock.
      * This is used in acceleration and breaking calculations.
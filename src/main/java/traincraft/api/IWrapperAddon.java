@@ -13,11 +13,15 @@ public interface IWrapperAddon<T extends AbstractRollingStock<?>> {
     T createEntity(World world);
     
     T createEntity(World world, double x, double y, double z);
-
+    
     Item createItem();
     
     void loadFromFile(Side side, File file, JsonObject root);
     
     ResourceLocation getId();
     
+    default TrackingProfile getTrackingProfile(){
+        return TrackingProfile.DEFAULT;
+    }
+    
 }
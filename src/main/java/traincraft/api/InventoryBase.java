@@ -21,6 +21,13 @@ import net.minecraftforge.common.util.Constants;
 import net.minecraftforge.common.util.INBTSerializable;
 import net.minecraftforge.items.wrapper.SidedInvWrapper;
 
+/**
+ * An inventory which can be saved and synced as nbt. Only the filled slots are written, with their index as byte
+ * (as short for the slots from 256 on). Older saves with every slot and an int index are still read.
+ * <p>
+ * A compound with "Size" is a complete state, so all slots which aren't part of it are empty. A compound without it
+ * is a delta (see {@link traincraft.network.NBTDelta}), which only changes its slots.
+ */
 public class InventoryBase extends InventoryBasic implements INBTSerializable<NBTTagCompound>, ISidedInventory {
     
     public InventoryBase(String title, boolean customName, int slotCount){
@@ -35,10 +42,13 @@ public class InventoryBase extends InventoryBasic implements INBTSerializable<NB
     public NBTTagCompound serializeNBT(){
         NBTTagList nbtTagList = new NBTTagList();
         for(int i = 0; i < this.getSizeInventory(); i++){
-            NBTTagCompound itemTag = new NBTTagCompound();
-            itemTag.setInteger("Slot", i);
-            this.getStackInSlot(i).writeToNBT(itemTag);
-            nbtTagList.appendTag(itemTag);
+            ItemStack stack = this.getStackInSlot(i);
+            if(!stack.isEmpty()){
+                NBTTagCompound itemTag = new NBTTagCompound();
+                writeSlot(itemTag, i);
+                stack.writeToNBT(itemTag);
+                nbtTagList.appendTag(itemTag);
+            }
         }
         NBTTagCompound nbt = new NBTTagCompound();
         nbt.setTag("Items", nbtTagList);
@@ -49,13 +59,40 @@ public class InventoryBase extends InventoryBasic implements INBTSerializable<NB
     @Override
     public void deserializeNBT(NBTTagCompound nbt){
         NBTTagList tagList = nbt.getTagList("Items", Constants.NBT.TAG_COMPOUND);
+        boolean[] read = new boolean[this.getSizeInventory()];
         for(int i = 0; i < tagList.tagCount(); i++){
             NBTTagCompound itemTags = tagList.getCompoundTagAt(i);
-            int slot = itemTags.getInteger("Slot");
+            int slot = readSlot(itemTags);
             if(slot >= 0 && slot < this.getSizeInventory()){
                 this.setInventorySlotContents(slot, new ItemStack(itemTags));
+                read[slot] = true;
             }
         }
+        if(nbt.hasKey("Size")){ // complete state, the empty slots aren't written
+            for(int slot = 0; slot < read.length; slot++){
+                if(!read[slot] && !this.getStackInSlot(slot).isEmpty()){
+                    this.setInventorySlotContents(slot, ItemStack.EMPTY);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Writes the slot index as byte, or as short if it doesn't fit.
+     */
+    public static void writeSlot(NBTTagCompound itemTag, int slot){
+        if(slot <= 0xFF){
+            itemTag.setByte("Slot", (byte) slot);
+        } else{
+            itemTag.setShort("Slot", (short) slot);
+        }
+    }
+    
+    /**
+     * @return The slot index of a byte, short or (old saves) int "Slot"
+     */
+    public static int readSlot(NBTTagCompound itemTag){
+        return itemTag.hasKey("Slot", Constants.NBT.TAG_BYTE) ? itemTag.getByte("Slot") & 0xFF : itemTag.getInteger("Slot");
     }
     
     @Override
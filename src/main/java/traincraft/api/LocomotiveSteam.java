@@ -26,10 +26,13 @@ import net.minecraftforge.fluids.capability.IFluidHandlerItem;
 import net.minecraftforge.fluids.capability.IFluidTankProperties;
 import net.minecraftforge.items.IItemHandler;
 import net.minecraftforge.items.wrapper.InvWrapper;
+import traincraft.network.EntityField;
+import traincraft.network.EntityPacketData;
 import traincraft.tile.BaseTile;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.Arrays;
 
 public abstract class LocomotiveSteam<A extends LocomotiveSteam<A>> extends AbstractRollingStock<A> implements ITemperatureSupplier {
     
@@ -76,6 +79,11 @@ public abstract class LocomotiveSteam<A extends LocomotiveSteam<A>> extends Abst
         return 293.15D; // 20°C
     }
     
+    @Override
+    public boolean canDriveAutomatically(AbstractRollingStock<?> rollingStock){
+        return true;
+    }
+    
     @Override
     public void onUpdate(){
         super.onUpdate();
@@ -186,8 +194,7 @@ public abstract class LocomotiveSteam<A extends LocomotiveSteam<A>> extends Abst
                 }
             }
             if(this.burnTime > 0){
-                this.burnTime--;
-                shouldSendUpdatePacket = this.burnTime % 5 == 0;
+                this.burnTime--; // not part of the sync data, the container syncs it to the players with the gui open
             }
             
             
@@ -200,7 +207,15 @@ public abstract class LocomotiveSteam<A extends LocomotiveSteam<A>> extends Abst
     @Override
     public void readFromNBT(AbstractRollingStock<?> rollingStock, NBTTagCompound nbt, BaseTile.NBTState state){
         super.readFromNBT(rollingStock, nbt, state);
-        if(state != BaseTile.NBTState.DROP){
+        if(state == BaseTile.NBTState.SAVE && isCompactSave(nbt)){
+            // burn time and max burn time, the temperature as difference to the default temperature (zero by default)
+            int[] ints = Arrays.copyOf(nbt.getIntArray("tc_steam"), 4);
+            this.burnTime = ints[0];
+            this.maxBurnTime = ints[1];
+            this.temperature = this.getDefaultTemperature() + unpackDouble(ints, 1);
+            return;
+        }
+        if(state == BaseTile.NBTState.SAVE){ // sync data and saves from before the compact layout
             if(nbt.hasKey("burn_time", Constants.NBT.TAG_INT)){
                 this.burnTime = nbt.getInteger("burn_time");
             }
@@ -208,14 +223,32 @@ public abstract class LocomotiveSteam<A extends LocomotiveSteam<A>> extends Abst
                 this.maxBurnTime = nbt.getInteger("max_burn_time");
             }
         }
+        if(state != BaseTile.NBTState.DROP){
+            if(nbt.hasKey("boiler_temperature", Constants.NBT.TAG_DOUBLE)){
+                this.temperature = nbt.getDouble("boiler_temperature");
+            }
+        }
+    }
+    
+    @Override
+    public void readSyncData(@Nonnull EntityPacketData data){
+        super.readSyncData(data);
+        if(data.has(EntityField.TEMPERATURE)){
+            this.temperature = data.getDouble(EntityField.TEMPERATURE);
+        }
     }
     
     @Override
     public void writeToNBT(AbstractRollingStock<?> rollingStock, NBTTagCompound nbt, BaseTile.NBTState state){
         super.writeToNBT(rollingStock, nbt, state);
-        if(state != BaseTile.NBTState.DROP){
-            nbt.setInteger("burn_time", this.burnTime);
-            nbt.setInteger("max_burn_time", this.maxBurnTime);
+        if(state == BaseTile.NBTState.SAVE){
+            long temperatureBits = Double.doubleToLongBits(this.temperature - this.getDefaultTemperature());
+            int[] ints = trimZeros(new int[]{this.burnTime, this.maxBurnTime, (int) (temperatureBits >>> 32), (int) temperatureBits});
+            if(ints.length > 0){
+                nbt.setIntArray("tc_steam", ints);
+            }
+        } else if(state != BaseTile.NBTState.DROP){
+            nbt.setDouble("boiler_temperature", this.temperature);
         }
     }
     
@@ -0,0 +1,108 @@
+/*
+ * Traincraft
+ * Copyright (c) 2011-2020.
+ *
+ * This file ("RollingStockPart.java") is part of the Traincraft mod for Minecraft.
+ * It is created by all people that are listed with @author below.
+ * It is distributed under LGPL-v3.0.
+ * You can find the source code at https://github.com/Traincraft/Traincraft
+ */
+
+package traincraft.api;
+
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.MultiPartEntityPart;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.item.ItemStack;
+import net.minecraft.util.EnumActionResult;
+import net.minecraft.util.EnumHand;
+import net.minecraft.util.math.AxisAlignedBB;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.util.math.RayTraceResult;
+import net.minecraft.util.math.Vec3d;
+import net.minecraft.world.chunk.Chunk;
+
+import javax.annotation.Nonnull;
+
+/**
+ * One section of the hitbox of a long rolling stock.
+ * Vanilla only looks at the parts of an entity if its root box is hit, which is small for long rolling stock.
+ * So every part is put into the entity list of the chunk it is in by its rolling stock, and the searches find it like
+ * any other entity. Every section is at most {@link AbstractRollingStock#MAX_SECTION_LENGTH} long, so a part is never
+ * further from its center than {@link net.minecraft.world.World#MAX_ENTITY_RADIUS} reaches.
+ * A search which also hits the root box finds such a part a second time, through the parts of the root.
+ * <p>
+ * Parts are never added to the world, so they are never saved, ticked or tracked. The parent positions them and
+ * all interactions are forwarded to it.
+ */
+public class RollingStockPart extends MultiPartEntityPart {
+    
+    private final AbstractRollingStock<?> rollingStock;
+    private Chunk chunk;
+    
+    public RollingStockPart(AbstractRollingStock<?> rollingStock, int index){
+        super(rollingStock, "section_" + index, 1.0F, 1.0F);
+        this.rollingStock = rollingStock;
+    }
+    
+    public AbstractRollingStock<?> getRollingStock(){
+        return this.rollingStock;
+    }
+    
+    void setBox(AxisAlignedBB box){
+        this.posX = (box.minX + box.maxX) / 2.0D;
+        this.posY = box.minY;
+        this.posZ = (box.minZ + box.maxZ) / 2.0D;
+        this.width = (float) Math.max(box.maxX - box.minX, box.maxZ - box.minZ);
+        this.height = (float) (box.maxY - box.minY);
+        this.setEntityBoundingBox(box);
+    }
+    
+    /**
+     * Moves this part into the entity list of the chunk it is in now. Also puts it back into a chunk which was unloaded and loaded again.
+     */
+    void updateChunk(){
+        Chunk chunk = this.world.getChunkProvider().getLoadedChunk(MathHelper.floor(this.posX / 16.0D), MathHelper.floor(this.posZ / 16.0D));
+        int chunkY = MathHelper.clamp(MathHelper.floor(this.posY / 16.0D), 0, 15);
+        if(chunk == this.chunk && (chunk == null || chunkY == this.chunkCoordY)){
+            return;
+        }
+        this.removeFromChunk();
+        if(chunk != null){
+            chunk.addEntity(this);
+            this.chunk = chunk;
+        }
+    }
+    
+    void removeFromChunk(){
+        if(this.chunk != null){
+            this.chunk.removeEntityAtIndex(this, this.chunkCoordY);
+            this.chunk = null;
+        }
+        this.addedToChunk = false;
+    }
+    
+    @Nonnull
+    @Override
+    public EnumActionResult applyPlayerInteraction(@Nonnull EntityPlayer player, @Nonnull Vec3d hitVec, @Nonnull EnumHand hand){
+        // the hit vector is relative to the entity position, so it has to be moved to the parent
+        Vec3d parentHitVec = hitVec.add(this.posX - this.rollingStock.posX, this.posY - this.rollingStock.posY, this.posZ - this.rollingStock.posZ);
+        return this.rollingStock.applyPlayerInteraction(player, parentHitVec, hand);
+    }
+    
+    @Override
+    public boolean processInitialInteract(@Nonnull EntityPlayer player, @Nonnull EnumHand hand){
+        return this.rollingStock.processInitialInteract(player, hand);
+    }
+    
+    @Override
+    public boolean isEntityEqual(@Nonnull Entity entity){
+        return this == entity || this.rollingStock == entity;
+    }
+    
+    @Nonnull
+    @Override
+    public ItemStack getPickedResult(RayTraceResult target){
+        return this.rollingStock.getPickedResult(target);
+    }
+}
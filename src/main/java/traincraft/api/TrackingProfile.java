@@ -0,0 +1,61 @@
+/*
+ * Traincraft
+ * Copyright (c) 2011-2020.
+ *
+ * This file ("TrackingProfile.java") is part of the Traincraft mod for Minecraft.
+ * It is created by all people that are listed with @author below.
+ * It is distributed under LGPL-v3.0.
+ * You can find the source code at https://github.com/Traincraft/Traincraft
+ */
+
+package traincraft.api;
+
+import com.google.gson.JsonObject;
+import net.minecraft.util.math.MathHelper;
+
+/**
+ * How the vanilla entity tracker handles a rolling stock type: its tracking range and how often movement updates are sent.
+ * The clients move rolling stock with the {@link Consist} snapshots and ignore the vanilla movement updates, so the
+ * update frequency is only the fallback for clients which have no snapshot yet.
+ * <p>
+ * Can be set per type in the rolling stock json:
+ * <pre>
+ * "tracking": {
+ *   "range": 64,
+ *   "updateFrequency": 100
+ * }
+ * </pre>
+ */
+public class TrackingProfile {
+    
+    public static final TrackingProfile DEFAULT = new TrackingProfile(64, Consist.TRACKER_UPDATE_FREQUENCY);
+    
+    private final int range, updateFrequency;
+    
+    public TrackingProfile(int range, int updateFrequency){
+        this.range = MathHelper.clamp(range, 16, 256);
+        this.updateFrequency = MathHelper.clamp(updateFrequency, 1, 400);
+    }
+    
+    public static TrackingProfile fromJson(JsonObject json){
+        int range = json.has("range") ? json.get("range").getAsInt() : DEFAULT.range;
+        int updateFrequency = json.has("updateFrequency") ? json.get("updateFrequency").getAsInt() : DEFAULT.updateFrequency;
+        return new TrackingProfile(range, updateFrequency);
+    }
+    
+    public int getRange(){
+        return this.range;
+    }
+    
+    /**
+     * @return The ticks between two movement updates
+     */
+    public int getUpdateFrequency(){
+        return this.updateFrequency;
+    }
+    
+    @Override
+    public String toString(){
+        return "TrackingProfile[range=" + this.range + ", updateFrequency=" + this.updateFrequency + "]";
+    }
+}
@@ -107,15 +107,16 @@ public class TraincraftAddonLoader {
         ModContainer mc = FMLCommonHandler.instance().findContainerFor(Traincraft.INSTANCE);
         ResourceLocation resourceLocation = wrapper.getId();
         Class<? extends AbstractRollingStock> clazz = wrapper.createEntity(null).getClass();
+        TrackingProfile trackingProfile = wrapper.getTrackingProfile();
         EntityRegistry.EntityRegistration er = EntityRegistry.instance().new EntityRegistration(
             mc,
             resourceLocation,
             clazz,
             resourceLocation.getPath(),
             TCEntities.entityIds++,
-            64,
-            1,
-            true,
+            trackingProfile.getRange(),
+            trackingProfile.getUpdateFrequency(),
+            false, // the movement is sent by the consist snapshots
             wrapper::createEntity);
         
         if(entityRegistrationMap == null){
@@ -39,6 +39,7 @@ public class WrapperRollingStock implements IWrapperAddon<AbstractRollingStock<?
     private Vec3d modelScale = new Vec3d(1.0D, 1.0D, 1.0D), modelOffset = new Vec3d(0.0D, 0.0D, 0.0D), modelRotation = new Vec3d(0.0D, 0.0D, 0.0D);
     private Vec3d size = new Vec3d(0.98F, 0.98F, 0.98F);
     private double acceleration, breakPower, maxSpeed, maxReverseSpeed, mass;
+    private TrackingProfile trackingProfile = TrackingProfile.DEFAULT;
     
     @Override
     public String toString(){
@@ -58,6 +59,7 @@ public class WrapperRollingStock implements IWrapperAddon<AbstractRollingStock<?
             .add("skins=" + skins)
             .add("seats=" + seats)
             .add("axes=" + axes)
+            .add("trackingProfile=" + trackingProfile)
             .toString();
     }
     
@@ -170,6 +172,9 @@ public class WrapperRollingStock implements IWrapperAddon<AbstractRollingStock<?
         if(root.has("mass")){
             this.setMass(root.get("mass").getAsDouble());
         }
+        if(root.has("tracking") && root.get("tracking").isJsonObject()){
+            this.setTrackingProfile(TrackingProfile.fromJson(root.get("tracking").getAsJsonObject()));
+        }
         if(root.has("skins")){
             if(root.get("skins").isJsonObject()){
                 for(Map.Entry<String, JsonElement> entry : root.get("skins").getAsJsonObject().entrySet()){
@@ -315,6 +320,15 @@ public class WrapperRollingStock implements IWrapperAddon<AbstractRollingStock<?
         this.mass = mass;
     }
     
+    @Override
+    public TrackingProfile getTrackingProfile(){
+        return trackingProfile;
+    }
+    
+    public void setTrackingProfile(TrackingProfile trackingProfile){
+        this.trackingProfile = trackingProfile;
+    }
+    
     public Map<String, ResourceLocation> getSkins(){
         return skins;
     }
@@ -354,6 +368,16 @@ public class WrapperRollingStock implements IWrapperAddon<AbstractRollingStock<?
             return WrapperRollingStock.this.getSize();
         }
         
+        @Override
+        public ResourceLocation getTypeId(){
+            return WrapperRollingStock.this.getId();
+        }
+        
+        @Override
+        public TrackingProfile getTrackingProfile(){
+            return WrapperRollingStock.this.getTrackingProfile();
+        }
+        
         @Override
         public double getAcceleration(AbstractRollingStock<?> rollingStock){
             return WrapperRollingStock.this.getAcceleration();
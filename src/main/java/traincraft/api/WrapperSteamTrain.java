@@ -62,6 +62,16 @@ public class WrapperSteamTrain extends WrapperRollingStock {
             return WrapperSteamTrain.this.getSize();
         }
     
+        @Override
+        public ResourceLocation getTypeId(){
+            return WrapperSteamTrain.this.getId();
+        }
+    
+        @Override
+        public TrackingProfile getTrackingProfile(){
+            return WrapperSteamTrain.this.getTrackingProfile();
+        }
+    
         @Override
         public double getAcceleration(AbstractRollingStock<?> rollingStock){
             return WrapperSteamTrain.this.getAcceleration();
@@ -46,6 +46,9 @@ public class TCBlocks {
     public static final BlockBridgePillar BRIDGE_PILLAR = new BlockBridgePillar();
     public static final BlockLantern LANTERN = new BlockLantern();
     public static final BlockBallast BALLAST = new BlockBallast();
+    // not registered until placed track is added to the TrackNetwork, without it they would never be powered
+    //public static final BlockTrackDetector TRACK_DETECTOR = new BlockTrackDetector();
+    //public static final BlockLevelCrossing LEVEL_CROSSING = new BlockLevelCrossing();
     
     public static final BlockOilSand OIL_SAND = new BlockOilSand();
     public static final BlockPetrolOre PETROL_ORE = new BlockPetrolOre();
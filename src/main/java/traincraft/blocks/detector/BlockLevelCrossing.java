@@ -0,0 +1,50 @@
+/*
+ * Traincraft
+ * Copyright (c) 2011-2020.
+ *
+ * This file ("BlockLevelCrossing.java") is part of the Traincraft mod for Minecraft.
+ * It is created by all people that are listed with @author below.
+ * It is distributed under LGPL-v3.0.
+ * You can find the source code at https://github.com/Traincraft/Traincraft
+ */
+
+package traincraft.blocks.detector;
+
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.util.math.AxisAlignedBB;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.IBlockAccess;
+
+import javax.annotation.Nullable;
+
+/**
+ * A level crossing closes (powered) as long as a train is near. The watched range is larger than the one of the detector,
+ * so the crossing is closed before the train reaches the road.
+ */
+public class BlockLevelCrossing extends BlockTrackDetector {
+    
+    public static final AxisAlignedBB CLOSED_BOX = new AxisAlignedBB(0.0F, 0.0F, 0.0F, 1.0F, 1.5F, 1.0F);
+    
+    public BlockLevelCrossing(){
+        super("level_crossing", 4, TileLevelCrossing.class);
+    }
+    
+    @SuppressWarnings("deprecation")
+    @Override
+    public boolean isFullBlock(IBlockState state){
+        return false;
+    }
+    
+    @SuppressWarnings("deprecation")
+    @Override
+    public boolean isOpaqueCube(IBlockState state){
+        return false;
+    }
+    
+    @SuppressWarnings("deprecation")
+    @Nullable
+    @Override
+    public AxisAlignedBB getCollisionBoundingBox(IBlockState state, IBlockAccess world, BlockPos pos){
+        return state.getValue(POWERED) ? CLOSED_BOX : NULL_AABB;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Traincraft
+ * Copyright (c) 2011-2020.
+ *
+ * This file ("BlockTrackDetector.java") is part of the Traincraft mod for Minecraft.
+ * It is created by all people that are listed with @author below.
+ * It is distributed under LGPL-v3.0.
+ * You can find the source code at https://github.com/Traincraft/Traincraft
+ */
+
+package traincraft.blocks.detector;
+
+import net.minecraft.block.SoundType;
+import net.minecraft.block.material.Material;
+import net.minecraft.block.properties.PropertyBool;
+import net.minecraft.block.state.BlockStateContainer;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.EnumFacing;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.IBlockAccess;
+import net.minecraft.world.World;
+import traincraft.Traincraft;
+import traincraft.blocks.BaseContainerBlock;
+import traincraft.tile.BaseTile;
+
+import java.util.Random;
+
+/**
+ * A block next to or below the track, which emits a redstone signal while a rolling stock is on a watched segment.
+ * It doesn't tick or search for entities, the {@link TileTrackDetector} only reacts on occupancy changes.
+ */
+public class BlockTrackDetector extends BaseContainerBlock {
+    
+    public static final PropertyBool POWERED = PropertyBool.create("powered");
+    
+    private final int watchRange;
+    
+    public BlockTrackDetector(){
+        this("track_detector", 1, TileTrackDetector.class);
+    }
+    
+    /**
+     * @param name       The registry name
+     * @param watchRange The horizontal distance in blocks of the watched track positions
+     * @param tileClass  The tile class, has to be unique per block
+     */
+    protected BlockTrackDetector(String name, int watchRange, Class<? extends BaseTile> tileClass){
+        super(Material.IRON, tileClass);
+        this.setRegistryName(Traincraft.MOD_ID, name);
+        this.watchRange = watchRange;
+        
+        this.setCreativeTab(Traincraft.TAB);
+        this.setHardness(1.7F);
+        this.setSoundType(SoundType.METAL);
+        
+        this.setDefaultState(this.getBlockState().getBaseState().withProperty(POWERED, false));
+    }
+    
+    public int getWatchRange(){
+        return this.watchRange;
+    }
+    
+    @SuppressWarnings("deprecation")
+    @Override
+    public boolean canProvidePower(IBlockState state){
+        return true;
+    }
+    
+    @SuppressWarnings("deprecation")
+    @Override
+    public int getWeakPower(IBlockState state, IBlockAccess world, BlockPos pos, EnumFacing side){
+        return state.getValue(POWERED) ? 15 : 0;
+    }
+    
+    @Override
+    public void updateTick(World world, BlockPos pos, IBlockState state, Random rand){
+        TileEntity tile = world.getTileEntity(pos);
+        if(tile instanceof TileTrackDetector){
+            ((TileTrackDetector) tile).updateOutput();
+        }
+    }
+    
+    @SuppressWarnings("deprecation")
+    @Override
+    public IBlockState getStateFromMeta(int meta){
+        return this.getDefaultState().withProperty(POWERED, (meta & 0b0001) > 0);
+    }
+    
+    @Override
+    public int getMetaFromState(IBlockState state){
+        return state.getValue(POWERED) ? 0b0001 : 0b0000;
+    }
+    
+    @Override
+    protected BlockStateContainer createBlockState(){
+        return new BlockStateContainer(this, POWERED);
+    }
+}
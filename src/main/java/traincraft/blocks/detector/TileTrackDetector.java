@@ -0,0 +1,122 @@
+/*
+ * Traincraft
+ * Copyright (c) 2011-2020.
+ *
+ * This file ("TileTrackDetector.java") is part of the Traincraft mod for Minecraft.
+ * It is created by all people that are listed with @author below.
+ * It is distributed under LGPL-v3.0.
+ * You can find the source code at https://github.com/Traincraft/Traincraft
+ */
+
+package traincraft.blocks.detector;
+
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.util.math.BlockPos;
+import traincraft.event.TCEvents;
+import traincraft.tile.BaseTile;
+import traincraft.track.ITrackOccupancyListener;
+import traincraft.track.TrackNetwork;
+import traincraft.track.TrackOccupancy;
+import traincraft.track.TrackSegment;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Subscribes to the {@link TrackOccupancy} of all track positions around the detector.
+ * The block state is only changed when a watched segment changes between free and occupied.
+ * This tile isn't ticking, so an idle detector costs nothing.
+ */
+public class TileTrackDetector extends BaseTile implements ITrackOccupancyListener {
+    
+    private final Set<Integer> occupiedSegments = new HashSet<>();
+    private List<BlockPos> watchedPositions;
+    
+    @Override
+    public void onLoad(){
+        if(!this.world.isRemote){
+            this.subscribe();
+        }
+    }
+    
+    @Override
+    public void invalidate(){
+        super.invalidate();
+        this.unsubscribe();
+    }
+    
+    @Override
+    public void onChunkUnload(){
+        super.onChunkUnload();
+        this.unsubscribe();
+    }
+    
+    @Override
+    public void onOccupancyChanged(@Nonnull TrackSegment segment, boolean occupied){
+        if(occupied){
+            this.occupiedSegments.add(segment.getId());
+        } else{
+            this.occupiedSegments.remove(segment.getId());
+        }
+        this.updateOutput();
+    }
+    
+    public boolean isOccupied(){
+        return !this.occupiedSegments.isEmpty();
+    }
+    
+    private void subscribe(){
+        if(this.watchedPositions != null){
+            return;
+        }
+        TrackNetwork network = TCEvents.getSaveData(this.world).getTrackNetwork();
+        this.watchedPositions = this.computeWatchedPositions();
+        for(BlockPos watched : this.watchedPositions){
+            network.getOccupancy().subscribe(watched, this);
+            // trains which are already there, won't send an event
+            TrackSegment segment = network.getSegmentAt(watched);
+            if(segment != null && network.getOccupancy().isOccupied(segment)){
+                this.occupiedSegments.add(segment.getId());
+            }
+        }
+        // the block state can't be changed while the chunk is loading, so it is corrected on the next tick
+        this.world.scheduleUpdate(this.pos, this.getBlockType(), 1);
+    }
+    
+    private void unsubscribe(){
+        if(this.watchedPositions != null && this.world != null && !this.world.isRemote){
+            TrackOccupancy occupancy = TCEvents.getSaveData(this.world).getTrackNetwork().getOccupancy();
+            for(BlockPos watched : this.watchedPositions){
+                occupancy.unsubscribe(watched, this);
+            }
+        }
+        this.watchedPositions = null;
+        this.occupiedSegments.clear();
+    }
+    
+    /**
+     * @return All positions around this detector (same level and one above) within the watch range of the block
+     */
+    private List<BlockPos> computeWatchedPositions(){
+        int range = this.getBlockType() instanceof BlockTrackDetector ? ((BlockTrackDetector) this.getBlockType()).getWatchRange() : 1;
+        List<BlockPos> positions = new ArrayList<>();
+        for(BlockPos pos : BlockPos.getAllInBox(this.pos.add(-range, 0, -range), this.pos.add(range, 1, range))){
+            if(!pos.equals(this.pos)){
+                positions.add(pos.toImmutable());
+            }
+        }
+        return positions;
+    }
+    
+    void updateOutput(){
+        IBlockState state = this.world.getBlockState(this.pos);
+        boolean powered = this.isOccupied();
+        if(state.getBlock() instanceof BlockTrackDetector && state.getValue(BlockTrackDetector.POWERED) != powered){
+            // flag 3 also notifies the neighbours, so redstone is updated without any polling
+            this.world.setBlockState(this.pos, state.withProperty(BlockTrackDetector.POWERED, powered), 3);
+        }
+    }
+}
@@ -12,19 +12,29 @@ package traincraft.blocks.distillery;
 
 import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.inventory.Container;
+import net.minecraft.inventory.IContainerListener;
 import net.minecraft.inventory.IInventory;
 import net.minecraft.inventory.Slot;
 import net.minecraft.item.ItemStack;
+import net.minecraftforge.fml.relauncher.Side;
+import net.minecraftforge.fml.relauncher.SideOnly;
+import traincraft.api.ContainerPropertySync;
 import traincraft.api.SlotInventory;
 
 public class ContainerDistillery extends Container {
     
     private final TileDistillery tile;
     private final EntityPlayer player;
+    private final ContainerPropertySync propertySync;
     
     public ContainerDistillery(TileDistillery tile, EntityPlayer player){
         this.tile = tile;
         this.player = player;
+        this.propertySync = new ContainerPropertySync()
+            .add(() -> tile.burnTime, value -> tile.burnTime = value)
+            .add(() -> tile.maxBurnTime, value -> tile.maxBurnTime = value)
+            .add(() -> tile.recipeBurnTime, value -> tile.recipeBurnTime = value)
+            .add(() -> tile.maxRecipeBurnTime, value -> tile.maxRecipeBurnTime = value);
         
         IInventory inv = tile.getRealInventory();
         if(inv != null){
@@ -46,6 +56,24 @@ public class ContainerDistillery extends Container {
         }
     }
     
+    @Override
+    public void addListener(IContainerListener listener){
+        super.addListener(listener);
+        this.propertySync.sendAll(this, listener);
+    }
+    
+    @Override
+    public void detectAndSendChanges(){
+        super.detectAndSendChanges();
+        this.propertySync.detectAndSendChanges(this, this.listeners);
+    }
+    
+    @SideOnly(Side.CLIENT)
+    @Override
+    public void updateProgressBar(int id, int data){
+        this.propertySync.update(id, data);
+    }
+    
     @Override
     public ItemStack transferStackInSlot(EntityPlayer playerIn, int index){
         return ItemStack.EMPTY; // todo distillery container shift click behaviour
@@ -76,7 +76,7 @@ public class TileDistillery extends BaseTile implements ITickable {
     @Override
     public void readNBT(NBTTagCompound nbt, NBTState state){
         super.readNBT(nbt, state);
-        if(state != NBTState.DROP){
+        if(state == NBTState.SAVE){ // the progress is synced through the container
             if(nbt.hasKey("burn_time", Constants.NBT.TAG_INT)){
                 this.burnTime = nbt.getInteger("burn_time");
             }
@@ -95,7 +95,7 @@ public class TileDistillery extends BaseTile implements ITickable {
     @Override
     public void writeNBT(NBTTagCompound nbt, NBTState state){
         super.writeNBT(nbt, state);
-        if(state != NBTState.DROP){
+        if(state == NBTState.SAVE){ // the progress is synced through the container
             nbt.setInteger("burn_time", this.burnTime);
             nbt.setInteger("max_burn_time", this.maxBurnTime);
             nbt.setInteger("recipe_burn_time", this.recipeBurnTime);
@@ -160,8 +160,6 @@ public class TileDistillery extends BaseTile implements ITickable {
                 if(this.burnTime <= 0){
                     this.burnTime = this.maxBurnTime = 0;
                     testAndConsumeForBurnStack();
-                } else if(this.burnTime % 5 == 0){
-                    this.syncToClient(); // sync every five ticks
                 }
             }
         }
@@ -0,0 +1,226 @@
+/*
+ * Traincraft
+ * Copyright (c) 2011-2020.
+ *
+ * This file ("CommandTraincraft.java") is part of the Traincraft mod for Minecraft.
+ * It is created by all people that are listed with @author below.
+ * It is distributed under LGPL-v3.0.
+ * You can find the source code at https://github.com/Traincraft/Traincraft
+ */
+
+package traincraft.command;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import net.minecraft.command.CommandBase;
+import net.minecraft.command.CommandException;
+import net.minecraft.command.ICommandSender;
+import net.minecraft.command.WrongUsageException;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.text.TextComponentString;
+import traincraft.Traincraft;
+import traincraft.network.CaptureReplay;
+import traincraft.network.NetworkStats;
+import traincraft.network.PacketCapture;
+import traincraft.network.UpdateTier;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+/**
+ * The /traincraft command.
+ * <ul>
+ *     <li>netstats: Shows the Traincraft network traffic of the last 1, 10 and 60 seconds and the entity packets per update tier</li>
+ *     <li>netstats dump: Writes all network counters as json into the server directory</li>
+ *     <li>capture start [player]: Records the Traincraft traffic to the player into the captures directory</li>
+ *     <li>capture stop: Stops the recording</li>
+ *     <li>replay &lt;file&gt;: Applies a recorded capture offline to stubs and reports the decode and apply time, allocations, final state and mismatches</li>
+ *     <li>savebench [count]: Compares the old and the compact rolling stock save layout of every type: size, migration, write and load time</li>
+ * </ul>
+ */
+public class CommandTraincraft extends CommandBase {
+    
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    private static final int MAX_LINES = 15;
+    private static final String CAPTURE_DIRECTORY = "traincraft-captures";
+    private static final int DEFAULT_BENCHMARK_COUNT = 10000;
+    
+    @Nonnull
+    @Override
+    public String getName(){
+        return Traincraft.MOD_ID;
+    }
+    
+    @Nonnull
+    @Override
+    public String getUsage(@Nonnull ICommandSender sender){
+        return "/traincraft netstats [dump] | capture <start [player]|stop> | replay <file> | savebench [count]";
+    }
+    
+    @Override
+    public int getRequiredPermissionLevel(){
+        return 2;
+    }
+    
+    @Override
+    public void execute(@Nonnull MinecraftServer server, @Nonnull ICommandSender sender, @Nonnull String[] args) throws CommandException{
+        if(args.length >= 2 && "capture".equals(args[0])){
+            this.executeCapture(server, sender, args);
+            return;
+        }
+        if(args.length == 2 && "replay".equals(args[0])){
+            this.executeReplay(server, sender, args[1]);
+            return;
+        }
+        if(args.length >= 1 && args.length <= 2 && "savebench".equals(args[0])){
+            this.executeSaveBenchmark(server, sender, args.length > 1 ? parseInt(args[1], 1, 100000) : DEFAULT_BENCHMARK_COUNT);
+            return;
+        }
+        if(args.length < 1 || !"netstats".equals(args[0])){
+            throw new WrongUsageException(this.getUsage(sender));
+        }
+        if(args.length > 1){
+            if(!"dump".equals(args[1])){
+                throw new WrongUsageException(this.getUsage(sender));
+            }
+            File file = server.getFile("traincraft-netstats.json");
+            try(Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)){
+                GSON.toJson(NetworkStats.toJson(), writer);
+            } catch(IOException e){
+                Traincraft.LOGGER.error("Can't write the network statistics to '" + file.getAbsolutePath() + "'", e);
+                throw new CommandException("Can't write " + file.getName() + ": " + e.getMessage());
+            }
+            sender.sendMessage(new TextComponentString("Network statistics written to " + file.getName()));
+            return;
+        }
+        
+        // the counters with the most traffic of the last minute first
+        List<Map.Entry<String, NetworkStats.Counter>> counters = new ArrayList<>();
+        NetworkStats.forEach((name, counter) -> counters.add(new AbstractMap.SimpleEntry<>(name, counter)));
+        counters.sort(Comparator.comparingLong((Map.Entry<String, NetworkStats.Counter> entry) -> entry.getValue().getBytes(60)).reversed());
+        if(counters.isEmpty()){
+            sender.sendMessage(new TextComponentString("No Traincraft network traffic in the last 60 seconds"));
+            return;
+        }
+        sender.sendMessage(new TextComponentString("Traincraft network traffic, messages/bytes per 1s | 10s | 60s:"));
+        for(Map.Entry<String, NetworkStats.Counter> entry : counters.subList(0, Math.min(MAX_LINES, counters.size()))){
+            StringBuilder line = new StringBuilder(entry.getKey()).append(':');
+            for(int window : NetworkStats.WINDOWS){
+                line.append(window == NetworkStats.WINDOWS[0] ? " " : " | ")
+                    .append(entry.getValue().getMessages(window)).append('/').append(entry.getValue().getBytes(window));
+            }
+            sender.sendMessage(new TextComponentString(line.toString()));
+        }
+        if(counters.size() > MAX_LINES){
+            sender.sendMessage(new TextComponentString("... " + (counters.size() - MAX_LINES) + " more, see '/traincraft netstats dump'"));
+        }
+        StringBuilder tiers = new StringBuilder("Entity packets per update tier, queued/sent per 60s:");
+        for(UpdateTier tier : UpdateTier.values()){
+            tiers.append(' ').append(tier.name().toLowerCase(Locale.ROOT)).append(' ')
+                .append(NetworkStats.getTierCounter(tier, false).getMessages(60)).append('/').append(NetworkStats.getTierCounter(tier, true).getMessages(60));
+        }
+        sender.sendMessage(new TextComponentString(tiers.toString()));
+    }
+    
+    private void executeCapture(MinecraftServer server, ICommandSender sender, String[] args) throws CommandException{
+        if("stop".equals(args[1])){
+            int records = PacketCapture.stop();
+            if(records < 0){
+                throw new CommandException("No capture is running");
+            }
+            sender.sendMessage(new TextComponentString("Capture stopped with " + records + " records"));
+        } else if("start".equals(args[1])){
+            EntityPlayerMP player = args.length > 2 ? getPlayer(server, sender, args[2]) : getCommandSenderAsPlayer(sender);
+            File directory = server.getFile(CAPTURE_DIRECTORY);
+            File file = new File(directory, player.getName() + "-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".tccap");
+            try{
+                Files.createDirectories(directory.toPath());
+                PacketCapture.start(player, file);
+            } catch(IOException e){
+                Traincraft.LOGGER.error("Can't start the packet capture '" + file.getAbsolutePath() + "'", e);
+                throw new CommandException("Can't write " + file.getName() + ": " + e.getMessage());
+            }
+            sender.sendMessage(new TextComponentString("Capturing the traffic to " + player.getName() + " into " + file.getName()));
+        } else{
+            throw new WrongUsageException(this.getUsage(sender));
+        }
+    }
+    
+    /**
+     * The replay runs on its own thread, so a large capture doesn't stop the server.
+     */
+    private void executeReplay(MinecraftServer server, ICommandSender sender, String name) throws CommandException{
+        File file = new File(server.getFile(CAPTURE_DIRECTORY), name);
+        if(!file.isFile() || !file.getParentFile().equals(server.getFile(CAPTURE_DIRECTORY))){
+            throw new CommandException("There is no capture " + name);
+        }
+        if(file.equals(PacketCapture.getActiveFile())){
+            throw new CommandException("The capture is still running");
+        }
+        sender.sendMessage(new TextComponentString("Replaying " + file.getName() + "..."));
+        Thread thread = new Thread(() -> {
+            List<String> lines;
+            try{
+                lines = CaptureReplay.replay(server, file).toLines();
+            } catch(IOException | RuntimeException e){
+                Traincraft.LOGGER.error("Can't replay the capture '" + file.getAbsolutePath() + "'", e);
+                lines = Collections.singletonList("Can't replay " + file.getName() + ": " + e.getMessage());
+            }
+            List<String> result = lines;
+            server.addScheduledTask(() -> result.forEach(line -> sender.sendMessage(new TextComponentString(line))));
+        }, "Traincraft capture replay");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    /**
+     * The benchmark runs on its own thread like the replay, the entities are created on the server thread.
+     */
+    private void executeSaveBenchmark(MinecraftServer server, ICommandSender sender, int count) throws CommandException{
+        SaveBenchmark benchmark = new SaveBenchmark(server);
+        if(benchmark.isEmpty()){
+            throw new CommandException("No rolling stock is registered");
+        }
+        sender.sendMessage(new TextComponentString("Benchmarking the save layouts..."));
+        Thread thread = new Thread(() -> {
+            List<String> lines;
+            try{
+                lines = benchmark.run(count);
+            } catch(IOException | RuntimeException e){
+                Traincraft.LOGGER.error("The save benchmark failed", e);
+                lines = Collections.singletonList("The save benchmark failed: " + e.getMessage());
+            }
+            List<String> result = lines;
+            server.addScheduledTask(() -> result.forEach(line -> sender.sendMessage(new TextComponentString(line))));
+        }, "Traincraft save benchmark");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    @Nonnull
+    @Override
+    public List<String> getTabCompletions(@Nonnull MinecraftServer server, @Nonnull ICommandSender sender, @Nonnull String[] args, @Nullable BlockPos targetPos){
+        if(args.length == 1){
+            return getListOfStringsMatchingLastWord(args, "netstats", "capture", "replay", "savebench");
+        } else if(args.length == 2 && "netstats".equals(args[0])){
+            return getListOfStringsMatchingLastWord(args, "dump");
+        } else if(args.length == 2 && "capture".equals(args[0])){
+            return getListOfStringsMatchingLastWord(args, "start", "stop");
+        } else if(args.length == 3 && "capture".equals(args[0]) && "start".equals(args[1])){
+            return getListOfStringsMatchingLastWord(args, server.getOnlinePlayerNames());
+        } else if(args.length == 2 && "replay".equals(args[0])){
+            String[] captures = server.getFile(CAPTURE_DIRECTORY).list((directory, name) -> name.endsWith(".tccap"));
+            return captures != null ? getListOfStringsMatchingLastWord(args, captures) : Collections.emptyList();
+        }
+        return Collections.emptyList();
+    }
+}
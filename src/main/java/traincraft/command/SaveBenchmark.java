@@ -0,0 +1,207 @@
+/*
+ * Traincraft
+ * Copyright (c) 2011-2020.
+ *
+ * This file ("SaveBenchmark.java") is part of the Traincraft mod for Minecraft.
+ * It is created by all people that are listed with @author below.
+ * It is distributed under LGPL-v3.0.
+ * You can find the source code at https://github.com/Traincraft/Traincraft
+ */
+
+package traincraft.command;
+
+import net.minecraft.init.Items;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.world.World;
+import net.minecraftforge.fluids.FluidRegistry;
+import net.minecraftforge.fluids.FluidStack;
+import net.minecraftforge.fluids.capability.IFluidHandler;
+import net.minecraftforge.fluids.capability.IFluidTankProperties;
+import net.minecraftforge.fml.common.registry.EntityEntry;
+import net.minecraftforge.fml.common.registry.ForgeRegistries;
+import net.minecraftforge.items.IItemHandler;
+import traincraft.api.AbstractRollingStock;
+import traincraft.api.EnumRestriction;
+import traincraft.api.LocomotiveSteam;
+import traincraft.network.NetworkStats;
+import traincraft.tile.BaseTile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Compares the save layout from before the compact layout with the compact one, for every registered rolling stock type.
+ * The old saves are created by a frozen copy of the old writer from random, but reproducible states: owners, names,
+ * partly filled inventories and tanks. They are loaded through the migration, written in the compact layout and loaded again.
+ * Every save is read by a new entity, so nothing is left over from the save before. The loaded entities are written
+ * again, every result which differs from the save it was loaded from is counted as mismatch.
+ * <p>
+ * The entities are created in batches on the server thread. They are never spawned, so the benchmark itself can
+ * run on an other thread.
+ *
+ * @see CommandTraincraft
+ */
+final class SaveBenchmark {
+    
+    private static final Item[] CARGO = {Items.COAL, Items.IRON_INGOT, Items.WHEAT, Items.REDSTONE, Items.PAPER, Items.WATER_BUCKET};
+    private static final String[] NAMES = {"Express", "Freight 12", "Coal runner", "Night mail"};
+    
+    private static final int BATCH_SIZE = 500;
+    
+    private final MinecraftServer server;
+    private final World world;
+    private final List<EntityEntry> types = new ArrayList<>();
+    
+    SaveBenchmark(MinecraftServer server){
+        this.server = server;
+        this.world = server.getWorld(0);
+        for(EntityEntry entry : ForgeRegistries.ENTITIES.getValuesCollection()){
+            if(AbstractRollingStock.class.isAssignableFrom(entry.getEntityClass())){
+                this.types.add(entry);
+            }
+        }
+    }
+    
+    boolean isEmpty(){
+        return this.types.isEmpty();
+    }
+    
+    /**
+     * @param count The saves per type
+     * @return The result lines
+     */
+    List<String> run(int count) throws IOException{
+        List<String> lines = new ArrayList<>();
+        lines.add(count + " saves per type, bytes raw/compressed:");
+        for(EntityEntry type : this.types){
+            Random random = new Random(type.getRegistryName().hashCode());
+            List<NBTTagCompound> legacy = new ArrayList<>(count);
+            List<NBTTagCompound> compact = new ArrayList<>(count);
+            long migrateNanos = 0L, writeNanos = 0L, loadNanos = 0L;
+            int mismatches = 0;
+            for(int done = 0; done < count; done += BATCH_SIZE){
+                List<AbstractRollingStock<?>> entities = this.create(type, Math.min(BATCH_SIZE, count - done) * 2);
+                for(int i = 0; i < entities.size(); i += 2){
+                    AbstractRollingStock<?> migrated = entities.get(i), loaded = entities.get(i + 1);
+                    NBTTagCompound old = writeOldLayout(migrated, random);
+                    legacy.add(old);
+                    long start = System.nanoTime();
+                    migrated.readFromNBT(migrated, old, BaseTile.NBTState.SAVE);
+                    migrateNanos += System.nanoTime() - start;
+                    
+                    NBTTagCompound nbt = new NBTTagCompound();
+                    start = System.nanoTime();
+                    migrated.writeToNBT(migrated, nbt, BaseTile.NBTState.SAVE);
+                    writeNanos += System.nanoTime() - start;
+                    compact.add(nbt);
+                    
+                    start = System.nanoTime();
+                    loaded.readFromNBT(loaded, nbt, BaseTile.NBTState.SAVE);
+                    loadNanos += System.nanoTime() - start;
+                    
+                    NBTTagCompound written = new NBTTagCompound();
+                    loaded.writeToNBT(loaded, written, BaseTile.NBTState.SAVE);
+                    if(!written.equals(nbt)){
+                        mismatches++;
+                    }
+                }
+            }
+            lines.add(String.format("%s: old %d/%d, migration %.3f ms | compact %d/%d, write %.3f ms, load %.3f ms, %d mismatches", type.getRegistryName(),
+                sizeOf(legacy, false), sizeOf(legacy, true), migrateNanos / 1.0E6D,
+                sizeOf(compact, false), sizeOf(compact, true), writeNanos / 1.0E6D, loadNanos / 1.0E6D, mismatches));
+        }
+        return lines;
+    }
+    
+    /**
+     * Creates new entities on the server thread and waits for them.
+     */
+    private List<AbstractRollingStock<?>> create(EntityEntry type, int count){
+        try{
+            return this.server.callFromMainThread(() -> {
+                List<AbstractRollingStock<?>> entities = new ArrayList<>(count);
+                for(int i = 0; i < count; i++){
+                    entities.add((AbstractRollingStock<?>) type.newInstance(this.world));
+                }
+                return entities;
+            }).get();
+        } catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the server thread", e);
+        } catch(ExecutionException e){
+            throw new IllegalStateException("Can't create the entities of " + type.getRegistryName(), e.getCause());
+        }
+    }
+    
+    /**
+     * The frozen writer of the layout before the compact one, with a random state. Must not be changed with the rolling stock.
+     */
+    private static NBTTagCompound writeOldLayout(AbstractRollingStock<?> rollingStock, Random random){
+        NBTTagCompound nbt = new NBTTagCompound();
+        if(random.nextBoolean()){
+            nbt.setUniqueId("owner", new UUID(random.nextLong(), random.nextLong()));
+        }
+        if(random.nextInt(4) == 0){
+            nbt.setString("name", NAMES[random.nextInt(NAMES.length)]);
+        }
+        nbt.setInteger("restriction", random.nextInt(EnumRestriction.values().length));
+        nbt.setInteger("active_skin", random.nextInt(4));
+        nbt.setDouble("travel_distance", random.nextDouble() * 100000.0D);
+        
+        IItemHandler inventory = rollingStock.getInventory(rollingStock, null);
+        if(inventory != null){
+            // the old InventoryBase: every slot with an int index
+            NBTTagList items = new NBTTagList();
+            for(int slot = 0; slot < inventory.getSlots(); slot++){
+                NBTTagCompound itemTag = new NBTTagCompound();
+                itemTag.setInteger("Slot", slot);
+                ItemStack stack = random.nextInt(3) == 0 ? new ItemStack(CARGO[random.nextInt(CARGO.length)], 1 + random.nextInt(64)) : ItemStack.EMPTY;
+                stack.writeToNBT(itemTag);
+                items.appendTag(itemTag);
+            }
+            NBTTagCompound inventoryNBT = new NBTTagCompound();
+            inventoryNBT.setTag("Items", items);
+            inventoryNBT.setInteger("Size", inventory.getSlots());
+            nbt.setTag("inventory", inventoryNBT);
+        }
+        
+        IFluidHandler fluidHandler = rollingStock.getFluidTank(rollingStock, null);
+        IFluidTankProperties[] tanks = fluidHandler != null ? fluidHandler.getTankProperties() : new IFluidTankProperties[0];
+        if(tanks.length > 0){
+            NBTTagCompound tankNBT = new NBTTagCompound();
+            if(random.nextBoolean() && tanks[0].getCapacity() > 0){
+                new FluidStack(FluidRegistry.WATER, 1 + random.nextInt(tanks[0].getCapacity())).writeToNBT(tankNBT);
+            } else{
+                tankNBT.setString("Empty", ""); // like FluidTank
+            }
+            nbt.setTag("fluid_tank", tankNBT);
+        }
+        
+        if(rollingStock instanceof LocomotiveSteam){
+            int maxBurnTime = random.nextBoolean() ? 1600 : 0;
+            nbt.setInteger("burn_time", maxBurnTime > 0 ? random.nextInt(maxBurnTime) : 0);
+            nbt.setInteger("max_burn_time", maxBurnTime);
+        }
+        return nbt;
+    }
+    
+    private static long sizeOf(List<NBTTagCompound> compounds, boolean compressed) throws IOException{
+        if(!compressed){
+            return compounds.stream().mapToLong(NetworkStats::sizeOf).sum();
+        }
+        NBTTagList list = new NBTTagList();
+        compounds.forEach(list::appendTag);
+        NBTTagCompound nbt = new NBTTagCompound();
+        nbt.setTag("entities", list);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CompressedStreamTools.writeCompressed(nbt, out); // like the chunk storage
+        return out.size();
+    }
+}
@@ -17,6 +17,7 @@ import net.minecraftforge.fml.common.registry.EntityRegistry;
 import net.minecraftforge.fml.relauncher.Side;
 import traincraft.Traincraft;
 import traincraft.api.AbstractRollingStock;
+import traincraft.api.TrackingProfile;
 import traincraft.renderer.RendererRollingStock;
 
 public class TCEntities {
@@ -32,7 +33,7 @@ public class TCEntities {
     }
     
     private static <T extends AbstractRollingStock<T>> void register(FMLPreInitializationEvent event, ResourceLocation resourceLocation, Class<T> clazz){
-        EntityRegistry.registerModEntity(resourceLocation, clazz, resourceLocation.getPath(), entityIds++, Traincraft.INSTANCE, 64, 1, true);
+        EntityRegistry.registerModEntity(resourceLocation, clazz, resourceLocation.getPath(), entityIds++, Traincraft.INSTANCE, TrackingProfile.DEFAULT.getRange(), TrackingProfile.DEFAULT.getUpdateFrequency(), false); // the movement is sent by the consist snapshots
         if(event.getSide() == Side.CLIENT){
             registerClient(clazz);
         }
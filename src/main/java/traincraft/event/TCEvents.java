@@ -10,23 +10,43 @@
 
 package traincraft.event;
 
+import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.util.EnumFacing;
 import net.minecraft.util.ResourceLocation;
 import net.minecraft.world.World;
+import net.minecraft.world.WorldServer;
 import net.minecraftforge.common.capabilities.Capability;
 import net.minecraftforge.common.capabilities.ICapabilityProvider;
 import net.minecraftforge.event.AttachCapabilitiesEvent;
+import net.minecraftforge.event.entity.EntityJoinWorldEvent;
+import net.minecraftforge.event.entity.player.PlayerEvent;
 import net.minecraftforge.event.world.WorldEvent;
 import net.minecraftforge.fml.common.Mod;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
 import net.minecraftforge.fml.common.gameevent.TickEvent;
+import net.minecraftforge.fml.common.network.FMLNetworkEvent;
+import net.minecraftforge.fml.relauncher.Side;
 import traincraft.Traincraft;
+import traincraft.api.AbstractRollingStock;
+import traincraft.api.Consist;
+import traincraft.api.DriverInput;
 import traincraft.capabilities.CapabilityWorldWind;
 import traincraft.capabilities.WorldWind;
+import traincraft.network.EntityPacketQueue;
+import traincraft.network.IncomingPacketQueue;
+import traincraft.network.InitialStateQueue;
+import traincraft.network.PacketCapture;
+import traincraft.network.RegistryPalette;
+import traincraft.save.AsyncSaveWriter;
 import traincraft.save.TCDimensionSaveData;
+import traincraft.track.RoutePlanner;
+import traincraft.track.TrackRegionStore;
+import traincraft.track.TrackWorldListener;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
 
 @Mod.EventBusSubscriber(modid = Traincraft.MOD_ID)
 public class TCEvents {
@@ -54,7 +74,51 @@ public class TCEvents {
     
     @SubscribeEvent
     public static void worldSave(WorldEvent.Load event){
-        getSaveData(event.getWorld()); // create the save data on world load
+        TCDimensionSaveData saveData = getSaveData(event.getWorld()); // create the save data on world load
+        if(!event.getWorld().isRemote){
+            event.getWorld().addEventListener(new TrackWorldListener(saveData.getTrackNetwork()));
+            String folder = event.getWorld().provider.getSaveFolder();
+            File dimensionDirectory = folder != null ? new File(event.getWorld().getSaveHandler().getWorldDirectory(), folder) : event.getWorld().getSaveHandler().getWorldDirectory();
+            File directory = new File(dimensionDirectory, Traincraft.MOD_ID + "/track");
+            try{
+                saveData.getTrackNetwork().attachStore(new TrackRegionStore(directory));
+            } catch(IOException e){
+                Traincraft.LOGGER.error("Can't load the track network from '" + directory.getAbsolutePath() + "', it is saved in the world data", e);
+            }
+        }
+    }
+    
+    /**
+     * The region store only writes the changed pages, see {@link TrackRegionStore}.
+     */
+    @SubscribeEvent
+    public static void saveTrackRegions(WorldEvent.Save event){
+        TrackRegionStore store = event.getWorld().isRemote ? null : getSaveData(event.getWorld()).getTrackNetwork().getStore();
+        if(store != null){
+            try{
+                store.flush();
+            } catch(IOException e){
+                Traincraft.LOGGER.error("Can't save the track network", e);
+            }
+        }
+    }
+    
+    @SubscribeEvent
+    public static void saveDimensionData(WorldEvent.Save event){
+        if(event.getWorld() instanceof WorldServer){
+            getSaveData(event.getWorld()).saveAsync((WorldServer) event.getWorld());
+        }
+    }
+    
+    @SubscribeEvent
+    public static void worldUnload(WorldEvent.Unload event){
+        TrackRegionStore store = event.getWorld().isRemote ? null : getSaveData(event.getWorld()).getTrackNetwork().getStore();
+        if(store != null){
+            store.close();
+        }
+        if(event.getWorld() instanceof WorldServer){
+            AsyncSaveWriter.flush(); // the server may stop now
+        }
     }
     
     @SubscribeEvent
@@ -85,4 +149,69 @@ public class TCEvents {
         }
     }
     
+    /**
+     * Rolling stock of a saved consist waits for the other cars, see {@link traincraft.api.ConsistStore}.
+     */
+    @SubscribeEvent
+    public static void entityJoinWorld(EntityJoinWorldEvent event){
+        if(event.getEntity() instanceof AbstractRollingStock && event.getWorld() instanceof WorldServer){
+            getSaveData(event.getWorld()).getConsistStore().onCarLoaded((WorldServer) event.getWorld(), (AbstractRollingStock<?>) event.getEntity());
+        }
+    }
+    
+    @SubscribeEvent
+    public static void startTracking(PlayerEvent.StartTracking event){
+        if(event.getTarget() instanceof AbstractRollingStock && event.getEntityPlayer() instanceof EntityPlayerMP){
+            EntityPacketQueue.discard((EntityPlayerMP) event.getEntityPlayer(), event.getTarget().getEntityId());
+            Consist.requestSnapshot((AbstractRollingStock<?>) event.getTarget()); // the new player doesn't know the last snapshot to predict from
+            InitialStateQueue.enqueue((EntityPlayerMP) event.getEntityPlayer(), (AbstractRollingStock<?>) event.getTarget());
+        }
+    }
+    
+    @SubscribeEvent
+    public static void stopTracking(PlayerEvent.StopTracking event){
+        if(event.getTarget() instanceof AbstractRollingStock && event.getEntityPlayer() instanceof EntityPlayerMP){
+            InitialStateQueue.discard((EntityPlayerMP) event.getEntityPlayer(), (AbstractRollingStock<?>) event.getTarget());
+        }
+    }
+    
+    @SubscribeEvent
+    public static void playerLoggedOut(net.minecraftforge.fml.common.gameevent.PlayerEvent.PlayerLoggedOutEvent event){
+        if(event.player instanceof EntityPlayerMP){
+            PacketCapture.onPlayerLoggedOut((EntityPlayerMP) event.player);
+        }
+    }
+    
+    @SubscribeEvent
+    public static void serverTick(TickEvent.ServerTickEvent event){
+        if(event.phase == TickEvent.Phase.START){
+            IncomingPacketQueue.drain(Side.SERVER);
+            RoutePlanner.applyFinishedRoutes();
+        } else{
+            InitialStateQueue.flush();
+            EntityPacketQueue.flush();
+        }
+    }
+    
+    @SubscribeEvent
+    public static void clientTick(TickEvent.ClientTickEvent event){
+        if(event.phase == TickEvent.Phase.START){
+            DriverInput.tickClient();
+            IncomingPacketQueue.drain(Side.CLIENT);
+        }
+    }
+    
+    @SubscribeEvent
+    public static void clientConnect(FMLNetworkEvent.ClientConnectedToServerEvent event){
+        RegistryPalette.resetClient();
+        RegistryPalette.installTileDecoder(event.getManager());
+        DriverInput.resetClient();
+    }
+    
+    @SubscribeEvent
+    public static void clientDisconnect(FMLNetworkEvent.ClientDisconnectionFromServerEvent event){
+        IncomingPacketQueue.clear(Side.CLIENT);
+        RegistryPalette.resetClient();
+    }
+    
 }
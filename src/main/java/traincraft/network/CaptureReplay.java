@@ -0,0 +1,331 @@
+/*
+ * Traincraft
+ * Copyright (c) 2011-2020.
+ *
+ * This file ("CaptureReplay.java") is part of the Traincraft mod for Minecraft.
+ * It is created by all people that are listed with @author below.
+ * It is distributed under LGPL-v3.0.
+ * You can find the source code at https://github.com/Traincraft/Traincraft
+ */
+
+package traincraft.network;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import net.minecraft.entity.Entity;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.network.play.server.SPacketUpdateTileEntity;
+import net.minecraft.profiler.Profiler;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.IChunkProvider;
+import net.minecraft.world.storage.WorldInfo;
+import net.minecraftforge.common.DimensionManager;
+import net.minecraftforge.fml.common.registry.EntityEntry;
+import net.minecraftforge.fml.common.registry.ForgeRegistries;
+import traincraft.api.AbstractRollingStock;
+import traincraft.api.Consist;
+import traincraft.tile.BaseTile;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Replays a {@link PacketCapture} offline like a client: every record is decoded (packet codec and {@link RegistryPalette})
+ * and applied by the real handlers to stub entities and tiles, which live in a private client side world.
+ * The stubs are created from the recorded types on the server thread, but are never spawned.
+ * <p>
+ * At the end the SYNC state of every stub is written again and compared with the merged packets, every field which
+ * doesn't match is counted as mismatch. After every consist snapshot all listed cars have to be on the trail of their lead.
+ * The result contains the decode and apply time, the allocated bytes and a hash of the final states, so codec and
+ * sync changes can be compared with the same capture. The replayed packets are counted as received by the {@link NetworkStats}.
+ * Must not be used from the server thread, it waits for it.
+ *
+ * @see traincraft.command.CommandTraincraft
+ */
+public final class CaptureReplay {
+    
+    private static final long NANOS_PER_TICK = 50000000L;
+    
+    private final MinecraftServer server;
+    private final ReplayWorld world;
+    private final Map<Integer, EntityPacketData> expectedEntities = new HashMap<>();
+    private final Map<Long, NBTTagCompound> expectedTiles = new HashMap<>();
+    private final Map<Long, BaseTile> tiles = new HashMap<>();
+    private final Set<Integer> entitiesWithoutStub = new HashSet<>();
+    private final Result result = new Result();
+    
+    private CaptureReplay(MinecraftServer server){
+        this.server = server;
+        this.world = new ReplayWorld(server.getWorld(0));
+    }
+    
+    public static Result replay(@Nonnull MinecraftServer server, @Nonnull File file) throws IOException{
+        return new CaptureReplay(server).run(file);
+    }
+    
+    private Result run(File file) throws IOException{
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocations = threads instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()
+            ? (com.sun.management.ThreadMXBean) threads : null;
+        long threadId = Thread.currentThread().getId();
+        long startTime = this.world.getTotalWorldTime();
+        
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))){
+            if(in.readInt() != PacketCapture.MAGIC){
+                throw new IOException("Not a Traincraft packet capture");
+            }
+            int version = in.readInt();
+            if(version != PacketCapture.VERSION){
+                throw new IOException("Unsupported capture version " + version);
+            }
+            EnumMap<RegistryPalette.Channel, RegistryPalette> palettes = new EnumMap<>(RegistryPalette.Channel.class);
+            for(RegistryPalette.Channel channel : RegistryPalette.Channel.values()){
+                int count = in.readInt();
+                List<String> names = new ArrayList<>(Math.min(count, RegistryPalette.MAX_SIZE));
+                for(int i = 0; i < count; i++){
+                    names.add(in.readUTF());
+                }
+                palettes.put(channel, RegistryPalette.createDecoder(names));
+            }
+            
+            while(true){
+                int kind = in.read();
+                if(kind < 0){
+                    break;
+                }
+                this.result.duration = in.readLong();
+                this.world.getWorldInfo().setWorldTotalTime(startTime + this.result.duration / NANOS_PER_TICK); // the consist trails need a running time
+                if(kind == PacketCapture.ENTITY_PACKET){
+                    String type = in.readUTF();
+                    byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    long allocatedBefore = allocations != null ? allocations.getThreadAllocatedBytes(threadId) : 0L;
+                    long start = System.nanoTime();
+                    PacketTraincraftEntity packet = new PacketTraincraftEntity();
+                    packet.fromBytes(Unpooled.wrappedBuffer(bytes));
+                    if(packet.getData().hasExtra()){
+                        palettes.get(RegistryPalette.Channel.ENTITY).decodePayload(packet.getData().getExtra());
+                    }
+                    this.result.decodeNanos += System.nanoTime() - start;
+                    Entity entity = this.getStub(packet.getEntityId(), type); // created on the server thread, so not measured
+                    start = System.nanoTime();
+                    packet.handle(this.world, entity, null);
+                    this.result.applyNanos += System.nanoTime() - start;
+                    this.result.allocatedBytes += allocations != null ? allocations.getThreadAllocatedBytes(threadId) - allocatedBefore : 0L;
+                    this.result.entityPackets++;
+                    this.result.bytes += bytes.length;
+                    this.expect(packet);
+                    if(packet.getPacket() == TCEntityPackets.CONSIST){
+                        this.checkConsist(packet);
+                    }
+                } else if(kind == PacketCapture.TILE_UPDATE){
+                    long pos = in.readLong();
+                    String tileClass = in.readUTF();
+                    NBTTagCompound nbt = CompressedStreamTools.read(in);
+                    this.result.bytes += NetworkStats.sizeOf(nbt);
+                    BaseTile tile = this.tiles.containsKey(pos) ? this.tiles.get(pos) : this.createTile(pos, tileClass);
+                    long allocatedBefore = allocations != null ? allocations.getThreadAllocatedBytes(threadId) : 0L;
+                    long start = System.nanoTime();
+                    palettes.get(RegistryPalette.Channel.TILE).decodePayload(nbt);
+                    this.result.decodeNanos += System.nanoTime() - start;
+                    start = System.nanoTime();
+                    if(tile != null){
+                        tile.onDataPacket(null, new SPacketUpdateTileEntity(tile.getPos(), RegistryPalette.TILE_UPDATE_ACTION, nbt));
+                    }
+                    this.result.applyNanos += System.nanoTime() - start;
+                    this.result.allocatedBytes += allocations != null ? allocations.getThreadAllocatedBytes(threadId) - allocatedBefore : 0L;
+                    this.result.tileUpdates++;
+                    NBTTagCompound state = this.expectedTiles.get(pos);
+                    if(state == null){
+                        this.expectedTiles.put(pos, nbt);
+                    } else{
+                        NBTDelta.merge(state, nbt);
+                    }
+                } else{
+                    throw new IOException("Unknown record kind " + kind);
+                }
+            }
+        }
+        
+        this.result.allocationSupported = allocations != null;
+        this.result.entities = this.expectedEntities.size();
+        this.result.tiles = this.expectedTiles.size();
+        this.result.stubs = this.world.stubs + this.tiles.values().stream().filter(Objects::nonNull).count();
+        int hash = 0;
+        for(Map.Entry<Integer, EntityPacketData> entry : this.expectedEntities.entrySet()){
+            Entity entity = this.world.getEntityByID(entry.getKey());
+            NBTTagCompound expected = entry.getValue().toNBT();
+            hash += entry.getKey().hashCode() ^ this.check(expected, entity instanceof AbstractRollingStock<?> ? writeState((AbstractRollingStock<?>) entity) : null).hashCode();
+        }
+        for(Map.Entry<Long, NBTTagCompound> entry : this.expectedTiles.entrySet()){
+            BaseTile tile = this.tiles.get(entry.getKey());
+            hash += 31 * (entry.getKey().hashCode() ^ this.check(entry.getValue(), tile != null ? writeState(tile) : null).hashCode());
+        }
+        this.result.stateHash = hash;
+        return this.result;
+    }
+    
+    /**
+     * @return The stub with the id, which is created if it is the first packet for it. Null if the type isn't known
+     */
+    @Nullable
+    private Entity getStub(int entityId, String type){
+        Entity entity = this.world.getEntityByID(entityId);
+        if(entity != null || this.entitiesWithoutStub.contains(entityId)){
+            return entity;
+        }
+        EntityEntry entry = type.isEmpty() ? null : ForgeRegistries.ENTITIES.getValue(new ResourceLocation(type));
+        if(entry == null){
+            this.entitiesWithoutStub.add(entityId);
+            return null;
+        }
+        try{
+            entity = this.server.callFromMainThread(() -> entry.newInstance(this.world)).get(); // the entity ids are counted without synchronization
+        } catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the server thread", e);
+        } catch(ExecutionException e){
+            throw new IllegalStateException("Can't create a stub of " + type, e.getCause());
+        }
+        entity.setEntityId(entityId);
+        this.world.addStub(entity);
+        return entity;
+    }
+    
+    @Nullable
+    private BaseTile createTile(long pos, String tileClass){
+        BaseTile tile = null;
+        try{
+            Class<?> type = Class.forName(tileClass);
+            if(BaseTile.class.isAssignableFrom(type)){
+                tile = (BaseTile) type.newInstance();
+                tile.setWorld(this.world);
+                tile.setPos(BlockPos.fromLong(pos));
+            }
+        } catch(ReflectiveOperationException | LinkageError e){
+            tile = null; // a tile of an other version, only the packets are checked
+        }
+        this.tiles.put(pos, tile);
+        return tile;
+    }
+    
+    /**
+     * Keeps the state the server has sent: a STATE packet replaces it, sync and consist packets are merged into it.
+     */
+    private void expect(PacketTraincraftEntity packet){
+        switch(packet.getPacket()){
+            case STATE:
+                this.expectedEntities.put(packet.getEntityId(), packet.getData());
+                break;
+            case SYNC:
+                this.expectedEntities.computeIfAbsent(packet.getEntityId(), id -> new EntityPacketData()).mergeFrom(packet.getData());
+                break;
+            default:
+                break; // no sync state
+        }
+    }
+    
+    /**
+     * Every listed car which has a stub has to be on the trail of the lead now.
+     */
+    private void checkConsist(PacketTraincraftEntity packet){
+        for(int encodedId : packet.getData().getIntArray(EntityField.CONSIST_CARS)){
+            Entity car = this.world.getEntityByID(packet.getEntityId() + encodedId);
+            if(car instanceof AbstractRollingStock<?> && Consist.getLeadId((AbstractRollingStock<?>) car) != packet.getEntityId()){
+                this.result.mismatches++;
+            }
+        }
+    }
+    
+    /**
+     * Counts a mismatch, if a field of the expected state has a different value in the actual state.
+     *
+     * @param actual The state written by the stub, null without a stub
+     * @return The actual state, or the expected one without a stub
+     */
+    private NBTTagCompound check(NBTTagCompound expected, @Nullable NBTTagCompound actual){
+        if(actual == null){
+            return expected;
+        }
+        NBTTagCompound merged = actual.copy();
+        NBTDelta.apply(merged, expected);
+        if(!merged.equals(actual)){
+            this.result.mismatches++;
+        }
+        return actual;
+    }
+    
+    /**
+     * The SYNC state like the client would receive it, with the precision of the packet codec.
+     */
+    private static NBTTagCompound writeState(AbstractRollingStock<?> rollingStock){
+        NBTTagCompound nbt = new NBTTagCompound();
+        rollingStock.writeToNBT(rollingStock, nbt, BaseTile.NBTState.SYNC);
+        ByteBuf buf = Unpooled.buffer();
+        EntityPacketData.fromNBT(nbt).write(buf);
+        return EntityPacketData.read(buf).toNBT();
+    }
+    
+    private static NBTTagCompound writeState(BaseTile tile){
+        NBTTagCompound nbt = new NBTTagCompound();
+        tile.writeNBT(nbt, BaseTile.NBTState.SYNC);
+        return nbt;
+    }
+    
+    /**
+     * A client side world without chunks, which only knows the stubs.
+     */
+    private static class ReplayWorld extends World {
+        
+        private int stubs;
+        
+        private ReplayWorld(World template){
+            super(template.getSaveHandler(), new WorldInfo(template.getWorldInfo()), DimensionManager.createProviderFor(template.provider.getDimension()), new Profiler(), true);
+            this.provider.setWorld(this);
+        }
+        
+        private void addStub(Entity entity){
+            this.entitiesById.addKey(entity.getEntityId(), entity);
+            this.stubs++;
+        }
+        
+        @Nonnull
+        @Override
+        protected IChunkProvider createChunkProvider(){
+            throw new UnsupportedOperationException("The replay world has no chunks");
+        }
+        
+        @Override
+        protected boolean isChunkLoaded(int x, int z, boolean allowEmpty){
+            return false;
+        }
+    }
+    
+    public static class Result {
+        
+        private long duration, decodeNanos, applyNanos, allocatedBytes, bytes, stubs;
+        private int entityPackets, tileUpdates, entities, tiles, stateHash, mismatches;
+        private boolean allocationSupported;
+        
+        public List<String> toLines(){
+            int records = this.entityPackets + this.tileUpdates;
+            List<String> lines = new ArrayList<>();
+            lines.add(String.format("%d entity packets and %d tile updates, %d bytes over %.1f s", this.entityPackets, this.tileUpdates, this.bytes, this.duration / 1.0E9D));
+            lines.add(String.format("Decoding: %.3f ms, %.0f ns per record", this.decodeNanos / 1.0E6D, records > 0 ? (double) this.decodeNanos / records : 0.0D));
+            lines.add(String.format("Applying: %.3f ms, %.0f ns per record", this.applyNanos / 1.0E6D, records > 0 ? (double) this.applyNanos / records : 0.0D));
+            lines.add(this.allocationSupported ? String.format("Allocated: %d bytes, %.0f per record", this.allocatedBytes, records > 0 ? (double) this.allocatedBytes / records : 0.0D) : "Allocated: not supported by this jvm");
+            lines.add(String.format("Final state: %d entities, %d tiles, hash %08x, %d stubs", this.entities, this.tiles, this.stateHash, this.stubs));
+            lines.add(String.format("Mismatches between the sent and the applied state: %d", this.mismatches));
+            return lines;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Traincraft
+ * Copyright (c) 2011-2020.
+ *
+ * This file ("EntityField.java") is part of the Traincraft mod for Minecraft.
+ * It is created by all people that are listed with @author below.
+ * It is distributed under LGPL-v3.0.
+ * You can find the source code at https://github.com/Traincraft/Traincraft
+ */
+
+package traincraft.network;
+
+import net.minecraftforge.common.util.Constants;
+
+import javax.annotation.Nullable;
+
+/**
+ * The schema of the rolling stock packets. Every known NBT key is sent as its numeric id with a compact encoding,
+ * instead of the key string and the full NBT value.
+ * The ids are part of the protocol: never reorder or reuse them, only append new fields.
+ *
+ * @see EntityPacketData
+ */
+public enum EntityField {
+    
+    RESTRICTION(1, "restriction", Type.VAR_INT),
+    ACTIVE_SKIN(2, "active_skin", Type.VAR_INT),
+    TRAVEL_DISTANCE(3, "travel_distance", Type.fixed(16.0D)), // 1/16 m
+    SPEED(4, "speed", Type.fixed(256.0D)), // 1/256 m/s
+    NAME(5, "name", Type.STRING),
+    OWNER_MOST(6, "ownerMost", Type.LONG),
+    OWNER_LEAST(7, "ownerLeast", Type.LONG),
+    BURN_TIME(8, "burn_time", Type.VAR_INT), // only synced through the container since the burn progress is gui only
+    MAX_BURN_TIME(9, "max_burn_time", Type.VAR_INT),
+    TEMPERATURE(10, "boiler_temperature", Type.fixed(10.0D)), // 0.1 K
+    PRESSED_KEYS(11, "pressed_keys", Type.VAR_INT_ARRAY), // replaced by INPUT_STATE
+    GUI_OPEN(12, "gui_open", Type.BOOLEAN),
+    POS_X(13, "pos_x", Type.fixed(32.0D)), // 1/32 block, like vanilla
+    POS_Y(14, "pos_y", Type.fixed(32.0D)),
+    POS_Z(15, "pos_z", Type.fixed(32.0D)),
+    INPUT_STATE(16, "input_state", Type.VAR_INT), // bitmask of EnumKeyEvent#getMask
+    CLIENT_TICK(17, "client_tick", Type.VAR_INT),
+    VELOCITY_X(18, "velocity_x", Type.fixed(256.0D)), // 1/256 m/s
+    VELOCITY_Y(19, "velocity_y", Type.fixed(256.0D)),
+    VELOCITY_Z(20, "velocity_z", Type.fixed(256.0D)),
+    CONSIST_CARS(21, "consist_cars", Type.VAR_INT_ARRAY), // entity id differences to the lead
+    CONSIST_OFFSETS(22, "consist_offsets", Type.VAR_INT_ARRAY), // 1/16 m behind the lead
+    SNAPSHOT_TICK(23, "snapshot_tick", Type.VAR_INT); // the lower 16 bits of the world time
+    
+    /**
+     * Id 0 marks the end of the known fields. All remaining NBT follows as a single compound.
+     */
+    public static final int END = 0;
+    
+    private static final EntityField[] BY_ID;
+    
+    static{
+        int maxId = 0;
+        for(EntityField field : values()){
+            maxId = Math.max(maxId, field.id);
+        }
+        BY_ID = new EntityField[maxId + 1];
+        for(EntityField field : values()){
+            BY_ID[field.id] = field;
+        }
+    }
+    
+    private final int id;
+    private final String key;
+    private final Type type;
+    
+    EntityField(int id, String key, Type type){
+        this.id = id;
+        this.key = key;
+        this.type = type;
+    }
+    
+    public int getId(){
+        return this.id;
+    }
+    
+    public String getKey(){
+        return this.key;
+    }
+    
+    public Type getType(){
+        return this.type;
+    }
+    
+    @Nullable
+    public static EntityField byId(int id){
+        return id > 0 && id < BY_ID.length ? BY_ID[id] : null;
+    }
+    
+    @Nullable
+    public static EntityField byKey(String key){
+        for(EntityField field : values()){
+            if(field.key.equals(key)){
+                return field;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * The encoding of a field, defined by the NBT type it is written with and the scale for fixed point values.
+     *
+     * @see EntityPacketData
+     */
+    public static class Type {
+        
+        public static final Type VAR_INT = new Type(Constants.NBT.TAG_INT, 0.0D);
+        public static final Type LONG = new Type(Constants.NBT.TAG_LONG, 0.0D);
+        public static final Type BOOLEAN = new Type(Constants.NBT.TAG_BYTE, 0.0D);
+        public static final Type STRING = new Type(Constants.NBT.TAG_STRING, 0.0D);
+        public static final Type VAR_INT_ARRAY = new Type(Constants.NBT.TAG_INT_ARRAY, 0.0D);
+        
+        private final int nbtType;
+        private final double scale;
+        
+        private Type(int nbtType, double scale){
+            this.nbtType = nbtType;
+            this.scale = scale;
+        }
+        
+        public static Type fixed(double scale){
+            return new Type(Constants.NBT.TAG_DOUBLE, scale);
+        }
+        
+        public int getNBTType(){
+            return this.nbtType;
+        }
+        
+        public double getScale(){
+            return this.scale;
+        }
+    }
+}
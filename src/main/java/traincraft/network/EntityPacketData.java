@@ -0,0 +1,300 @@
+/*
+ * Traincraft
+ * Copyright (c) 2011-2020.
+ *
+ * This file ("EntityPacketData.java") is part of the Traincraft mod for Minecraft.
+ * It is created by all people that are listed with @author below.
+ * It is distributed under LGPL-v3.0.
+ * You can find the source code at https://github.com/Traincraft/Traincraft
+ */
+
+package traincraft.network;
+
+import io.netty.buffer.ByteBuf;
+import net.minecraft.nbt.*;
+import net.minecraftforge.common.util.Constants;
+import net.minecraftforge.fml.common.network.ByteBufUtils;
+
+import javax.annotation.Nonnull;
+import java.util.UUID;
+
+/**
+ * The content of a {@link PacketTraincraftEntity}, encoded with the {@link EntityField} schema.
+ * Known fields are kept as primitive values and read by the packet handlers directly.
+ * Everything without a schema entry (e.g. inventories) stays NBT and is sent as one compound behind the known fields.
+ */
+public final class EntityPacketData {
+    
+    private static final EntityField[] FIELDS = EntityField.values();
+    
+    private long present = 0L;
+    private final long[] longs = new long[FIELDS.length];
+    private final double[] doubles = new double[FIELDS.length];
+    private final Object[] objects = new Object[FIELDS.length];
+    private NBTTagCompound extra;
+    
+    public EntityPacketData(){
+    }
+    
+    public static EntityPacketData fromNBT(@Nonnull NBTTagCompound nbt){
+        EntityPacketData data = new EntityPacketData();
+        for(String key : nbt.getKeySet()){
+            NBTBase tag = nbt.getTag(key);
+            EntityField field = EntityField.byKey(key);
+            if(field != null && field.getType().getNBTType() == tag.getId()){
+                switch(tag.getId()){
+                    case Constants.NBT.TAG_INT:
+                    case Constants.NBT.TAG_LONG:
+                    case Constants.NBT.TAG_BYTE:
+                        data.setLong(field, ((NBTPrimitive) tag).getLong());
+                        break;
+                    case Constants.NBT.TAG_DOUBLE:
+                        data.setDouble(field, ((NBTPrimitive) tag).getDouble());
+                        break;
+                    case Constants.NBT.TAG_STRING:
+                        data.setObject(field, ((NBTTagString) tag).getString());
+                        break;
+                    default:
+                        data.setObject(field, ((NBTTagIntArray) tag).getIntArray());
+                }
+            } else{
+                data.getExtra().setTag(key, tag);
+            }
+        }
+        return data;
+    }
+    
+    /**
+     * @return A NBT representation of this data, only for code which can't work with the fields directly
+     */
+    public NBTTagCompound toNBT(){
+        NBTTagCompound nbt = this.extra != null ? this.extra.copy() : new NBTTagCompound();
+        for(EntityField field : FIELDS){
+            if(this.has(field)){
+                switch(field.getType().getNBTType()){
+                    case Constants.NBT.TAG_INT:
+                        nbt.setInteger(field.getKey(), this.getInt(field));
+                        break;
+                    case Constants.NBT.TAG_LONG:
+                        nbt.setLong(field.getKey(), this.getLong(field));
+                        break;
+                    case Constants.NBT.TAG_BYTE:
+                        nbt.setBoolean(field.getKey(), this.getBoolean(field));
+                        break;
+                    case Constants.NBT.TAG_DOUBLE:
+                        nbt.setDouble(field.getKey(), this.getDouble(field));
+                        break;
+                    case Constants.NBT.TAG_STRING:
+                        nbt.setString(field.getKey(), this.getString(field));
+                        break;
+                    default:
+                        nbt.setIntArray(field.getKey(), this.getIntArray(field));
+                }
+            }
+        }
+        return nbt;
+    }
+    
+    public void write(ByteBuf buf){
+        for(EntityField field : FIELDS){
+            if(this.has(field)){
+                PacketCodec.writeVarInt(buf, field.getId());
+                int index = field.ordinal();
+                switch(field.getType().getNBTType()){
+                    case Constants.NBT.TAG_INT:
+                        PacketCodec.writeSignedVarLong(buf, this.longs[index]);
+                        break;
+                    case Constants.NBT.TAG_LONG:
+                        buf.writeLong(this.longs[index]);
+                        break;
+                    case Constants.NBT.TAG_BYTE:
+                        buf.writeBoolean(this.longs[index] != 0L);
+                        break;
+                    case Constants.NBT.TAG_DOUBLE:
+                        PacketCodec.writeFixed(buf, this.doubles[index], field.getType().getScale());
+                        break;
+                    case Constants.NBT.TAG_STRING:
+                        ByteBufUtils.writeUTF8String(buf, (String) this.objects[index]);
+                        break;
+                    default:{
+                        int[] array = (int[]) this.objects[index];
+                        PacketCodec.writeVarInt(buf, array.length);
+                        for(int i : array){
+                            PacketCodec.writeSignedVarLong(buf, i);
+                        }
+                    }
+                }
+            }
+        }
+        PacketCodec.writeVarInt(buf, EntityField.END);
+        buf.writeBoolean(this.hasExtra());
+        if(this.hasExtra()){
+            ByteBufUtils.writeTag(buf, this.extra);
+        }
+    }
+    
+    public static EntityPacketData read(ByteBuf buf){
+        EntityPacketData data = new EntityPacketData();
+        for(int id = PacketCodec.readVarInt(buf); id != EntityField.END; id = PacketCodec.readVarInt(buf)){
+            EntityField field = EntityField.byId(id);
+            if(field == null){
+                throw new IllegalArgumentException("Unknown entity field id " + id);
+            }
+            switch(field.getType().getNBTType()){
+                case Constants.NBT.TAG_INT:
+                    data.setLong(field, PacketCodec.readSignedVarLong(buf));
+                    break;
+                case Constants.NBT.TAG_LONG:
+                    data.setLong(field, buf.readLong());
+                    break;
+                case Constants.NBT.TAG_BYTE:
+                    data.setLong(field, buf.readBoolean() ? 1L : 0L);
+                    break;
+                case Constants.NBT.TAG_DOUBLE:
+                    data.setDouble(field, PacketCodec.readFixed(buf, field.getType().getScale()));
+                    break;
+                case Constants.NBT.TAG_STRING:
+                    data.setObject(field, ByteBufUtils.readUTF8String(buf));
+                    break;
+                default:{
+                    int length = PacketCodec.readVarInt(buf);
+                    if(length < 0 || length > buf.readableBytes()){
+                        throw new IllegalArgumentException("Invalid array length " + length);
+                    }
+                    int[] array = new int[length];
+                    for(int i = 0; i < length; i++){
+                        array[i] = (int) PacketCodec.readSignedVarLong(buf);
+                    }
+                    data.setObject(field, array);
+                }
+            }
+        }
+        if(buf.readBoolean()){
+            data.extra = ByteBufUtils.readTag(buf);
+        }
+        return data;
+    }
+    
+    /**
+     * Merges newer data for the same entity into this one. Newer values replace older ones.
+     *
+     * @param newer The newer data
+     * @see NBTDelta#merge(NBTTagCompound, NBTTagCompound)
+     */
+    public void mergeFrom(@Nonnull EntityPacketData newer){
+        for(EntityField field : FIELDS){
+            if(newer.has(field)){
+                int index = field.ordinal();
+                this.longs[index] = newer.longs[index];
+                this.doubles[index] = newer.doubles[index];
+                this.objects[index] = newer.objects[index];
+            }
+        }
+        this.present |= newer.present;
+        if(newer.hasExtra()){
+            NBTDelta.merge(this.getExtra(), newer.extra);
+            for(String key : NBTDelta.getRemovedKeys(newer.extra)){
+                EntityField field = EntityField.byKey(key);
+                if(field != null){
+                    this.present &= ~(1L << field.ordinal()); // removed from the state, see NBTDelta
+                }
+            }
+        }
+    }
+    
+    public boolean has(EntityField field){
+        return (this.present & (1L << field.ordinal())) != 0L;
+    }
+    
+    public int getInt(EntityField field){
+        return (int) this.longs[field.ordinal()];
+    }
+    
+    public long getLong(EntityField field){
+        return this.longs[field.ordinal()];
+    }
+    
+    public boolean getBoolean(EntityField field){
+        return this.longs[field.ordinal()] != 0L;
+    }
+    
+    public double getDouble(EntityField field){
+        return this.doubles[field.ordinal()];
+    }
+    
+    public String getString(EntityField field){
+        return this.has(field) ? (String) this.objects[field.ordinal()] : "";
+    }
+    
+    public int[] getIntArray(EntityField field){
+        return this.has(field) ? (int[]) this.objects[field.ordinal()] : new int[0];
+    }
+    
+    /**
+     * @return The uuid from the most and least significant bits fields, or null if one of them is missing
+     */
+    public UUID getUniqueId(EntityField most, EntityField least){
+        return this.has(most) && this.has(least) ? new UUID(this.getLong(most), this.getLong(least)) : null;
+    }
+    
+    /**
+     * @return All data without a schema entry. Never null
+     */
+    public NBTTagCompound getExtra(){
+        if(this.extra == null){
+            this.extra = new NBTTagCompound();
+        }
+        return this.extra;
+    }
+    
+    /**
+     * @return A copy of this data with another extra compound. The field values are shared, they are never changed after sending
+     */
+    public EntityPacketData withExtra(@Nonnull NBTTagCompound extra){
+        EntityPacketData copy = new EntityPacketData();
+        copy.present = this.present;
+        System.arraycopy(this.longs, 0, copy.longs, 0, FIELDS.length);
+        System.arraycopy(this.doubles, 0, copy.doubles, 0, FIELDS.length);
+        System.arraycopy(this.objects, 0, copy.objects, 0, FIELDS.length);
+        copy.extra = extra;
+        return copy;
+    }
+    
+    public boolean hasExtra(){
+        return this.extra != null && !this.extra.getKeySet().isEmpty();
+    }
+    
+    public EntityPacketData setInt(EntityField field, int value){
+        return this.setLong(field, value);
+    }
+    
+    public EntityPacketData setBoolean(EntityField field, boolean value){
+        return this.setLong(field, value ? 1L : 0L);
+    }
+    
+    public EntityPacketData setLong(EntityField field, long value){
+        this.longs[field.ordinal()] = value;
+        this.present |= 1L << field.ordinal();
+        return this;
+    }
+    
+    public EntityPacketData setDouble(EntityField field, double value){
+        this.doubles[field.ordinal()] = value;
+        this.present |= 1L << field.ordinal();
+        return this;
+    }
+    
+    public EntityPacketData setString(EntityField field, String value){
+        return this.setObject(field, value);
+    }
+    
+    public EntityPacketData setIntArray(EntityField field, int[] value){
+        return this.setObject(field, value);
+    }
+    
+    private EntityPacketData setObject(EntityField field, Object value){
+        this.objects[field.ordinal()] = value;
+        this.present |= 1L << field.ordinal();
+        return this;
+    }
+}
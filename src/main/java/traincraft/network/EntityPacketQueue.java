@@ -0,0 +1,139 @@
+/*
+ * Traincraft
+ * Copyright (c) 2011-2020.
+ *
+ * This file ("EntityPacketQueue.java") is part of the Traincraft mod for Minecraft.
+ * It is created by all people that are listed with @author below.
+ * It is distributed under LGPL-v3.0.
+ * You can find the source code at https://github.com/Traincraft/Traincraft
+ */
+
+package traincraft.network;
+
+import net.minecraft.entity.player.EntityPlayerMP;
+import traincraft.Traincraft;
+
+import javax.annotation.Nonnull;
+import java.util.*;
+
+/**
+ * Collects all client bound entity packets per player and sends them as one {@link PacketTraincraftEntityBatch}
+ * at the end of the tick.
+ * Syncs and consist snapshots are held back according to the {@link UpdateTier} of the player, multiple ones of the same
+ * entity are merged into one while they wait. All other packets are sent at the end of the current tick.
+ * Must only be used from the server thread.
+ */
+public class EntityPacketQueue {
+    
+    private static final Map<EntityPlayerMP, PlayerQueue> QUEUES = new LinkedHashMap<>();
+    private static long tick = 0L;
+    
+    public static void enqueue(@Nonnull EntityPlayerMP player, @Nonnull PacketTraincraftEntity packet, @Nonnull UpdateTier tier){
+        NetworkStats.recordTierPacket(tier, false);
+        long due = tick;
+        if(packet.getPacket().isMergeable()){
+            // the entity id spreads the updates of different entities over the interval
+            int interval = tier.getInterval();
+            due += (interval - ((tick + packet.getEntityId()) % interval)) % interval;
+        }
+        QUEUES.computeIfAbsent(player, p -> new PlayerQueue()).add(packet, tier, due);
+    }
+    
+    /**
+     * Drops all waiting packets of an entity for a player. Used when the player starts tracking the entity,
+     * since the STATE packet from the {@link InitialStateQueue} contains everything the waiting syncs would deliver.
+     */
+    public static void discard(@Nonnull EntityPlayerMP player, int entityId){
+        PlayerQueue queue = QUEUES.get(player);
+        if(queue != null){
+            queue.discard(entityId);
+        }
+    }
+    
+    /**
+     * Sends all packets which are due. Called once at the end of every server tick from {@link traincraft.event.TCEvents}.
+     */
+    public static void flush(){
+        Iterator<Map.Entry<EntityPlayerMP, PlayerQueue>> iterator = QUEUES.entrySet().iterator();
+        while(iterator.hasNext()){
+            Map.Entry<EntityPlayerMP, PlayerQueue> entry = iterator.next();
+            EntityPlayerMP player = entry.getKey();
+            if(player.hasDisconnected() || player.isDead){
+                iterator.remove();
+                continue;
+            }
+            List<PacketTraincraftEntity> packets = entry.getValue().poll(tick);
+            packets.replaceAll(packet -> packet.encodeFor(player)); // in the order of sending, see RegistryPalette
+            packets.forEach(packet -> PacketCapture.recordEntityPacket(player, packet));
+            if(packets.size() == 1){
+                Traincraft.TC_NETWORK.sendTo(packets.get(0), player);
+            } else if(!packets.isEmpty()){
+                Traincraft.TC_NETWORK.sendTo(new PacketTraincraftEntityBatch(packets), player);
+            }
+            if(entry.getValue().isEmpty()){
+                iterator.remove();
+            }
+        }
+        tick++;
+    }
+    
+    private static class PlayerQueue {
+        
+        private final List<QueuedPacket> packets = new ArrayList<>();
+        private final Map<Integer, QueuedPacket> lastPerEntity = new HashMap<>();
+        
+        private void add(PacketTraincraftEntity packet, UpdateTier tier, long due){
+            QueuedPacket last = this.lastPerEntity.get(packet.getEntityId());
+            if(last != null){
+                if(last.packet.getPacket() == packet.getPacket() && packet.getPacket().isMergeable()){
+                    last.packet = last.packet.merge(packet);
+                    last.due = Math.min(last.due, due);
+                    last.tier = tier;
+                    return;
+                }
+                // keep the order of the packets of an entity
+                last.due = Math.min(last.due, due);
+            }
+            QueuedPacket queued = new QueuedPacket(packet, tier, due);
+            this.packets.add(queued);
+            this.lastPerEntity.put(packet.getEntityId(), queued);
+        }
+        
+        private List<PacketTraincraftEntity> poll(long now){
+            List<PacketTraincraftEntity> due = new ArrayList<>();
+            Iterator<QueuedPacket> iterator = this.packets.iterator();
+            while(iterator.hasNext()){
+                QueuedPacket queued = iterator.next();
+                if(queued.due <= now){
+                    iterator.remove();
+                    this.lastPerEntity.remove(queued.packet.getEntityId(), queued);
+                    NetworkStats.recordTierPacket(queued.tier, true);
+                    due.add(queued.packet);
+                }
+            }
+            return due;
+        }
+        
+        private void discard(int entityId){
+            this.packets.removeIf(queued -> queued.packet.getEntityId() == entityId);
+            this.lastPerEntity.remove(entityId);
+        }
+        
+        private boolean isEmpty(){
+            return this.packets.isEmpty();
+        }
+    }
+    
+    private static class QueuedPacket {
+        
+        private PacketTraincraftEntity packet;
+        private UpdateTier tier;
+        private long due;
+        
+        private QueuedPacket(PacketTraincraftEntity packet, UpdateTier tier, long due){
+            this.packet = packet;
+            this.tier = tier;
+            this.due = due;
+        }
+    }
+}
@@ -10,6 +10,9 @@
 
 package traincraft.network;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public enum EnumKeyEvent {
     
     NONE,
@@ -19,6 +22,33 @@ public enum EnumKeyEvent {
     RIGHT,
     UP,
     DOWN,
-    HORN
+    HORN;
+    
+    private static final EnumKeyEvent[] VALUES = values();
+    
+    /**
+     * @return The bit of this key in an input state bitmask. {@link #NONE} has no bit
+     */
+    public int getMask(){
+        return this == NONE ? 0 : 1 << (this.ordinal() - 1);
+    }
+    
+    public boolean isPressed(int inputState){
+        return (inputState & this.getMask()) != 0;
+    }
+    
+    /**
+     * @param inputState The bitmask of all pressed keys
+     * @return The pressed keys, in ordinal order
+     */
+    public static List<EnumKeyEvent> getPressed(int inputState){
+        List<EnumKeyEvent> pressed = new ArrayList<>();
+        for(EnumKeyEvent key : VALUES){
+            if(key.isPressed(inputState)){
+                pressed.add(key);
+            }
+        }
+        return pressed;
+    }
     
 }
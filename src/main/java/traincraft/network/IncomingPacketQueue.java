@@ -0,0 +1,187 @@
+/*
+ * Traincraft
+ * Copyright (c) 2011-2020.
+ *
+ * This file ("IncomingPacketQueue.java") is part of the Traincraft mod for Minecraft.
+ * It is created by all people that are listed with @author below.
+ * It is distributed under LGPL-v3.0.
+ * You can find the source code at https://github.com/Traincraft/Traincraft
+ */
+
+package traincraft.network;
+
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.network.NetHandlerPlayServer;
+import net.minecraft.world.World;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+import net.minecraftforge.fml.relauncher.Side;
+import traincraft.Traincraft;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands the received {@link PacketTraincraftEntity}s from the network threads over to the main thread of their side.
+ * The network threads only add to a lock-free queue per sender, instead of scheduling a task for every single packet.
+ * A player can only have {@link #MAX_QUEUED_PER_PLAYER} packets waiting, everything above is dropped.
+ * <p>
+ * The main thread drains the queues once per tick, one packet per sender in turn, so a single player can't use up
+ * the budget of the tick. The packets are dispatched grouped by entity, so every entity is looked up only once per tick.
+ * The packets of one sender for one entity keep their order, but the grouping reorders packets for different entities:
+ * all packets of an entity are handled before the ones of the next entity.
+ */
+public final class IncomingPacketQueue {
+    
+    /**
+     * At most this many packets are handled per tick and side, the rest waits for the next tick.
+     */
+    public static final int MAX_PACKETS_PER_TICK = 4096;
+    
+    /**
+     * At most this many packets of a single player wait for the server thread.
+     */
+    public static final int MAX_QUEUED_PER_PLAYER = 1024;
+    
+    private static final Object NO_SENDER = new Object(); // the server on the client side
+    private static final Map<Side, Map<Object, SenderQueue>> QUEUES = new EnumMap<>(Side.class);
+    
+    static{
+        for(Side side : Side.values()){
+            QUEUES.put(side, new ConcurrentHashMap<>());
+        }
+    }
+    
+    private IncomingPacketQueue(){
+    }
+    
+    /**
+     * Called from any thread.
+     *
+     * @param side   The receiving side
+     * @param sender The sending player on the server side, null on the client side
+     */
+    static void offer(@Nonnull Side side, @Nullable EntityPlayerMP sender, @Nonnull PacketTraincraftEntity packet){
+        Object key = sender != null ? sender.connection : NO_SENDER; // the player object changes with a respawn, the connection stays
+        QUEUES.get(side).computeIfAbsent(key, k -> new SenderQueue(sender != null ? sender.connection : null)).offer(new Entry(sender, packet));
+    }
+    
+    /**
+     * Main thread: Handles all received packets of this side. Called once at the start of every tick from {@link traincraft.event.TCEvents}.
+     */
+    public static void drain(@Nonnull Side side){
+        drain(side, IncomingPacketQueue::dispatch);
+    }
+    
+    /**
+     * @param dispatcher Handles the packets of one entity, called once per entity
+     */
+    static void drain(@Nonnull Side side, @Nonnull Dispatcher dispatcher){
+        Map<Object, SenderQueue> queues = QUEUES.get(side);
+        queues.values().removeIf(SenderQueue::isClosed);
+        List<SenderQueue> waiting = new ArrayList<>(queues.values());
+        Map<Integer, List<Entry>> byEntity = new LinkedHashMap<>();
+        int count = 0;
+        while(count < MAX_PACKETS_PER_TICK && !waiting.isEmpty()){
+            Iterator<SenderQueue> iterator = waiting.iterator();
+            while(iterator.hasNext() && count < MAX_PACKETS_PER_TICK){
+                Entry entry = iterator.next().poll();
+                if(entry == null){
+                    iterator.remove();
+                } else{
+                    byEntity.computeIfAbsent(entry.packet.getEntityId(), id -> new ArrayList<>(2)).add(entry);
+                    count++;
+                }
+            }
+        }
+        for(Map.Entry<Integer, List<Entry>> group : byEntity.entrySet()){
+            dispatcher.dispatch(side, group.getKey(), group.getValue());
+        }
+    }
+    
+    /**
+     * Drops everything which is still waiting, e.g. when the client leaves its world.
+     */
+    public static void clear(@Nonnull Side side){
+        QUEUES.get(side).clear();
+    }
+    
+    private static void dispatch(Side side, int entityId, List<Entry> entries){
+        World world = null;
+        Entity entity = null;
+        for(Entry entry : entries){
+            World entryWorld = PacketTraincraftEntity.getWorld(side, entry.sender);
+            if(entryWorld == null){
+                continue;
+            }
+            if(entryWorld != world){ // entity ids are unique over all dimensions, but the senders can be in different ones
+                world = entryWorld;
+                entity = world.getEntityByID(entityId);
+            }
+            IMessage answer = entry.packet.handle(world, entity, entry.sender);
+            if(answer != null){
+                if(side.isServer()){
+                    Traincraft.TC_NETWORK.sendTo(answer, entry.sender);
+                } else{
+                    Traincraft.TC_NETWORK.sendToServer(answer);
+                }
+            }
+        }
+    }
+    
+    @FunctionalInterface
+    interface Dispatcher {
+        
+        /**
+         * @param entries The received packets for the entity, in the order every sender has sent them
+         */
+        void dispatch(Side side, int entityId, List<Entry> entries);
+    }
+    
+    private static final class SenderQueue {
+        
+        private final Queue<Entry> entries = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final NetHandlerPlayServer connection; // null if the sender isn't a player
+        
+        private SenderQueue(@Nullable NetHandlerPlayServer connection){
+            this.connection = connection;
+        }
+        
+        private void offer(Entry entry){
+            if(this.size.incrementAndGet() > MAX_QUEUED_PER_PLAYER && this.connection != null){
+                this.size.decrementAndGet(); // dropped
+                return;
+            }
+            this.entries.offer(entry);
+        }
+        
+        @Nullable
+        private Entry poll(){
+            Entry entry = this.entries.poll();
+            if(entry != null){
+                this.size.decrementAndGet();
+            }
+            return entry;
+        }
+        
+        private boolean isClosed(){
+            return this.connection != null && !this.connection.getNetworkManager().isChannelOpen();
+        }
+    }
+    
+    static final class Entry {
+        
+        final EntityPlayerMP sender;
+        final PacketTraincraftEntity packet;
+        
+        private Entry(EntityPlayerMP sender, PacketTraincraftEntity packet){
+            this.sender = sender;
+            this.packet = packet;
+        }
+    }
+}
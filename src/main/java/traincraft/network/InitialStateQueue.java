@@ -0,0 +1,91 @@
+/*
+ * Traincraft
+ * Copyright (c) 2011-2020.
+ *
+ * This file ("InitialStateQueue.java") is part of the Traincraft mod for Minecraft.
+ * It is created by all people that are listed with @author below.
+ * It is distributed under LGPL-v3.0.
+ * You can find the source code at https://github.com/Traincraft/Traincraft
+ */
+
+package traincraft.network;
+
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.nbt.NBTTagCompound;
+import traincraft.api.AbstractRollingStock;
+import traincraft.api.ConfigHandler;
+
+import javax.annotation.Nonnull;
+import java.util.*;
+
+/**
+ * Sends the complete state of rolling stock to players which have just started tracking it, spread over multiple ticks.
+ * The spawn packet itself contains no state, so a player teleporting into a yard with hundreds of cars doesn't get all
+ * inventories, tanks and so on in the same tick. Every tick a player gets states up to
+ * {@link ConfigHandler#NETWORK_INITIAL_STATE_BUDGET} bytes, the cars the player is riding first, then the ones with
+ * passengers and then the nearest ones. Until then the clients render a placeholder.
+ * Must only be used from the server thread.
+ */
+public final class InitialStateQueue {
+    
+    private static final Map<EntityPlayerMP, List<AbstractRollingStock<?>>> PENDING = new LinkedHashMap<>();
+    
+    private InitialStateQueue(){
+    }
+    
+    public static void enqueue(@Nonnull EntityPlayerMP player, @Nonnull AbstractRollingStock<?> rollingStock){
+        List<AbstractRollingStock<?>> pending = PENDING.computeIfAbsent(player, p -> new ArrayList<>());
+        if(!pending.contains(rollingStock)){
+            pending.add(rollingStock);
+        }
+    }
+    
+    public static void discard(@Nonnull EntityPlayerMP player, @Nonnull AbstractRollingStock<?> rollingStock){
+        List<AbstractRollingStock<?>> pending = PENDING.get(player);
+        if(pending != null){
+            pending.remove(rollingStock);
+        }
+    }
+    
+    /**
+     * Queues the states which fit into the budget of every player into the {@link EntityPacketQueue}.
+     * Called once at the end of every server tick from {@link traincraft.event.TCEvents}, before the queue is flushed.
+     */
+    public static void flush(){
+        Iterator<Map.Entry<EntityPlayerMP, List<AbstractRollingStock<?>>>> iterator = PENDING.entrySet().iterator();
+        while(iterator.hasNext()){
+            Map.Entry<EntityPlayerMP, List<AbstractRollingStock<?>>> entry = iterator.next();
+            EntityPlayerMP player = entry.getKey();
+            List<AbstractRollingStock<?>> pending = entry.getValue();
+            if(player.hasDisconnected()){
+                iterator.remove();
+                continue;
+            }
+            pending.removeIf(rollingStock -> rollingStock.isDead);
+            pending.sort(Comparator.<AbstractRollingStock<?>>comparingInt(rollingStock -> getPriority(player, rollingStock)).thenComparingDouble(player::getDistanceSq));
+            int bytes = 0;
+            Iterator<AbstractRollingStock<?>> cars = pending.iterator();
+            while(cars.hasNext()){
+                AbstractRollingStock<?> rollingStock = cars.next();
+                NBTTagCompound state = rollingStock.getInitialState();
+                int size = NetworkStats.sizeOf(state);
+                if(bytes > 0 && bytes + size > ConfigHandler.NETWORK_INITIAL_STATE_BUDGET){
+                    break; // at least one state per tick, even if it is larger than the budget
+                }
+                bytes += size;
+                cars.remove();
+                EntityPacketQueue.enqueue(player, new PacketTraincraftEntity(rollingStock, TCEntityPackets.STATE, state), UpdateTier.NEAR);
+            }
+            if(pending.isEmpty()){
+                iterator.remove();
+            }
+        }
+    }
+    
+    private static int getPriority(EntityPlayerMP player, AbstractRollingStock<?> rollingStock){
+        if(rollingStock.isPassenger(player)){
+            return 0;
+        }
+        return rollingStock.isBeingRidden() ? 1 : 2;
+    }
+}
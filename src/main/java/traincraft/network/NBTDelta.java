@@ -0,0 +1,215 @@
+/*
+ * Traincraft
+ * Copyright (c) 2011-2020.
+ *
+ * This file ("NBTDelta.java") is part of the Traincraft mod for Minecraft.
+ * It is created by all people that are listed with @author below.
+ * It is distributed under LGPL-v3.0.
+ * You can find the source code at https://github.com/Traincraft/Traincraft
+ */
+
+package traincraft.network;
+
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagString;
+import net.minecraftforge.common.util.Constants;
+import traincraft.api.InventoryBase;
+
+import javax.annotation.Nonnull;
+import java.util.*;
+
+/**
+ * Computes the difference between two sync states, so only changed fields have to be sent.
+ * Every field is sent with its complete new value, so applying a delta with the normal SYNC reading code works,
+ * as long as the reading code only sets the fields which are present (like all rolling stock does).
+ * <p>
+ * Only the inventory compound is diffed deeper: its "Items" list is reduced to the changed slots.
+ * All other compounds (e.g. fluid tanks) are sent complete, since they can't be read partially.
+ * Removed keys are listed under {@link #REMOVED}. The receiver resets them before it reads the fields of the same delta,
+ * see {@link #getRemovedKeys(NBTTagCompound)}.
+ */
+public final class NBTDelta {
+    
+    /**
+     * The list of the keys which were removed since the previous state
+     */
+    public static final String REMOVED = "tc_removed";
+    
+    private static final String INVENTORY = "inventory";
+    private static final String ITEMS = "Items";
+    
+    private NBTDelta(){
+    }
+    
+    /**
+     * @param previous The last sent state
+     * @param current  The current state
+     * @return A new compound containing only the changed fields of the current state. Empty if nothing has changed
+     */
+    public static NBTTagCompound diff(@Nonnull NBTTagCompound previous, @Nonnull NBTTagCompound current){
+        NBTTagCompound delta = new NBTTagCompound();
+        for(String key : current.getKeySet()){
+            NBTBase value = current.getTag(key);
+            NBTBase old = previous.getTag(key);
+            if(value.equals(old)){
+                continue;
+            }
+            if(INVENTORY.equals(key) && old instanceof NBTTagCompound && value instanceof NBTTagCompound){
+                NBTTagCompound inventoryDelta = diffInventory((NBTTagCompound) old, (NBTTagCompound) value);
+                if(!inventoryDelta.getKeySet().isEmpty()){
+                    delta.setTag(key, inventoryDelta);
+                }
+            } else{
+                delta.setTag(key, value.copy());
+            }
+        }
+        NBTTagList removed = new NBTTagList();
+        for(String key : previous.getKeySet()){
+            if(!current.hasKey(key)){
+                removed.appendTag(new NBTTagString(key));
+            }
+        }
+        if(removed.tagCount() > 0){
+            delta.setTag(REMOVED, removed);
+        }
+        return delta;
+    }
+    
+    /**
+     * @param delta A received delta
+     * @return The keys which were removed from the state, they have to be reset before the fields of the delta are read
+     */
+    public static Set<String> getRemovedKeys(@Nonnull NBTTagCompound delta){
+        if(!delta.hasKey(REMOVED, Constants.NBT.TAG_LIST)){
+            return Collections.emptySet();
+        }
+        NBTTagList list = delta.getTagList(REMOVED, Constants.NBT.TAG_STRING);
+        Set<String> keys = new LinkedHashSet<>();
+        for(int i = 0; i < list.tagCount(); i++){
+            keys.add(list.getStringTagAt(i));
+        }
+        return keys;
+    }
+    
+    /**
+     * Merges a newer delta into an older one, so both can be sent as one. Changed inventory slots are combined.
+     * The keys removed by the newer delta are taken out of the older one and both removal lists are combined.
+     * A key which was removed by the older delta and set again by the newer one stays in the list, it is reset and read again.
+     *
+     * @param older The older delta, which is modified
+     * @param newer The newer delta
+     */
+    public static void merge(@Nonnull NBTTagCompound older, @Nonnull NBTTagCompound newer){
+        Set<String> removed = getRemovedKeys(newer);
+        if(!removed.isEmpty()){
+            Set<String> allRemoved = new LinkedHashSet<>(getRemovedKeys(older));
+            allRemoved.addAll(removed);
+            removed.forEach(older::removeTag);
+            NBTTagList list = new NBTTagList();
+            allRemoved.forEach(key -> list.appendTag(new NBTTagString(key)));
+            older.setTag(REMOVED, list);
+        }
+        for(String key : newer.getKeySet()){
+            NBTBase value = newer.getTag(key);
+            if(REMOVED.equals(key)){
+                continue; // merged above
+            }
+            if(INVENTORY.equals(key) && older.hasKey(key, Constants.NBT.TAG_COMPOUND) && value instanceof NBTTagCompound){
+                mergeInventory(older.getCompoundTag(key), (NBTTagCompound) value);
+            } else{
+                older.setTag(key, value.copy());
+            }
+        }
+    }
+    
+    /**
+     * Applies a delta to a complete state, so it looks like the state the receiver has written afterwards:
+     * removed keys are gone and cleared slots are left out like the inventories do it.
+     *
+     * @param state The complete state, which is modified
+     * @param delta The delta or merged deltas
+     */
+    static void apply(@Nonnull NBTTagCompound state, @Nonnull NBTTagCompound delta){
+        merge(state, delta);
+        state.removeTag(REMOVED);
+        removeClearedSlots(state);
+    }
+    
+    private static void removeClearedSlots(NBTTagCompound state){
+        if(!state.hasKey(INVENTORY, Constants.NBT.TAG_COMPOUND) || !state.getCompoundTag(INVENTORY).hasKey(ITEMS, Constants.NBT.TAG_LIST)){
+            return;
+        }
+        NBTTagCompound inventory = state.getCompoundTag(INVENTORY);
+        NBTTagList items = inventory.getTagList(ITEMS, Constants.NBT.TAG_COMPOUND);
+        NBTTagList filled = new NBTTagList();
+        for(int i = 0; i < items.tagCount(); i++){
+            if(items.getCompoundTagAt(i).hasKey("id")){
+                filled.appendTag(items.getCompoundTagAt(i));
+            }
+        }
+        inventory.setTag(ITEMS, filled);
+    }
+    
+    private static void mergeInventory(NBTTagCompound older, NBTTagCompound newer){
+        for(String key : newer.getKeySet()){
+            NBTBase value = newer.getTag(key);
+            if(ITEMS.equals(key) && value instanceof NBTTagList && older.hasKey(ITEMS, Constants.NBT.TAG_LIST)){
+                Map<Integer, NBTTagCompound> slots = new TreeMap<>();
+                for(NBTTagList list : new NBTTagList[]{older.getTagList(ITEMS, Constants.NBT.TAG_COMPOUND), (NBTTagList) value}){
+                    for(int i = 0; i < list.tagCount(); i++){
+                        NBTTagCompound slotTag = list.getCompoundTagAt(i);
+                        slots.put(InventoryBase.readSlot(slotTag), slotTag.copy());
+                    }
+                }
+                NBTTagList merged = new NBTTagList();
+                slots.values().forEach(merged::appendTag);
+                older.setTag(ITEMS, merged);
+            } else{
+                older.setTag(key, value.copy());
+            }
+        }
+    }
+    
+    private static NBTTagCompound diffInventory(NBTTagCompound previous, NBTTagCompound current){
+        NBTTagCompound delta = new NBTTagCompound();
+        for(String key : current.getKeySet()){
+            NBTBase value = current.getTag(key);
+            if(ITEMS.equals(key) && value instanceof NBTTagList && previous.hasKey(ITEMS, Constants.NBT.TAG_LIST)){
+                NBTTagList changedSlots = diffSlots(previous.getTagList(ITEMS, Constants.NBT.TAG_COMPOUND), (NBTTagList) value);
+                if(changedSlots.tagCount() > 0){
+                    delta.setTag(key, changedSlots);
+                }
+            } else if(!value.equals(previous.getTag(key))){
+                delta.setTag(key, value.copy());
+            }
+        }
+        return delta;
+    }
+    
+    /**
+     * The inventories only write filled slots. So a cleared slot is part of the delta as a slot without a stack,
+     * which the receiver reads as an empty stack and sets like any other stack.
+     */
+    private static NBTTagList diffSlots(NBTTagList previous, NBTTagList current){
+        Map<Integer, NBTTagCompound> previousSlots = new HashMap<>();
+        for(int i = 0; i < previous.tagCount(); i++){
+            NBTTagCompound slotTag = previous.getCompoundTagAt(i);
+            previousSlots.put(InventoryBase.readSlot(slotTag), slotTag);
+        }
+        NBTTagList changed = new NBTTagList();
+        for(int i = 0; i < current.tagCount(); i++){
+            NBTTagCompound slotTag = current.getCompoundTagAt(i);
+            if(!slotTag.equals(previousSlots.remove(InventoryBase.readSlot(slotTag)))){
+                changed.appendTag(slotTag.copy());
+            }
+        }
+        for(int slot : previousSlots.keySet()){
+            NBTTagCompound cleared = new NBTTagCompound();
+            InventoryBase.writeSlot(cleared, slot);
+            changed.appendTag(cleared);
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Traincraft
+ * Copyright (c) 2011-2020.
+ *
+ * This file ("NetworkStats.java") is part of the Traincraft mod for Minecraft.
+ * It is created by all people that are listed with @author below.
+ * It is distributed under LGPL-v3.0.
+ * You can find the source code at https://github.com/Traincraft/Traincraft
+ */
+
+package traincraft.network;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.ResourceLocation;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Counts the messages and bytes of the Traincraft network traffic, split by direction, packet type and rolling stock type or tile class.
+ * The entity packets queued and sent per {@link UpdateTier} are counted apart from the traffic.
+ * Every counter keeps the last 60 seconds in one second buckets, so the 1s, 10s and 60s windows are always available.
+ * Recording is a map lookup and a few {@link LongAdder} increments, so the counters are always enabled and can be used
+ * from the server, client and network threads.
+ *
+ * @see traincraft.command.CommandTraincraft
+ */
+public class NetworkStats {
+    
+    public static final int[] WINDOWS = {1, 10, 60};
+    public static final String TILE_UPDATE = "TILE_UPDATE";
+    public static final ResourceLocation UNKNOWN_TYPE = new ResourceLocation("traincraft", "unknown");
+    
+    private static final Map<Direction, Map<String, Map<Object, Counter>>> COUNTERS = new EnumMap<>(Direction.class);
+    private static final Map<UpdateTier, Counter> TIER_QUEUED = new EnumMap<>(UpdateTier.class);
+    private static final Map<UpdateTier, Counter> TIER_SENT = new EnumMap<>(UpdateTier.class);
+    
+    static{
+        for(Direction direction : Direction.values()){
+            COUNTERS.put(direction, new ConcurrentHashMap<>());
+        }
+        for(UpdateTier tier : UpdateTier.values()){
+            TIER_QUEUED.put(tier, new Counter());
+            TIER_SENT.put(tier, new Counter());
+        }
+    }
+    
+    public static void recordEntityPacket(@Nonnull Direction direction, @Nonnull TCEntityPackets packet, @Nullable ResourceLocation rollingStockType, int bytes){
+        getCounter(direction, packet.name(), rollingStockType != null ? rollingStockType : UNKNOWN_TYPE).record(1, bytes);
+    }
+    
+    public static void recordTileUpdate(@Nonnull Direction direction, @Nonnull Class<? extends TileEntity> tileClass, int messages, int bytes){
+        getCounter(direction, TILE_UPDATE, tileClass).record(messages, bytes);
+    }
+    
+    /**
+     * @param sent False when the packet is queued, true when it is sent. Merged packets are only sent once
+     */
+    public static void recordTierPacket(@Nonnull UpdateTier tier, boolean sent){
+        (sent ? TIER_SENT : TIER_QUEUED).get(tier).record(1, 0);
+    }
+    
+    /**
+     * @param sent False for the queued packets, true for the sent ones
+     * @return The counter of the tier, without bytes
+     */
+    public static Counter getTierCounter(@Nonnull UpdateTier tier, boolean sent){
+        return (sent ? TIER_SENT : TIER_QUEUED).get(tier);
+    }
+    
+    /**
+     * Calls the consumer for all counters which have seen traffic in the last 60 seconds.
+     */
+    public static void forEach(BiConsumer<String, Counter> consumer){
+        COUNTERS.forEach((direction, byPacket) -> byPacket.forEach((packet, bySubject) -> bySubject.forEach((subject, counter) -> {
+            if(counter.getMessages(60) > 0){
+                consumer.accept(direction.name() + " " + packet + " " + getSubjectName(subject), counter);
+            }
+        })));
+    }
+    
+    public static JsonObject toJson(){
+        JsonObject root = new JsonObject();
+        root.addProperty("time", System.currentTimeMillis());
+        JsonArray counters = new JsonArray();
+        COUNTERS.forEach((direction, byPacket) -> byPacket.forEach((packet, bySubject) -> bySubject.forEach((subject, counter) -> {
+            JsonObject json = new JsonObject();
+            json.addProperty("direction", direction.name());
+            json.addProperty("packet", packet);
+            json.addProperty("type", getSubjectName(subject));
+            json.addProperty("total_messages", counter.totalMessages.sum());
+            json.addProperty("total_bytes", counter.totalBytes.sum());
+            for(int window : WINDOWS){
+                json.addProperty("messages_" + window + "s", counter.getMessages(window));
+                json.addProperty("bytes_" + window + "s", counter.getBytes(window));
+            }
+            counters.add(json);
+        })));
+        root.add("counters", counters);
+        JsonArray tiers = new JsonArray();
+        for(UpdateTier tier : UpdateTier.values()){
+            JsonObject json = new JsonObject();
+            json.addProperty("tier", tier.name());
+            json.addProperty("total_queued", TIER_QUEUED.get(tier).totalMessages.sum());
+            json.addProperty("total_sent", TIER_SENT.get(tier).totalMessages.sum());
+            for(int window : WINDOWS){
+                json.addProperty("queued_" + window + "s", TIER_QUEUED.get(tier).getMessages(window));
+                json.addProperty("sent_" + window + "s", TIER_SENT.get(tier).getMessages(window));
+            }
+            tiers.add(json);
+        }
+        root.add("tiers", tiers);
+        return root;
+    }
+    
+    /**
+     * @return The serialized size of the compound, like it is written into a packet
+     */
+    public static int sizeOf(NBTTagCompound nbt){
+        CountingOutputStream out = new CountingOutputStream(ByteStreams.nullOutputStream());
+        try{
+            CompressedStreamTools.write(nbt, new DataOutputStream(out));
+        } catch(IOException e){
+            return 0; // can't happen with a null stream
+        }
+        return (int) out.getCount();
+    }
+    
+    private static Counter getCounter(Direction direction, String packet, Object subject){
+        return COUNTERS.get(direction).computeIfAbsent(packet, p -> new ConcurrentHashMap<>()).computeIfAbsent(subject, s -> new Counter());
+    }
+    
+    private static String getSubjectName(Object subject){
+        return subject instanceof Class ? ((Class<?>) subject).getSimpleName() : String.valueOf(subject);
+    }
+    
+    public enum Direction {
+        SENT,
+        RECEIVED
+    }
+    
+    public static class Counter {
+        
+        private static final int BUCKETS = 61; // 60 complete seconds and the current one
+        
+        private final LongAdder[] messages = new LongAdder[BUCKETS];
+        private final LongAdder[] bytes = new LongAdder[BUCKETS];
+        private final AtomicLongArray seconds = new AtomicLongArray(BUCKETS);
+        private final LongAdder totalMessages = new LongAdder();
+        private final LongAdder totalBytes = new LongAdder();
+        
+        private Counter(){
+            for(int i = 0; i < BUCKETS; i++){
+                this.messages[i] = new LongAdder();
+                this.bytes[i] = new LongAdder();
+            }
+        }
+        
+        private void record(int messageCount, int byteCount){
+            long second = System.currentTimeMillis() / 1000L;
+            int index = (int) (second % BUCKETS);
+            long bucketSecond = this.seconds.get(index);
+            if(bucketSecond != second && this.seconds.compareAndSet(index, bucketSecond, second)){
+                // the bucket is from the last minute, reuse it. Concurrent increments while resetting may get lost, which is fine for statistics
+                this.messages[index].reset();
+                this.bytes[index].reset();
+            }
+            this.messages[index].add(messageCount);
+            this.bytes[index].add(byteCount);
+            this.totalMessages.add(messageCount);
+            this.totalBytes.add(byteCount);
+        }
+        
+        /**
+         * @param window The window in seconds, at most 60. The current second isn't complete yet, so it isn't part of any window
+         */
+        public long getMessages(int window){
+            return this.sum(this.messages, window);
+        }
+        
+        public long getBytes(int window){
+            return this.sum(this.bytes, window);
+        }
+        
+        private long sum(LongAdder[] buckets, int window){
+            long now = System.currentTimeMillis() / 1000L;
+            long sum = 0L;
+            for(long second = now - Math.min(window, BUCKETS - 1); second < now; second++){
+                int index = (int) (second % BUCKETS);
+                if(this.seconds.get(index) == second){
+                    sum += buckets[index].sum();
+                }
+            }
+            return sum;
+        }
+    }
+}
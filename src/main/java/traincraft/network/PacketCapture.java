@@ -0,0 +1,157 @@
+/*
+ * Traincraft
+ * Copyright (c) 2011-2020.
+ *
+ * This file ("PacketCapture.java") is part of the Traincraft mod for Minecraft.
+ * It is created by all people that are listed with @author below.
+ * It is distributed under LGPL-v3.0.
+ * You can find the source code at https://github.com/Traincraft/Traincraft
+ */
+
+package traincraft.network;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.util.math.BlockPos;
+import traincraft.Traincraft;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.*;
+import java.util.List;
+
+/**
+ * Records the Traincraft traffic to a single player into a file, so it can be replayed offline by the {@link CaptureReplay}.
+ * The entity packets are written exactly as they are sent together with the entity type, the tile updates as their compound.
+ * Every record has the nanoseconds since the start of the capture. The names the player already knows from the
+ * {@link RegistryPalette} are written in front, so the payloads can be decoded without the start of the connection.
+ * The capture is stopped and the file closed when the player leaves or the server stops.
+ * <p>
+ * File format: {@link #MAGIC}, {@link #VERSION}, the palette names of every {@link RegistryPalette.Channel} (count and names),
+ * followed by the records: the kind, the time and the entity packet (entity type, length and bytes) or the tile update
+ * (position, tile class and compound).
+ * Must only be used from the server thread.
+ *
+ * @see traincraft.command.CommandTraincraft
+ */
+public final class PacketCapture {
+    
+    public static final int MAGIC = 0x54434350; // TCCP
+    public static final int VERSION = 2;
+    public static final byte ENTITY_PACKET = 0;
+    public static final byte TILE_UPDATE = 1;
+    
+    private static PacketCapture active;
+    
+    private final EntityPlayerMP player;
+    private final File file;
+    private final DataOutputStream out;
+    private final long startTime = System.nanoTime();
+    private int records;
+    
+    private PacketCapture(EntityPlayerMP player, File file) throws IOException{
+        this.player = player;
+        this.file = file;
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        this.out.writeInt(MAGIC);
+        this.out.writeInt(VERSION);
+        for(RegistryPalette.Channel channel : RegistryPalette.Channel.values()){
+            List<String> names = RegistryPalette.getNames(player, channel);
+            this.out.writeInt(names.size());
+            for(String name : names){
+                this.out.writeUTF(name);
+            }
+        }
+    }
+    
+    /**
+     * Starts recording the traffic to the player. A running capture is stopped.
+     */
+    public static void start(@Nonnull EntityPlayerMP player, @Nonnull File file) throws IOException{
+        stop();
+        active = new PacketCapture(player, file);
+    }
+    
+    /**
+     * @return The number of records of the stopped capture, or -1 if there was none
+     */
+    public static int stop(){
+        PacketCapture capture = active;
+        if(capture == null){
+            return -1;
+        }
+        active = null;
+        try{
+            capture.out.close();
+        } catch(IOException e){
+            Traincraft.LOGGER.error("Can't close the packet capture '" + capture.file.getAbsolutePath() + "'", e);
+        }
+        return capture.records;
+    }
+    
+    /**
+     * Stops the capture of the player, the traffic of the next connection isn't recorded.
+     */
+    public static void onPlayerLoggedOut(@Nonnull EntityPlayerMP player){
+        PacketCapture capture = active;
+        if(capture != null && capture.player.connection == player.connection){
+            int records = stop();
+            Traincraft.LOGGER.info("The packet capture '" + capture.file.getName() + "' was stopped with " + records + " records, " + player.getName() + " has left");
+        }
+    }
+    
+    @Nullable
+    public static File getActiveFile(){
+        return active != null ? active.file : null;
+    }
+    
+    static void recordEntityPacket(@Nonnull EntityPlayerMP player, @Nonnull PacketTraincraftEntity packet){
+        PacketCapture capture = active;
+        if(capture == null || capture.player.connection != player.connection){ // the player object changes with a respawn, the connection stays
+            return;
+        }
+        ByteBuf buf = Unpooled.buffer();
+        packet.write(buf);
+        ResourceLocation type = packet.getEntityType();
+        capture.write(ENTITY_PACKET, out -> {
+            out.writeUTF(type != null ? type.toString() : ""); // for the stubs of the replay
+            out.writeInt(buf.readableBytes());
+            buf.readBytes(out, buf.readableBytes());
+        });
+    }
+    
+    public static void recordTileUpdate(@Nonnull EntityPlayerMP player, @Nonnull TileEntity tile, @Nonnull NBTTagCompound nbt){
+        PacketCapture capture = active;
+        if(capture == null || capture.player.connection != player.connection){ // the player object changes with a respawn, the connection stays
+            return;
+        }
+        BlockPos pos = tile.getPos();
+        capture.write(TILE_UPDATE, out -> {
+            out.writeLong(pos.toLong());
+            out.writeUTF(tile.getClass().getName());
+            CompressedStreamTools.write(nbt, out);
+        });
+    }
+    
+    private void write(byte kind, RecordWriter writer){
+        try{
+            this.out.writeByte(kind);
+            this.out.writeLong(System.nanoTime() - this.startTime);
+            writer.write(this.out);
+            this.records++;
+        } catch(IOException e){
+            Traincraft.LOGGER.error("Can't write to the packet capture '" + this.file.getAbsolutePath() + "', it is stopped", e);
+            stop();
+        }
+    }
+    
+    private interface RecordWriter {
+        
+        void write(DataOutputStream out) throws IOException;
+    }
+}
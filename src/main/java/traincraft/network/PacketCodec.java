@@ -0,0 +1,84 @@
+/*
+ * Traincraft
+ * Copyright (c) 2011-2020.
+ *
+ * This file ("PacketCodec.java") is part of the Traincraft mod for Minecraft.
+ * It is created by all people that are listed with @author below.
+ * It is distributed under LGPL-v3.0.
+ * You can find the source code at https://github.com/Traincraft/Traincraft
+ */
+
+package traincraft.network;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Low level encodings for the Traincraft packets.
+ * Variable length integers (7 bits per byte) and zigzag encoding keep small and negative numbers short,
+ * fixed point values store doubles with a known precision as integers.
+ */
+public final class PacketCodec {
+    
+    private PacketCodec(){
+    }
+    
+    public static void writeVarInt(ByteBuf buf, int value){
+        while((value & ~0x7F) != 0){
+            buf.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf.writeByte(value);
+    }
+    
+    public static int readVarInt(ByteBuf buf){
+        int value = 0;
+        for(int shift = 0; shift < 35; shift += 7){
+            byte b = buf.readByte();
+            value |= (b & 0x7F) << shift;
+            if((b & 0x80) == 0){
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("VarInt is too long");
+    }
+    
+    public static void writeVarLong(ByteBuf buf, long value){
+        while((value & ~0x7FL) != 0L){
+            buf.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf.writeByte((int) value);
+    }
+    
+    public static long readVarLong(ByteBuf buf){
+        long value = 0L;
+        for(int shift = 0; shift < 70; shift += 7){
+            byte b = buf.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if((b & 0x80) == 0){
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("VarLong is too long");
+    }
+    
+    public static void writeSignedVarLong(ByteBuf buf, long value){
+        writeVarLong(buf, (value << 1) ^ (value >> 63));
+    }
+    
+    public static long readSignedVarLong(ByteBuf buf){
+        long value = readVarLong(buf);
+        return (value >>> 1) ^ -(value & 1L);
+    }
+    
+    /**
+     * @param scale The number of steps per unit, e.g. 32 for a precision of 1/32
+     */
+    public static void writeFixed(ByteBuf buf, double value, double scale){
+        writeSignedVarLong(buf, Math.round(value * scale));
+    }
+    
+    public static double readFixed(ByteBuf buf, double scale){
+        return readSignedVarLong(buf) / scale;
+    }
+}
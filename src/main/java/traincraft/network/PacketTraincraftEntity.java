@@ -12,21 +12,27 @@ package traincraft.network;
 
 import io.netty.buffer.ByteBuf;
 import net.minecraft.client.Minecraft;
-import net.minecraft.client.multiplayer.WorldClient;
 import net.minecraft.entity.Entity;
+import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.nbt.NBTTagCompound;
-import net.minecraft.world.WorldServer;
-import net.minecraftforge.fml.common.network.ByteBufUtils;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.world.World;
 import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
 import net.minecraftforge.fml.common.network.simpleimpl.IMessageHandler;
 import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
+import net.minecraftforge.fml.relauncher.Side;
 import traincraft.api.AbstractRollingStock;
+import traincraft.api.Consist;
+
+import javax.annotation.Nullable;
 
 public class PacketTraincraftEntity implements IMessage, IMessageHandler<PacketTraincraftEntity, IMessage> {
     
     private int entityId;
     private TCEntityPackets packet;
-    private NBTTagCompound data;
+    private EntityPacketData data;
+    private ResourceLocation entityType; // only known on the sending side, for the statistics
+    private int receivedBytes;
     
     // empty constructor for Forge
     @Deprecated
@@ -34,48 +40,162 @@ public class PacketTraincraftEntity implements IMessage, IMessageHandler<PacketT
     }
     
     public PacketTraincraftEntity(AbstractRollingStock<?> entity, TCEntityPackets packet, NBTTagCompound data){
+        this(entity, packet, EntityPacketData.fromNBT(data));
+    }
+    
+    public PacketTraincraftEntity(AbstractRollingStock<?> entity, TCEntityPackets packet, EntityPacketData data){
         this.entityId = entity.getEntityId();
         this.packet = packet;
         this.data = data;
+        this.entityType = entity.getTypeId();
+    }
+    
+    /**
+     * A packet without an entity, e.g. for the tests of the codec
+     */
+    PacketTraincraftEntity(int entityId, TCEntityPackets packet, EntityPacketData data){
+        this.entityId = entityId;
+        this.packet = packet;
+        this.data = data;
     }
     
     @Override
     public void fromBytes(ByteBuf buf){
-        this.packet = TCEntityPackets.values()[buf.readInt()];
-        this.entityId = buf.readInt();
-        this.data = ByteBufUtils.readTag(buf);
+        int start = buf.readerIndex();
+        int packetId = PacketCodec.readVarInt(buf);
+        this.packet = packetId >= 0 && packetId < TCEntityPackets.values().length ? TCEntityPackets.values()[packetId] : TCEntityPackets.NOOP;
+        this.entityId = PacketCodec.readVarInt(buf);
+        this.data = EntityPacketData.read(buf);
+        this.receivedBytes = buf.readerIndex() - start;
     }
     
     @Override
     public void toBytes(ByteBuf buf){
-        buf.writeInt(this.packet.ordinal());
-        buf.writeInt(this.entityId);
-        ByteBufUtils.writeTag(buf, this.data);
+        int start = buf.writerIndex();
+        this.write(buf);
+        NetworkStats.recordEntityPacket(NetworkStats.Direction.SENT, this.packet, this.entityType, buf.writerIndex() - start);
+    }
+    
+    /**
+     * Writes the packet without counting it, see {@link PacketCapture}
+     */
+    void write(ByteBuf buf){
+        PacketCodec.writeVarInt(buf, this.packet.ordinal());
+        PacketCodec.writeVarInt(buf, this.entityId);
+        this.data.write(buf);
     }
     
     @Override
     public IMessage onMessage(PacketTraincraftEntity message, MessageContext ctx){
-        switch(ctx.side){
-            case CLIENT:{
-                WorldClient clientWorld = Minecraft.getMinecraft().world;
-                if(clientWorld != null){
-                    Entity entity = clientWorld.getEntityByID(message.entityId);
-                    if(entity instanceof AbstractRollingStock<?>){
-                        return ((AbstractRollingStock<?>) entity).onNetworkPacketClient(message.packet, message.data);
-                    }
-                }
-                break;
-            }
-            case SERVER:{
-                WorldServer serverWorld = ctx.getServerHandler().player.getServerWorld();
-                Entity entity = serverWorld.getEntityByID(message.entityId);
-                if(entity instanceof AbstractRollingStock<?>){
-                    return ((AbstractRollingStock<?>) entity).onNetworkPacketServer(message.packet, message.data);
-                }
-                break;
+        message.decodePalette(ctx.side);
+        IncomingPacketQueue.offer(ctx.side, ctx.side.isServer() ? ctx.getServerHandler().player : null, message);
+        return null;
+    }
+    
+    /**
+     * Main thread: The world this packet is for.
+     *
+     * @param sender The sending player on the server side, null on the client side
+     */
+    @Nullable
+    static World getWorld(Side side, @Nullable EntityPlayerMP sender){
+        if(side.isClient()){
+            return Minecraft.getMinecraft().world;
+        }
+        return sender != null && !sender.hasDisconnected() ? sender.getServerWorld() : null;
+    }
+    
+    /**
+     * Main thread: Runs this packet on its entity.
+     *
+     * @param world  The world of the entity
+     * @param entity The entity with the id of this packet, looked up by the caller
+     * @param sender The sending player on the server side, null on the client side
+     * @return The answer or null
+     */
+    IMessage handle(World world, @Nullable Entity entity, @Nullable EntityPlayerMP sender){
+        this.recordReceived(entity);
+        if(entity instanceof AbstractRollingStock<?>){
+            AbstractRollingStock<?> rollingStock = (AbstractRollingStock<?>) entity;
+            if(world.isRemote){
+                return rollingStock.onNetworkPacketClient(this.packet, this.data);
             }
+            return sender != null ? rollingStock.onNetworkPacketServer(this.packet, this.data, sender) : null;
+        } else if(world.isRemote && this.packet == TCEntityPackets.CONSIST){
+            Consist.applySnapshot(world, this.entityId, this.data); // the other cars can be known without the lead
         }
         return null;
     }
     
+    /**
+     * Network thread: Replaces the palette indices of the client bound data with the registry names. Runs in the order the packets arrive.
+     */
+    void decodePalette(Side side){
+        if(side.isClient() && this.data.hasExtra()){
+            RegistryPalette.decode(RegistryPalette.Channel.ENTITY, this.data.getExtra());
+        }
+    }
+    
+    /**
+     * @return This packet with the registry names encoded for the player. A copy if something was encoded
+     * @see RegistryPalette
+     */
+    PacketTraincraftEntity encodeFor(EntityPlayerMP player){
+        if(!this.data.hasExtra()){
+            return this;
+        }
+        NBTTagCompound extra = this.data.getExtra();
+        NBTTagCompound encoded = RegistryPalette.encode(player, RegistryPalette.Channel.ENTITY, extra);
+        if(encoded == extra){
+            return this;
+        }
+        PacketTraincraftEntity copy = new PacketTraincraftEntity();
+        copy.entityId = this.entityId;
+        copy.packet = this.packet;
+        copy.entityType = this.entityType;
+        copy.data = this.data.withExtra(encoded);
+        return copy;
+    }
+    
+    private void recordReceived(Entity entity){
+        NetworkStats.recordEntityPacket(NetworkStats.Direction.RECEIVED, this.packet, entity instanceof AbstractRollingStock<?> ? ((AbstractRollingStock<?>) entity).getTypeId() : null, this.receivedBytes);
+    }
+    
+    /**
+     * The packets are shared between all receiving players, so the merged data is a new copy.
+     *
+     * @param newer A newer packet for the same entity
+     * @return A new packet with the data of both
+     */
+    PacketTraincraftEntity merge(PacketTraincraftEntity newer){
+        PacketTraincraftEntity merged = new PacketTraincraftEntity();
+        merged.entityId = this.entityId;
+        merged.packet = this.packet;
+        merged.entityType = this.entityType;
+        merged.data = new EntityPacketData();
+        merged.data.mergeFrom(this.data);
+        merged.data.mergeFrom(newer.data);
+        return merged;
+    }
+    
+    int getEntityId(){
+        return this.entityId;
+    }
+    
+    /**
+     * @return The type of the entity, null on the receiving side
+     */
+    @Nullable
+    ResourceLocation getEntityType(){
+        return this.entityType;
+    }
+    
+    TCEntityPackets getPacket(){
+        return this.packet;
+    }
+    
+    EntityPacketData getData(){
+        return this.data;
+    }
+    
 }
@@ -0,0 +1,67 @@
+/*
+ * Traincraft
+ * Copyright (c) 2011-2020.
+ *
+ * This file ("PacketTraincraftEntityBatch.java") is part of the Traincraft mod for Minecraft.
+ * It is created by all people that are listed with @author below.
+ * It is distributed under LGPL-v3.0.
+ * You can find the source code at https://github.com/Traincraft/Traincraft
+ */
+
+package traincraft.network;
+
+import io.netty.buffer.ByteBuf;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessageHandler;
+import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * All {@link PacketTraincraftEntity}s for one player from one server tick.
+ *
+ * @see EntityPacketQueue
+ */
+public class PacketTraincraftEntityBatch implements IMessage, IMessageHandler<PacketTraincraftEntityBatch, IMessage> {
+    
+    private List<PacketTraincraftEntity> packets;
+    
+    // empty constructor for Forge
+    @Deprecated
+    public PacketTraincraftEntityBatch(){
+    }
+    
+    public PacketTraincraftEntityBatch(List<PacketTraincraftEntity> packets){
+        this.packets = packets;
+    }
+    
+    @Override
+    public void fromBytes(ByteBuf buf){
+        int count = PacketCodec.readVarInt(buf);
+        this.packets = new ArrayList<>(Math.min(count, buf.readableBytes()));
+        for(int i = 0; i < count; i++){
+            PacketTraincraftEntity packet = new PacketTraincraftEntity();
+            packet.fromBytes(buf);
+            this.packets.add(packet);
+        }
+    }
+    
+    @Override
+    public void toBytes(ByteBuf buf){
+        PacketCodec.writeVarInt(buf, this.packets.size());
+        for(PacketTraincraftEntity packet : this.packets){
+            packet.toBytes(buf);
+        }
+    }
+    
+    @Override
+    public IMessage onMessage(PacketTraincraftEntityBatch message, MessageContext ctx){
+        for(PacketTraincraftEntity packet : message.packets){
+            packet.decodePalette(ctx.side);
+            IncomingPacketQueue.offer(ctx.side, null, packet); // batches are client bound only
+        }
+        return null;
+    }
+    
+}
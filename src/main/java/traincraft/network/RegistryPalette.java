@@ -0,0 +1,254 @@
+/*
+ * Traincraft
+ * Copyright (c) 2011-2020.
+ *
+ * This file ("RegistryPalette.java") is part of the Traincraft mod for Minecraft.
+ * It is created by all people that are listed with @author below.
+ * It is distributed under LGPL-v3.0.
+ * You can find the source code at https://github.com/Traincraft/Traincraft
+ */
+
+package traincraft.network;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.nbt.*;
+import net.minecraft.network.NetHandlerPlayServer;
+import net.minecraft.network.NetworkManager;
+import net.minecraft.network.play.server.SPacketUpdateTileEntity;
+import net.minecraftforge.common.util.Constants;
+import net.minecraftforge.fml.relauncher.Side;
+import net.minecraftforge.fml.relauncher.SideOnly;
+
+import javax.annotation.Nonnull;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Replaces the item and fluid registry names in sync payloads with small indices, once per connection.
+ * The first payload with a new name carries the name in its palette list, all later ones only the index.
+ * The client appends the names in the order it receives them, so both sides always have the same indices.
+ * <p>
+ * Entity packets and tile updates have their own {@link Channel}. Both are decoded on the network thread as they arrive,
+ * since the main thread drops packets for entities and tiles it doesn't know, and with them their new names.
+ * Payloads without a palette (like the spawn data and the chunk data) still contain the names and are read unchanged.
+ */
+public final class RegistryPalette {
+    
+    /**
+     * At most this many names per connection and channel, all others are sent as names.
+     */
+    public static final int MAX_SIZE = 4096;
+    
+    /**
+     * The action of tile updates with an encoded payload. Vanilla doesn't use it, so they are passed to
+     * {@link net.minecraft.tileentity.TileEntity#onDataPacket}.
+     */
+    public static final int TILE_UPDATE_ACTION = 127;
+    
+    private static final String PALETTE_KEY = "tc_palette";
+    private static final String ITEM_ID = "id";
+    private static final String ITEM_COUNT = "Count";
+    private static final String ITEM_TAG = "tag";
+    private static final String FLUID_NAME = "FluidName";
+    
+    private static final Map<NetHandlerPlayServer, EnumMap<Channel, RegistryPalette>> SERVER = new WeakHashMap<>();
+    private static final EnumMap<Channel, RegistryPalette> CLIENT = new EnumMap<>(Channel.class);
+    
+    static{
+        for(Channel channel : Channel.values()){
+            CLIENT.put(channel, new RegistryPalette());
+        }
+    }
+    
+    private final Map<String, Integer> indices = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+    
+    private RegistryPalette(){
+    }
+    
+    /**
+     * Server side: Encodes a payload for a single player. Must only be called right before it is sent, in the order of sending.
+     *
+     * @param player  The receiving player
+     * @param channel The channel the payload is sent with
+     * @param nbt     The payload, which isn't changed
+     * @return The encoded copy, or the payload itself if it contains no registry names
+     */
+    public static NBTTagCompound encode(@Nonnull EntityPlayerMP player, @Nonnull Channel channel, @Nonnull NBTTagCompound nbt){
+        if(!containsNames(nbt)){
+            return nbt;
+        }
+        RegistryPalette palette = SERVER.computeIfAbsent(player.connection, connection -> new EnumMap<>(Channel.class)).computeIfAbsent(channel, c -> new RegistryPalette());
+        NBTTagCompound encoded = nbt.copy();
+        NBTTagList newNames = new NBTTagList();
+        palette.encodeCompound(encoded, newNames);
+        if(newNames.tagCount() > 0){
+            encoded.setTag(PALETTE_KEY, newNames);
+        }
+        return encoded;
+    }
+    
+    /**
+     * Client side: Decodes a received payload in place. Must be called in the order the payloads of the channel were received.
+     */
+    @SideOnly(Side.CLIENT)
+    public static void decode(@Nonnull Channel channel, @Nonnull NBTTagCompound nbt){
+        CLIENT.get(channel).decodePayload(nbt);
+    }
+    
+    /**
+     * Client side: Decodes the tile updates of this connection on the network thread, in front of the vanilla packet handler.
+     */
+    @SideOnly(Side.CLIENT)
+    public static void installTileDecoder(@Nonnull NetworkManager manager){
+        manager.channel().pipeline().addBefore("packet_handler", "traincraft:tile_palette", new TileDecoder());
+    }
+    
+    /**
+     * Server side: The names the player already knows, e.g. for the start of a {@link PacketCapture}.
+     */
+    public static List<String> getNames(@Nonnull EntityPlayerMP player, @Nonnull Channel channel){
+        EnumMap<Channel, RegistryPalette> palettes = SERVER.get(player.connection);
+        RegistryPalette palette = palettes != null ? palettes.get(channel) : null;
+        return palette != null ? new ArrayList<>(palette.names) : Collections.emptyList();
+    }
+    
+    /**
+     * @param names The names the palette starts with
+     * @return A palette for decoding, independent of the palette of the client connection. Used by the {@link CaptureReplay}
+     */
+    public static RegistryPalette createDecoder(@Nonnull List<String> names){
+        RegistryPalette palette = new RegistryPalette();
+        palette.names.addAll(names.subList(0, Math.min(names.size(), MAX_SIZE)));
+        return palette;
+    }
+    
+    /**
+     * Decodes a received payload in place with this palette.
+     */
+    public synchronized void decodePayload(@Nonnull NBTTagCompound nbt){
+        NBTTagList newNames = nbt.getTagList(PALETTE_KEY, Constants.NBT.TAG_STRING);
+        for(int i = 0; i < newNames.tagCount() && this.names.size() < MAX_SIZE; i++){
+            this.names.add(newNames.getStringTagAt(i));
+        }
+        nbt.removeTag(PALETTE_KEY);
+        this.decodeCompound(nbt);
+    }
+    
+    /**
+     * Client side: Forgets all names, for a new connection.
+     */
+    @SideOnly(Side.CLIENT)
+    public static void resetClient(){
+        for(RegistryPalette palette : CLIENT.values()){
+            synchronized(palette){
+                palette.names.clear();
+            }
+        }
+    }
+    
+    private static boolean containsNames(NBTTagCompound nbt){
+        if(isItem(nbt, Constants.NBT.TAG_STRING) || nbt.hasKey(FLUID_NAME, Constants.NBT.TAG_STRING)){
+            return true;
+        }
+        for(String key : nbt.getKeySet()){
+            NBTBase tag = nbt.getTag(key);
+            if(tag instanceof NBTTagCompound && !ITEM_TAG.equals(key) && containsNames((NBTTagCompound) tag)){
+                return true;
+            }
+            if(tag instanceof NBTTagList && ((NBTTagList) tag).getTagType() == Constants.NBT.TAG_COMPOUND){
+                NBTTagList list = (NBTTagList) tag;
+                for(int i = 0; i < list.tagCount(); i++){
+                    if(containsNames(list.getCompoundTagAt(i))){
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+    
+    private static boolean isItem(NBTTagCompound nbt, int idType){
+        return nbt.hasKey(ITEM_ID, idType) && nbt.hasKey(ITEM_COUNT);
+    }
+    
+    private void encodeCompound(NBTTagCompound nbt, NBTTagList newNames){
+        if(isItem(nbt, Constants.NBT.TAG_STRING)){
+            this.encodeName(nbt, ITEM_ID, newNames);
+        }
+        if(nbt.hasKey(FLUID_NAME, Constants.NBT.TAG_STRING)){
+            this.encodeName(nbt, FLUID_NAME, newNames);
+        }
+        this.forEachChild(nbt, child -> this.encodeCompound(child, newNames));
+    }
+    
+    private void encodeName(NBTTagCompound nbt, String key, NBTTagList newNames){
+        String name = nbt.getString(key);
+        Integer index = this.indices.get(name);
+        if(index == null){
+            if(this.names.size() >= MAX_SIZE){
+                return; // stays a name
+            }
+            index = this.names.size();
+            this.indices.put(name, index);
+            this.names.add(name);
+            newNames.appendTag(new NBTTagString(name));
+        }
+        nbt.setTag(key, index <= Short.MAX_VALUE ? new NBTTagShort((short) (int) index) : new NBTTagInt(index));
+    }
+    
+    private void decodeCompound(NBTTagCompound nbt){
+        if(isItem(nbt, Constants.NBT.TAG_ANY_NUMERIC)){
+            this.decodeName(nbt, ITEM_ID);
+        }
+        if(nbt.hasKey(FLUID_NAME, Constants.NBT.TAG_ANY_NUMERIC)){
+            this.decodeName(nbt, FLUID_NAME);
+        }
+        this.forEachChild(nbt, this::decodeCompound);
+    }
+    
+    private void decodeName(NBTTagCompound nbt, String key){
+        int index = nbt.getInteger(key);
+        if(index >= 0 && index < this.names.size()){
+            nbt.setString(key, this.names.get(index));
+        } else{
+            nbt.removeTag(key); // unknown index, the stack is read as empty
+        }
+    }
+    
+    /**
+     * Visits all compounds below this one, but not the NBT of item stacks, which is sent unchanged.
+     */
+    private void forEachChild(NBTTagCompound nbt, Consumer<NBTTagCompound> consumer){
+        for(String key : nbt.getKeySet()){
+            NBTBase tag = nbt.getTag(key);
+            if(tag instanceof NBTTagCompound && !ITEM_TAG.equals(key)){
+                consumer.accept((NBTTagCompound) tag);
+            } else if(tag instanceof NBTTagList && ((NBTTagList) tag).getTagType() == Constants.NBT.TAG_COMPOUND){
+                NBTTagList list = (NBTTagList) tag;
+                for(int i = 0; i < list.tagCount(); i++){
+                    consumer.accept(list.getCompoundTagAt(i));
+                }
+            }
+        }
+    }
+    
+    @SideOnly(Side.CLIENT)
+    private static class TileDecoder extends ChannelInboundHandlerAdapter {
+        
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception{
+            if(msg instanceof SPacketUpdateTileEntity && ((SPacketUpdateTileEntity) msg).getTileEntityType() == TILE_UPDATE_ACTION){
+                decode(Channel.TILE, ((SPacketUpdateTileEntity) msg).getNbtCompound());
+            }
+            super.channelRead(ctx, msg);
+        }
+    }
+    
+    public enum Channel {
+        ENTITY,
+        TILE
+    }
+}
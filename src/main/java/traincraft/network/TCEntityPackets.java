@@ -10,47 +10,137 @@
 
 package traincraft.network;
 
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.nbt.NBTTagCompound;
-import net.minecraftforge.fml.common.network.NetworkRegistry;
+import net.minecraft.world.WorldServer;
 import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
 import traincraft.Traincraft;
 import traincraft.api.AbstractRollingStock;
-import traincraft.tile.BaseTile;
+import traincraft.api.Consist;
 
 import javax.annotation.Nonnull;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.function.BiFunction;
 
 public enum TCEntityPackets {
     
     NOOP((rollingStock, nbtTagCompound) -> null), // index 0 for catching errors
     CUSTOM((rollingStock, nbtTagCompound) -> null), // custom packets, they have to be overwritten in the AbstractRollingStock class
-    KEY_PRESS((rollingStock, nbt) -> {
-        boolean isGuiOpen = nbt.getBoolean("gui_open");
-        for(int pressed_key : nbt.getIntArray("pressed_keys")){
-            rollingStock.clientKeyPress(EnumKeyEvent.values()[pressed_key], isGuiOpen);
+    KEY_PRESS(true, (rollingStock, data) -> { // only buffered here, it is applied in the next server tick
+        if(data.has(EntityField.INPUT_STATE) && data.has(EntityField.CLIENT_TICK)){
+            rollingStock.getDriverInput().offer(data.getInt(EntityField.INPUT_STATE), data.getBoolean(EntityField.GUI_OPEN), data.getInt(EntityField.CLIENT_TICK));
         }
         return null;
     }),
-    SYNC((rollingStock, nbtTagCompound) -> {
-        rollingStock.readFromNBT(rollingStock, nbtTagCompound, BaseTile.NBTState.SYNC);
+    SYNC((rollingStock, data) -> {
+        rollingStock.readSyncData(data);
+        return null;
+    }),
+    CONSIST((rollingStock, data) -> { // sent by the lead of a consist. See Consist
+        if(rollingStock.world.isRemote){
+            Consist.applySnapshot(rollingStock.world, rollingStock.getEntityId(), data);
+        }
+        return null;
+    }),
+    STATE((rollingStock, data) -> { // the complete sync state for a new tracking player. See InitialStateQueue
+        if(rollingStock.world.isRemote){
+            rollingStock.readSyncData(data);
+            rollingStock.onInitialStateReceived();
+        }
         return null;
     });
     
-    private final BiFunction<AbstractRollingStock<?>, NBTTagCompound, IMessage> action;
+    private final boolean driverOnly;
+    private final BiFunction<AbstractRollingStock<?>, EntityPacketData, IMessage> action;
     
-    TCEntityPackets(BiFunction<AbstractRollingStock<?>, NBTTagCompound, IMessage> action){
+    TCEntityPackets(BiFunction<AbstractRollingStock<?>, EntityPacketData, IMessage> action){
+        this(false, action);
+    }
+    
+    TCEntityPackets(boolean driverOnly, BiFunction<AbstractRollingStock<?>, EntityPacketData, IMessage> action){
+        this.driverOnly = driverOnly;
         this.action = action;
     }
     
-    public IMessage run(AbstractRollingStock<?> entity, NBTTagCompound data){
+    public IMessage run(AbstractRollingStock<?> entity, EntityPacketData data){
         return this.action.apply(entity, data);
     }
     
+    /**
+     * @return True if the server only accepts this packet from the controlling passenger of the entity
+     */
+    public boolean isDriverOnly(){
+        return this.driverOnly;
+    }
+    
+    /**
+     * Waiting packets of these types are merged into one, see {@link EntityPacketData#mergeFrom(EntityPacketData)}:
+     * the fields of the newer packet replace those of the older one, the other fields of the older one are kept.
+     * SYNC packets are deltas, so the older one can't be dropped. CONSIST snapshots always contain all fields.
+     *
+     * @return True if waiting packets of this type for the same entity can be merged
+     */
+    public boolean isMergeable(){
+        return this == SYNC || this == CONSIST;
+    }
+    
     public void sendToServer(@Nonnull AbstractRollingStock<?> entity, @Nonnull NBTTagCompound data){
+        this.sendToServer(entity, EntityPacketData.fromNBT(data));
+    }
+    
+    public void sendToServer(@Nonnull AbstractRollingStock<?> entity, @Nonnull EntityPacketData data){
         Traincraft.TC_NETWORK.sendToServer(new PacketTraincraftEntity(entity, this, data));
     }
     
     public void sendToClientsAround(@Nonnull AbstractRollingStock<?> entity, NBTTagCompound data){
-        Traincraft.TC_NETWORK.sendToAllAround(new PacketTraincraftEntity(entity, this, data), new NetworkRegistry.TargetPoint(entity.dimension, entity.posX, entity.posY, entity.posZ, 128));
+        this.sendToClientsAround(entity, EntityPacketData.fromNBT(data));
+    }
+    
+    /**
+     * The packet is queued for every player who is tracking the entity and for all riding players.
+     * It is sent at the end of the tick, or later for distant players, batched with all other entity packets for the same player.
+     *
+     * @see EntityPacketQueue
+     * @see UpdateTier
+     */
+    public void sendToClientsAround(@Nonnull AbstractRollingStock<?> entity, EntityPacketData data){
+        this.sendToClientsTracking(entity, data, Collections.singletonList(entity));
+    }
+    
+    /**
+     * Like {@link #sendToClientsAround(AbstractRollingStock, EntityPacketData)}, but for every player who is tracking or riding
+     * at least one of the tracked entities. Every player gets the packet once, in the tier of the nearest tracked entity.
+     *
+     * @param entity          The entity the packet is for
+     * @param trackedEntities The entities whose tracking players should receive the packet
+     */
+    public void sendToClientsTracking(@Nonnull AbstractRollingStock<?> entity, EntityPacketData data, Collection<? extends AbstractRollingStock<?>> trackedEntities){
+        if(!(entity.world instanceof WorldServer)){
+            return;
+        }
+        PacketTraincraftEntity packet = new PacketTraincraftEntity(entity, this, data);
+        Map<EntityPlayerMP, UpdateTier> receivers = new LinkedHashMap<>();
+        for(AbstractRollingStock<?> tracked : trackedEntities){
+            for(EntityPlayer player : ((WorldServer) entity.world).getEntityTracker().getTrackingPlayers(tracked)){
+                if(player instanceof EntityPlayerMP){
+                    receivers.merge((EntityPlayerMP) player, UpdateTier.of((EntityPlayerMP) player, tracked), TCEntityPackets::nearest);
+                }
+            }
+            for(Entity passenger : tracked.getPassengers()){
+                if(passenger instanceof EntityPlayerMP){
+                    receivers.put((EntityPlayerMP) passenger, UpdateTier.NEAR);
+                }
+            }
+        }
+        receivers.forEach((player, tier) -> EntityPacketQueue.enqueue(player, packet, tier));
+    }
+    
+    private static UpdateTier nearest(UpdateTier a, UpdateTier b){
+        return a.ordinal() <= b.ordinal() ? a : b;
     }
 }
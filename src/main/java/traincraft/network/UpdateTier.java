@@ -0,0 +1,51 @@
+/*
+ * Traincraft
+ * Copyright (c) 2011-2020.
+ *
+ * This file ("UpdateTier.java") is part of the Traincraft mod for Minecraft.
+ * It is created by all people that are listed with @author below.
+ * It is distributed under LGPL-v3.0.
+ * You can find the source code at https://github.com/Traincraft/Traincraft
+ */
+
+package traincraft.network;
+
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.player.EntityPlayerMP;
+import traincraft.api.ConfigHandler;
+
+/**
+ * The update rate of a rolling stock for a single tracking player, depending on the distance between both.
+ * The queued and sent packets per tier are counted by the {@link NetworkStats}.
+ */
+public enum UpdateTier {
+    
+    NEAR,
+    MID,
+    FAR;
+    
+    public static UpdateTier of(EntityPlayerMP player, Entity entity){
+        if(player.isRidingOrBeingRiddenBy(entity)){
+            return NEAR;
+        }
+        double distanceSq = player.getDistanceSq(entity);
+        if(distanceSq <= ConfigHandler.NETWORK_NEAR_DISTANCE * ConfigHandler.NETWORK_NEAR_DISTANCE){
+            return NEAR;
+        }
+        return distanceSq <= ConfigHandler.NETWORK_MID_DISTANCE * ConfigHandler.NETWORK_MID_DISTANCE ? MID : FAR;
+    }
+    
+    /**
+     * @return The number of ticks between two updates
+     */
+    public int getInterval(){
+        switch(this){
+            case MID:
+                return Math.max(1, ConfigHandler.NETWORK_MID_INTERVAL);
+            case FAR:
+                return Math.max(1, ConfigHandler.NETWORK_FAR_INTERVAL);
+            default:
+                return 1;
+        }
+    }
+}
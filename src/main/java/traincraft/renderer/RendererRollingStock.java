@@ -28,6 +28,11 @@ public class RendererRollingStock<T extends AbstractRollingStock<T>> extends Ren
     public void doRender(T entity, double x, double y, double z, float entityYaw, float partialTicks){
         super.doRender(entity, x, y, z, entityYaw, partialTicks);
         
+        if(!entity.hasInitialState()){
+            this.renderPlaceholder(entity, x, y, z, entityYaw);
+            return;
+        }
+        
         GlStateManager.pushMatrix();
         
         entity.preRender(entity, this.renderManager, x, y, z, entityYaw, partialTicks);
@@ -44,6 +49,23 @@ public class RendererRollingStock<T extends AbstractRollingStock<T>> extends Ren
         GlStateManager.popMatrix();
     }
     
+    /**
+     * The untextured model, until the state with the skin, the inventory and so on has arrived.
+     */
+    private void renderPlaceholder(T entity, double x, double y, double z, float entityYaw){
+        GlStateManager.pushMatrix();
+        GlStateManager.translate(x, y, z);
+        GlStateManager.rotate(-entityYaw - 45F, 0.0F, 1.0F, 0.0F);
+        float modelScale = entity.getModelScale(entity);
+        GlStateManager.scale(modelScale, modelScale, modelScale);
+        GlStateManager.disableTexture2D();
+        GlStateManager.color(0.5F, 0.5F, 0.5F, 1.0F);
+        entity.getModel(entity).render();
+        GlStateManager.color(1.0F, 1.0F, 1.0F, 1.0F);
+        GlStateManager.enableTexture2D();
+        GlStateManager.popMatrix();
+    }
+    
     @Nullable
     @Override
     protected ResourceLocation getEntityTexture(T entity){
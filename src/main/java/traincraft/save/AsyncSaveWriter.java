@@ -0,0 +1,115 @@
+/*
+ * Traincraft
+ * Copyright (c) 2011-2020.
+ *
+ * This file ("AsyncSaveWriter.java") is part of the Traincraft mod for Minecraft.
+ * It is created by all people that are listed with @author below.
+ * It is distributed under LGPL-v3.0.
+ * You can find the source code at https://github.com/Traincraft/Traincraft
+ */
+
+package traincraft.save;
+
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import traincraft.Traincraft;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes snapshots of save data on a background thread, so the world save doesn't wait for the compression and the disk.
+ * The server thread only creates the snapshot, a compound which isn't shared with the save data anymore.
+ * <p>
+ * Every file is written to a temporary file first, which is synced to the disk and then moved over the old file, so
+ * a crash leaves either the old or the new file, never a partial one. The directory is synced after the move as well,
+ * so the move itself survives a power loss. If a file gets a new snapshot before the last
+ * one is written, only the newest is written.
+ */
+public final class AsyncSaveWriter {
+    
+    private static final Map<File, NBTTagCompound> PENDING = new LinkedHashMap<>();
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Traincraft save writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    private AsyncSaveWriter(){
+    }
+    
+    /**
+     * @param file     The file to write
+     * @param snapshot The content of the file, compressed when it is written. Must not be changed afterwards
+     */
+    public static void submit(@Nonnull File file, @Nonnull NBTTagCompound snapshot){
+        synchronized(PENDING){
+            if(PENDING.put(file, snapshot) != null){
+                return; // the queued write takes the newer snapshot
+            }
+        }
+        EXECUTOR.execute(() -> {
+            NBTTagCompound nbt;
+            synchronized(PENDING){
+                nbt = PENDING.remove(file);
+            }
+            if(nbt != null){
+                write(file, nbt);
+            }
+        });
+    }
+    
+    /**
+     * Waits until all submitted snapshots are written. Used when a world is unloaded, so a stopping server doesn't lose them.
+     */
+    public static void flush(){
+        try{
+            EXECUTOR.submit(() -> {
+            }).get(1, TimeUnit.MINUTES);
+        } catch(Exception e){
+            Traincraft.LOGGER.error("Traincraft data may not have been saved completely", e);
+        }
+    }
+    
+    private static void write(File file, NBTTagCompound nbt){
+        File temporary = new File(file.getParentFile(), file.getName() + ".tmp");
+        try{
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            CompressedStreamTools.writeCompressed(nbt, bytes); // closes the stream
+            Files.createDirectories(file.getParentFile().toPath());
+            try(FileOutputStream out = new FileOutputStream(temporary)){
+                bytes.writeTo(out);
+                out.getFD().sync();
+            }
+            try{
+                Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch(AtomicMoveNotSupportedException e){
+                Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            syncDirectory(file.getParentFile());
+        } catch(IOException e){
+            Traincraft.LOGGER.error("Can't save '" + file.getAbsolutePath() + "'", e);
+        }
+    }
+    
+    private static void syncDirectory(File directory){
+        try(FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)){
+            channel.force(true);
+        } catch(IOException e){
+            // some systems (e.g. Windows) can't open directories, there the move is as durable as it gets
+        }
+    }
+}
@@ -11,14 +11,39 @@
 package traincraft.save;
 
 import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.world.WorldServer;
 import net.minecraft.world.storage.WorldSavedData;
 import net.minecraftforge.common.util.Constants;
+import traincraft.api.ConsistStore;
 import traincraft.capabilities.WorldWind;
+import traincraft.track.TrackNetwork;
 
+import javax.annotation.Nonnull;
+import java.io.File;
+
+/**
+ * The Traincraft data of a single dimension. It isn't saved by vanilla, but as a snapshot by the {@link AsyncSaveWriter},
+ * into the same file and with the same format, so vanilla still loads it.
+ * <p>
+ * The track network and the consists are only written again when they have changed since the last snapshot, otherwise
+ * the compound of the last snapshot is reused. These compounds are never changed, since the writer may still read them.
+ */
 public class TCDimensionSaveData extends WorldSavedData {
     
     public static final String KEY_WORLD_WIND = "world_wind";
+    public static final String KEY_TRACK_NETWORK = "track_network";
+    public static final String KEY_CONSISTS = "consists";
     private final WorldWind worldWind = new WorldWind(0);
+    private final TrackNetwork trackNetwork = new TrackNetwork(() -> {
+        this.trackNetworkNBT = null;
+        this.markDirty();
+    });
+    private final ConsistStore consistStore = new ConsistStore(() -> {
+        this.consistsNBT = null;
+        this.markDirty();
+    });
+    private NBTTagCompound trackNetworkNBT;
+    private NBTTagCompound consistsNBT;
     
     public TCDimensionSaveData(String name){
         super(name);
@@ -29,16 +54,62 @@ public class TCDimensionSaveData extends WorldSavedData {
         if(nbt.hasKey("world_wind", Constants.NBT.TAG_INT)){
             this.worldWind.setWindStrength(nbt.getInteger(KEY_WORLD_WIND));
         }
+        if(nbt.hasKey(KEY_TRACK_NETWORK, Constants.NBT.TAG_COMPOUND)){
+            this.trackNetwork.readFromNBT(nbt.getCompoundTag(KEY_TRACK_NETWORK));
+        }
+        if(nbt.hasKey(KEY_CONSISTS, Constants.NBT.TAG_COMPOUND)){
+            this.consistStore.readFromNBT(nbt.getCompoundTag(KEY_CONSISTS));
+        }
+        this.trackNetworkNBT = null;
+        this.consistsNBT = null;
     }
     
     @Override
     public NBTTagCompound writeToNBT(NBTTagCompound nbt){
         nbt.setInteger(KEY_WORLD_WIND, this.worldWind.getWindStrength());
+        if(this.trackNetworkNBT == null){
+            this.trackNetworkNBT = this.trackNetwork.writeToNBT(new NBTTagCompound());
+        }
+        if(this.consistsNBT == null){
+            this.consistsNBT = this.consistStore.writeToNBT(new NBTTagCompound());
+        }
+        nbt.setTag(KEY_TRACK_NETWORK, this.trackNetworkNBT);
+        nbt.setTag(KEY_CONSISTS, this.consistsNBT);
         return nbt;
     }
     
+    /**
+     * Always false, so vanilla doesn't write this on the server thread.
+     */
+    @Override
+    public boolean isDirty(){
+        return false;
+    }
+    
+    /**
+     * Called on every world save. If there are changes, the snapshot is taken now and written in the background.
+     * Only the changed parts are written on the server thread.
+     */
+    public void saveAsync(@Nonnull WorldServer world){
+        if(!super.isDirty()){
+            return;
+        }
+        this.setDirty(false);
+        NBTTagCompound nbt = new NBTTagCompound();
+        nbt.setTag("data", this.writeToNBT(new NBTTagCompound())); // like MapStorage
+        AsyncSaveWriter.submit(new File(new File(world.getChunkSaveLocation(), "data"), this.mapName + ".dat"), nbt);
+    }
+    
     public WorldWind getWorldWind(){
         return this.worldWind;
     }
     
+    public TrackNetwork getTrackNetwork(){
+        return this.trackNetwork;
+    }
+    
+    public ConsistStore getConsistStore(){
+        return this.consistStore;
+    }
+    
 }
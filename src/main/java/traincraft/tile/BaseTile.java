@@ -38,13 +38,24 @@ import net.minecraftforge.fluids.capability.IFluidHandler;
 import net.minecraftforge.items.CapabilityItemHandler;
 import net.minecraftforge.items.IItemHandler;
 import net.minecraftforge.items.wrapper.InvWrapper;
+import traincraft.network.NBTDelta;
+import traincraft.network.NetworkStats;
+import traincraft.network.PacketCapture;
+import traincraft.network.RegistryPalette;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 public abstract class BaseTile extends TileEntity {
     
+    /**
+     * The position and the action of a {@link SPacketUpdateTileEntity}, in front of the compound.
+     */
+    private static final int UPDATE_PACKET_HEADER_BYTES = 9;
+    
     private boolean sync = false;
+    private NBTTagCompound lastSyncData;
+    private long lastSyncTime = -1L;
     
     @Override
     public final void readFromNBT(@Nonnull NBTTagCompound compound){
@@ -63,14 +74,37 @@ public abstract class BaseTile extends TileEntity {
     @Nullable
     @Override
     public SPacketUpdateTileEntity getUpdatePacket(){
-        NBTTagCompound compound = new NBTTagCompound();
-        this.writeNBT(compound, NBTState.SYNC);
-        return new SPacketUpdateTileEntity(getPos(), 0, compound);
+        return new SPacketUpdateTileEntity(getPos(), 0, this.getCurrentSyncData().copy());
+    }
+    
+    /**
+     * The full sync state for players which start watching this tile. The following syncs are only deltas.
+     */
+    @Nonnull
+    @Override
+    public NBTTagCompound getUpdateTag(){
+        NBTTagCompound compound = super.getUpdateTag();
+        compound.merge(this.getCurrentSyncData());
+        return compound;
+    }
+    
+    @Override
+    public void handleUpdateTag(@Nonnull NBTTagCompound tag){
+        this.readNBT(tag, NBTState.SYNC);
     }
     
     @Override
     public final void onDataPacket(@Nonnull NetworkManager net, @Nonnull SPacketUpdateTileEntity pkt){
-        this.readNBT(pkt.getNbtCompound(), NBTState.SYNC);
+        NetworkStats.recordTileUpdate(NetworkStats.Direction.RECEIVED, this.getClass(), 1, UPDATE_PACKET_HEADER_BYTES + NetworkStats.sizeOf(pkt.getNbtCompound()));
+        NBTDelta.getRemovedKeys(pkt.getNbtCompound()).forEach(this::resetSyncKey);
+        this.readNBT(pkt.getNbtCompound(), NBTState.SYNC); // already decoded by the network thread, see RegistryPalette
+    }
+    
+    /**
+     * Client side: Resets the field of a key, which isn't part of the sync state anymore. See {@link NBTDelta}
+     * Tiles which leave out some of their sync keys have to override this.
+     */
+    protected void resetSyncKey(@Nonnull String key){
     }
     
     @Override
@@ -123,25 +157,72 @@ public abstract class BaseTile extends TileEntity {
     
     /**
      * Update method for checking things like syncing. Has to be called by the tile itself.
-     * This approach was chosen to avoid every BaseTile from ticking
+     * This approach was chosen to avoid every BaseTile from ticking.
+     * Only the fields which have changed since the last sync are sent, and nothing if nothing has changed.
+     * A requested sync waits until {@link #getMinSyncInterval()} has passed since the last one.
      */
     protected final void updateBaseTile(){
         if(this.sync){
-            this.sync = false;
             if(this.world instanceof WorldServer){
-                SPacketUpdateTileEntity updatePacket = this.getUpdatePacket();
-                if(updatePacket != null){
-                    PlayerChunkMapEntry entry = ((WorldServer) this.world).getPlayerChunkMap().getEntry(this.pos.getX() >> 4, this.getPos().getZ() >> 4);
-                    if(entry != null){
-                        for(EntityPlayerMP player : entry.getWatchingPlayers()){
-                            player.connection.sendPacket(updatePacket);
-                        }
-                    }
+                long time = this.world.getTotalWorldTime();
+                if(this.lastSyncTime >= 0L && time - this.lastSyncTime < this.getMinSyncInterval()){
+                    return; // the sync is kept until the interval is over
+                }
+                this.sync = false;
+                NBTTagCompound syncData = new NBTTagCompound();
+                this.writeNBT(syncData, NBTState.SYNC);
+                NBTTagCompound delta = this.lastSyncData != null ? NBTDelta.diff(this.lastSyncData, syncData) : syncData;
+                this.lastSyncData = syncData;
+                if(!delta.getKeySet().isEmpty()){
+                    this.sendDelta((WorldServer) this.world, delta);
                 }
+            } else{
+                this.sync = false;
             }
         }
     }
     
+    private void sendDelta(WorldServer world, NBTTagCompound delta){
+        this.lastSyncTime = world.getTotalWorldTime();
+        PlayerChunkMapEntry entry = world.getPlayerChunkMap().getEntry(this.pos.getX() >> 4, this.getPos().getZ() >> 4);
+        if(entry != null && !entry.getWatchingPlayers().isEmpty()){
+            int bytes = 0;
+            for(EntityPlayerMP player : entry.getWatchingPlayers()){
+                NBTTagCompound encoded = RegistryPalette.encode(player, RegistryPalette.Channel.TILE, delta); // every player has its own palette
+                PacketCapture.recordTileUpdate(player, this, encoded);
+                bytes += UPDATE_PACKET_HEADER_BYTES + NetworkStats.sizeOf(encoded);
+                player.connection.sendPacket(new SPacketUpdateTileEntity(this.getPos(), RegistryPalette.TILE_UPDATE_ACTION, encoded)); // decoded in place by a local client
+            }
+            NetworkStats.recordTileUpdate(NetworkStats.Direction.SENT, this.getClass(), entry.getWatchingPlayers().size(), bytes);
+        }
+    }
+    
+    /**
+     * The current sync state, which the following deltas are made from. Changes since the last sync are sent to the
+     * watching players first, so they don't miss them.
+     *
+     * @return The current sync state. Must not be changed
+     */
+    private NBTTagCompound getCurrentSyncData(){
+        NBTTagCompound syncData = new NBTTagCompound();
+        this.writeNBT(syncData, NBTState.SYNC);
+        if(this.lastSyncData != null && this.world instanceof WorldServer){
+            NBTTagCompound delta = NBTDelta.diff(this.lastSyncData, syncData);
+            if(!delta.getKeySet().isEmpty()){
+                this.sendDelta((WorldServer) this.world, delta);
+            }
+        }
+        this.lastSyncData = syncData;
+        return syncData;
+    }
+    
+    /**
+     * @return The minimum number of ticks between two syncs of this tile
+     */
+    protected int getMinSyncInterval(){
+        return 4;
+    }
+    
     public void syncToClient(){
         this.sync = true;
     }
@@ -208,7 +289,7 @@ public abstract class BaseTile extends TileEntity {
     }
     
     public void onBlockPlacedBy(EntityLivingBase placer, ItemStack stack){
-    
+        
     }
     
     public boolean onBlockInteraction(EntityPlayer player, EnumHand hand, EnumFacing facing, float hitX, float hitY, float hitZ){
@@ -216,7 +297,7 @@ public abstract class BaseTile extends TileEntity {
     }
     
     public void onNeighborChange(@Nonnull BlockPos neighbor, EnumFacing facing){
-    
+        
     }
     
     public enum NBTState {
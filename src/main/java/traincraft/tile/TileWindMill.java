@@ -32,20 +32,24 @@ public class TileWindMill extends BaseTile implements ITickable {
     @Override
     public void update(){
         if(!this.world.isRemote){
-            if(this.world.getTotalWorldTime() % 10 == 0){
-                this.generateEnergy();
+            if(this.world.getTotalWorldTime() % 10 == 0 && this.generateEnergy()){
                 this.syncToClient();
             }
+            this.updateBaseTile();
         }
     }
     
-    private void generateEnergy(){
+    /**
+     * @return True if energy was generated
+     */
+    private boolean generateEnergy(){
         WorldWind wind = this.world.getCapability(CapabilityWorldWind.WORLD_WIND, null);
         if(wind != null){
             int energyToGenerate = wind.getWindStrength() * ENERGY_PER_WIND_STRENGTH;
             if(energyToGenerate > 0){
-                this.storage.forceReceiveEnergy(energyToGenerate, false);
+                return this.storage.forceReceiveEnergy(energyToGenerate, false) > 0;
             }
         }
+        return false;
     }
 }
@@ -0,0 +1,31 @@
+/*
+ * Traincraft
+ * Copyright (c) 2011-2020.
+ *
+ * This file ("ITrackOccupancyListener.java") is part of the Traincraft mod for Minecraft.
+ * It is created by all people that are listed with @author below.
+ * It is distributed under LGPL-v3.0.
+ * You can find the source code at https://github.com/Traincraft/Traincraft
+ */
+
+package traincraft.track;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Receives the occupancy changes of {@link TrackSegment}s, which pass through a watched block position.
+ *
+ * @see TrackOccupancy#subscribe(net.minecraft.util.math.BlockPos, ITrackOccupancyListener)
+ */
+public interface ITrackOccupancyListener {
+    
+    /**
+     * Called when the first rolling stock enters a segment or the last one leaves it.
+     * It is not called while further rolling stock move within an already occupied segment.
+     *
+     * @param segment  The segment, which occupancy has changed
+     * @param occupied True if the segment is occupied now, false if it is free now
+     */
+    void onOccupancyChanged(@Nonnull TrackSegment segment, boolean occupied);
+    
+}
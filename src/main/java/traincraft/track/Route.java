@@ -0,0 +1,69 @@
+/*
+ * Traincraft
+ * Copyright (c) 2011-2020.
+ *
+ * This file ("Route.java") is part of the Traincraft mod for Minecraft.
+ * It is created by all people that are listed with @author below.
+ * It is distributed under LGPL-v3.0.
+ * You can find the source code at https://github.com/Traincraft/Traincraft
+ */
+
+package traincraft.track;
+
+import com.google.common.collect.ImmutableList;
+import net.minecraft.util.math.BlockPos;
+
+/**
+ * An immutable path through the {@link TrackNetwork}, computed by the {@link RoutePlanner}.
+ * The nodes list always has exactly one more entry than the segments list.
+ * A route is only valid for the network generation it was computed from.
+ */
+public final class Route {
+    
+    private final long generation;
+    private final ImmutableList<BlockPos> nodes;
+    private final ImmutableList<TrackSegment> segments;
+    private final double length;
+    
+    public Route(long generation, ImmutableList<BlockPos> nodes, ImmutableList<TrackSegment> segments){
+        this.generation = generation;
+        this.nodes = nodes;
+        this.segments = segments;
+        double length = 0.0D;
+        for(TrackSegment segment : segments){
+            length += segment.getLength();
+        }
+        this.length = length;
+    }
+    
+    public long getGeneration(){
+        return this.generation;
+    }
+    
+    public ImmutableList<BlockPos> getNodes(){
+        return this.nodes;
+    }
+    
+    public ImmutableList<TrackSegment> getSegments(){
+        return this.segments;
+    }
+    
+    public BlockPos getStart(){
+        return this.nodes.get(0);
+    }
+    
+    public BlockPos getDestination(){
+        return this.nodes.get(this.nodes.size() - 1);
+    }
+    
+    /**
+     * @return The length of the whole route in blocks (meter)
+     */
+    public double getLength(){
+        return this.length;
+    }
+    
+    public boolean isValidFor(TrackNetwork network){
+        return this.generation == network.getGeneration();
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Traincraft
+ * Copyright (c) 2011-2020.
+ *
+ * This file ("RoutePlanner.java") is part of the Traincraft mod for Minecraft.
+ * It is created by all people that are listed with @author below.
+ * It is distributed under LGPL-v3.0.
+ * You can find the source code at https://github.com/Traincraft/Traincraft
+ */
+
+package traincraft.track;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldServer;
+import net.minecraftforge.common.DimensionManager;
+import traincraft.Traincraft;
+import traincraft.event.TCEvents;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Computes {@link Route}s on a small, bounded worker pool, so large re-routes don't spike the server tick.
+ * The workers only ever see an immutable {@link TrackNetworkSnapshot}.
+ * Finished routes are handed back to the server thread and the returned futures are completed there, at the start of the next tick.
+ * If the track network has changed in the meantime (different generation), the result is discarded and the future is cancelled.
+ */
+public class RoutePlanner {
+    
+    private static final int WORKER_COUNT = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+    private static final int MAX_QUEUED_REQUESTS = 64;
+    private static final ExecutorService EXECUTOR = new ThreadPoolExecutor(
+        WORKER_COUNT,
+        WORKER_COUNT,
+        0L,
+        TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(MAX_QUEUED_REQUESTS),
+        new ThreadFactoryBuilder().setNameFormat("Traincraft Route Planner #%d").setDaemon(true).build(),
+        new ThreadPoolExecutor.AbortPolicy());
+    private static final Queue<FinishedRoute> FINISHED_ROUTES = new ConcurrentLinkedQueue<>();
+    
+    /**
+     * Requests a route between two nodes of the track network of the given world.
+     * Has to be called from the server thread.
+     *
+     * @param world The world of the track network
+     * @param from  The start node
+     * @param to    The destination node
+     * @return A future which is completed on the server thread. It completes with null if there is no route between both nodes,
+     * or is cancelled if the network has changed before the result could be applied.
+     */
+    public static CompletableFuture<Route> requestRoute(@Nonnull World world, @Nonnull BlockPos from, @Nonnull BlockPos to){
+        CompletableFuture<Route> future = new CompletableFuture<>();
+        TrackNetworkSnapshot snapshot = TCEvents.getSaveData(world).getTrackNetwork().snapshot();
+        int dimension = world.provider.getDimension();
+        try{
+            EXECUTOR.execute(() -> {
+                try{
+                    FINISHED_ROUTES.add(new FinishedRoute(dimension, snapshot.getGeneration(), future, computeRoute(snapshot, from.toImmutable(), to.toImmutable()), null));
+                } catch(Throwable throwable){
+                    FINISHED_ROUTES.add(new FinishedRoute(dimension, snapshot.getGeneration(), future, null, throwable));
+                }
+            });
+        } catch(RejectedExecutionException e){
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+    
+    /**
+     * Applies all routes which were finished since the last call. Called once per server tick from {@link TCEvents}.
+     */
+    public static void applyFinishedRoutes(){
+        FinishedRoute finished;
+        while((finished = FINISHED_ROUTES.poll()) != null){
+            WorldServer world = DimensionManager.getWorld(finished.dimension);
+            if(world == null || TCEvents.getSaveData(world).getTrackNetwork().getGeneration() != finished.generation){
+                finished.future.cancel(false); // stale result
+            } else if(finished.throwable != null){
+                Traincraft.LOGGER.error("Route computation failed!", finished.throwable);
+                finished.future.completeExceptionally(finished.throwable);
+            } else{
+                finished.future.complete(finished.route);
+            }
+        }
+    }
+    
+    /**
+     * Dijkstra search over the snapshot. The search state is the node together with the segment it was reached by,
+     * since switches only allow specific segment combinations.
+     */
+    @Nullable
+    public static Route computeRoute(@Nonnull TrackNetworkSnapshot snapshot, @Nonnull BlockPos from, @Nonnull BlockPos to){
+        if(!snapshot.hasNode(from) || !snapshot.hasNode(to)){
+            return null;
+        }
+        PriorityQueue<Step> open = new PriorityQueue<>(Comparator.comparingDouble(step -> step.distance));
+        Map<BlockPos, Set<Integer>> settled = new HashMap<>();
+        open.add(new Step(from, null, 0.0D, null));
+        Step step;
+        while((step = open.poll()) != null){
+            int incoming = step.segment != null ? step.segment.getId() : -1;
+            if(!settled.computeIfAbsent(step.node, pos -> new HashSet<>()).add(incoming)){
+                continue;
+            }
+            if(step.node.equals(to)){
+                return buildRoute(snapshot.getGeneration(), step);
+            }
+            TrackSwitch trackSwitch = snapshot.getSwitch(step.node);
+            for(TrackSegment segment : snapshot.getSegmentsAt(step.node)){
+                if(segment.getId() == incoming){
+                    continue;
+                }
+                if(trackSwitch != null && incoming != -1 && !trackSwitch.canPass(incoming, segment.getId())){
+                    continue;
+                }
+                open.add(new Step(segment.getOtherNode(step.node), segment, step.distance + segment.getLength(), step));
+            }
+        }
+        return null;
+    }
+    
+    private static Route buildRoute(long generation, Step last){
+        LinkedList<BlockPos> nodes = new LinkedList<>();
+        LinkedList<TrackSegment> segments = new LinkedList<>();
+        for(Step step = last; step != null; step = step.previous){
+            nodes.addFirst(step.node);
+            if(step.segment != null){
+                segments.addFirst(step.segment);
+            }
+        }
+        return new Route(generation, ImmutableList.copyOf(nodes), ImmutableList.copyOf(segments));
+    }
+    
+    private static class Step {
+        
+        private final BlockPos node;
+        private final TrackSegment segment;
+        private final double distance;
+        private final Step previous;
+        
+        private Step(BlockPos node, TrackSegment segment, double distance, Step previous){
+            this.node = node;
+            this.segment = segment;
+            this.distance = distance;
+            this.previous = previous;
+        }
+    }
+    
+    private static class FinishedRoute {
+        
+        private final int dimension;
+        private final long generation;
+        private final CompletableFuture<Route> future;
+        private final Route route;
+        private final Throwable throwable;
+        
+        private FinishedRoute(int dimension, long generation, CompletableFuture<Route> future, Route route, Throwable throwable){
+            this.dimension = dimension;
+            this.generation = generation;
+            this.future = future;
+            this.route = route;
+            this.throwable = throwable;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Traincraft
+ * Copyright (c) 2011-2020.
+ *
+ * This file ("SpeedProfile.java") is part of the Traincraft mod for Minecraft.
+ * It is created by all people that are listed with @author below.
+ * It is distributed under LGPL-v3.0.
+ * You can find the source code at https://github.com/Traincraft/Traincraft
+ */
+
+package traincraft.track;
+
+import javax.annotation.Nonnull;
+
+/**
+ * The precomputed target speed along a {@link Route}.
+ * It is built once per route from the line speed limits and the braking curve of the train,
+ * so the per tick control is a single array lookup by the distance already driven on the route.
+ */
+public final class SpeedProfile {
+    
+    /**
+     * The distance between two samples in blocks (meter).
+     */
+    public static final double SAMPLE_DISTANCE = 0.5D;
+    
+    private final float[] targetSpeeds;
+    private final double length;
+    
+    private SpeedProfile(float[] targetSpeeds, double length){
+        this.targetSpeeds = targetSpeeds;
+        this.length = length;
+    }
+    
+    /**
+     * @param route        The route to drive
+     * @param maxSpeed     The maximum speed of the train in m/s
+     * @param deceleration The service braking deceleration of the train in m/s². Should be greater than zero
+     * @return The profile, which ends with a full stop at the end of the route
+     */
+    public static SpeedProfile create(@Nonnull Route route, double maxSpeed, double deceleration){
+        int sampleCount = (int) Math.ceil(route.getLength() / SAMPLE_DISTANCE) + 1;
+        float[] targetSpeeds = new float[sampleCount];
+        
+        // forward pass: line speed limits
+        int sample = 0;
+        double segmentEnd = 0.0D;
+        for(TrackSegment segment : route.getSegments()){
+            segmentEnd += segment.getLength();
+            float limit = (float) (segment.hasSpeedLimit() ? Math.min(maxSpeed, segment.getSpeedLimit()) : maxSpeed);
+            for(; sample < sampleCount && sample * SAMPLE_DISTANCE <= segmentEnd; sample++){
+                targetSpeeds[sample] = limit;
+            }
+        }
+        targetSpeeds[sampleCount - 1] = 0.0F;
+        
+        // backward pass: braking curves v² = v_next² + 2 * a * s in front of every lower target speed
+        double brakingTerm = 2.0D * Math.max(deceleration, 0.01D) * SAMPLE_DISTANCE;
+        for(int i = sampleCount - 2; i >= 0; i--){
+            float next = targetSpeeds[i + 1];
+            targetSpeeds[i] = (float) Math.min(targetSpeeds[i], Math.sqrt(next * next + brakingTerm));
+        }
+        return new SpeedProfile(targetSpeeds, route.getLength());
+    }
+    
+    /**
+     * @param distance The distance already driven on the route in blocks (meter)
+     * @return The speed the train should have at this distance in m/s
+     */
+    public double getTargetSpeed(double distance){
+        int index = (int) (distance / SAMPLE_DISTANCE);
+        if(index < 0){
+            return this.targetSpeeds[0];
+        }
+        return index < this.targetSpeeds.length ? this.targetSpeeds[index] : 0.0D;
+    }
+    
+    public double getLength(){
+        return this.length;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Traincraft
+ * Copyright (c) 2011-2020.
+ *
+ * This file ("TrackEnvironment.java") is part of the Traincraft mod for Minecraft.
+ * It is created by all people that are listed with @author below.
+ * It is distributed under LGPL-v3.0.
+ * You can find the source code at https://github.com/Traincraft/Traincraft
+ */
+
+package traincraft.track;
+
+import net.minecraft.block.material.Material;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.entity.Entity;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.*;
+
+/**
+ * The environment of a {@link TrackSegment}, computed once from the blocks around it: every block up to
+ * {@link #MAX_GAUGE_HEIGHT} above the track positions and up to {@link #MAX_GAUGE_HALF_WIDTH} to their sides.
+ * Rolling stock on the segment asks for the {@link Area} within its own bounds, instead of searching the blocks around it every tick.
+ *
+ * @see TrackNetwork#getEnvironment(World, TrackSegment)
+ */
+public final class TrackEnvironment {
+    
+    /**
+     * The height of the computed area in blocks, including the track position itself.
+     */
+    public static final int MAX_GAUGE_HEIGHT = 4;
+    
+    /**
+     * The blocks on each side of the track positions which are part of the computed area.
+     */
+    public static final int MAX_GAUGE_HALF_WIDTH = 1;
+    
+    private static final byte BLOCK = 1, SOLID = 2, WATER = 4, LAVA = 8;
+    
+    private final Map<BlockPos, Byte> cells; // every computed block, air included
+    private final boolean complete;
+    
+    private TrackEnvironment(Map<BlockPos, Byte> cells, boolean complete){
+        this.cells = cells;
+        this.complete = complete;
+    }
+    
+    public static TrackEnvironment compute(@Nonnull World world, @Nonnull TrackSegment segment){
+        Map<BlockPos, Byte> cells = new HashMap<>();
+        Set<BlockPos> trackLevel = new HashSet<>();
+        boolean complete = true;
+        for(BlockPos pos : segment.computeCoveredPositions()){
+            for(int x = -MAX_GAUGE_HALF_WIDTH; x <= MAX_GAUGE_HALF_WIDTH; x++){
+                for(int z = -MAX_GAUGE_HALF_WIDTH; z <= MAX_GAUGE_HALF_WIDTH; z++){
+                    trackLevel.add(pos.add(x, 0, z));
+                    for(int y = 0; y < MAX_GAUGE_HEIGHT; y++){
+                        BlockPos cell = pos.add(x, y, z);
+                        if(cells.containsKey(cell)){
+                            continue;
+                        }
+                        if(!world.isBlockLoaded(cell)){
+                            complete = false;
+                            continue;
+                        }
+                        IBlockState state = world.getBlockState(cell);
+                        Material material = state.getMaterial();
+                        byte flags = state.getBlock().isAir(state, world, cell) ? 0 : BLOCK;
+                        if(material == Material.WATER){
+                            flags |= WATER;
+                        } else if(material == Material.LAVA){
+                            flags |= LAVA;
+                        } else if(state.getCollisionBoundingBox(world, cell) != null){
+                            flags |= SOLID;
+                        }
+                        cells.put(cell, flags);
+                    }
+                }
+            }
+        }
+        // the height of the track itself is allowed to have collision boxes, everything above blocks the way
+        for(BlockPos cell : trackLevel){
+            cells.computeIfPresent(cell, (c, flags) -> (byte) (flags & ~SOLID));
+        }
+        return new TrackEnvironment(cells, complete);
+    }
+    
+    /**
+     * @param min The lowest block within the bounds of the rolling stock
+     * @param max The highest block within the bounds of the rolling stock
+     * @return The environment within the bounds, or null if they reach out of the computed area, like over the end of the segment
+     */
+    @Nullable
+    public Area getArea(@Nonnull BlockPos min, @Nonnull BlockPos max){
+        boolean obstructed = false, water = false, lava = false;
+        List<BlockPos> blocks = new ArrayList<>(0);
+        BlockPos.MutableBlockPos cell = new BlockPos.MutableBlockPos();
+        for(int x = min.getX(); x <= max.getX(); x++){
+            for(int y = min.getY(); y <= max.getY(); y++){
+                for(int z = min.getZ(); z <= max.getZ(); z++){
+                    Byte flags = this.cells.get(cell.setPos(x, y, z));
+                    if(flags == null){
+                        return null;
+                    }
+                    obstructed |= (flags & SOLID) != 0;
+                    water |= (flags & WATER) != 0;
+                    lava |= (flags & LAVA) != 0;
+                    if((flags & BLOCK) != 0){
+                        blocks.add(cell.toImmutable());
+                    }
+                }
+            }
+        }
+        return new Area(obstructed, water, lava, blocks);
+    }
+    
+    /**
+     * @return False if parts of the segment were not loaded while computing. Those environments aren't cached
+     */
+    public boolean isComplete(){
+        return this.complete;
+    }
+    
+    /**
+     * The environment within the bounds of a single rolling stock.
+     */
+    public static final class Area {
+        
+        private final boolean obstructed, water, lava;
+        private final List<BlockPos> blocks; // everything but air, for the collision callbacks
+        
+        private Area(boolean obstructed, boolean water, boolean lava, List<BlockPos> blocks){
+            this.obstructed = obstructed;
+            this.water = water;
+            this.lava = lava;
+            this.blocks = blocks;
+        }
+        
+        /**
+         * @return True if there is a solid block within the bounds, above the height of the track
+         */
+        public boolean isObstructed(){
+            return this.obstructed;
+        }
+        
+        public boolean isInWater(){
+            return this.water;
+        }
+        
+        public boolean isInLava(){
+            return this.lava;
+        }
+        
+        /**
+         * Calls {@link net.minecraft.block.Block#onEntityCollidedWithBlock} of every block within the bounds, like {@link Entity#doBlockCollisions()}.
+         */
+        public void collideWithBlocks(@Nonnull Entity entity){
+            for(BlockPos pos : this.blocks){
+                IBlockState state = entity.world.getBlockState(pos);
+                state.getBlock().onEntityCollidedWithBlock(entity.world, pos, state, entity);
+            }
+        }
+    }
+}
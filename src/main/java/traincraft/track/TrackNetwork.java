@@ -0,0 +1,291 @@
+/*
+ * Traincraft
+ * Copyright (c) 2011-2020.
+ *
+ * This file ("TrackNetwork.java") is part of the Traincraft mod for Minecraft.
+ * It is created by all people that are listed with @author below.
+ * It is distributed under LGPL-v3.0.
+ * You can find the source code at https://github.com/Traincraft/Traincraft
+ */
+
+package traincraft.track;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import net.minecraftforge.common.util.Constants;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The track graph of a single dimension. Nodes are block positions, the edges are {@link TrackSegment}s.
+ * This is owned by the server thread and must only be modified from there.
+ * Every modification increases the generation number, which is used to detect outdated {@link TrackNetworkSnapshot}s
+ * and everything that was computed from them (e.g.: {@link Route}s).
+ * On the server the segments and switches are saved in a {@link TrackRegionStore}, only worlds from before the region
+ * store have them in the nbt of the save data.
+ * <p>
+ * Nothing adds the placed track yet, so the network stays empty in normal worlds. Everything built on it (routes,
+ * automatic train operation, occupancy, track detectors) only works with segments added through the api until then.
+ *
+ * @see traincraft.save.TCDimensionSaveData#getTrackNetwork()
+ */
+public class TrackNetwork {
+    
+    private final Map<Integer, TrackSegment> segments = new HashMap<>();
+    private final ListMultimap<BlockPos, TrackSegment> nodes = ArrayListMultimap.create();
+    private final Map<BlockPos, TrackSwitch> switches = new HashMap<>();
+    private final Map<BlockPos, TrackSegment> positions = new HashMap<>();
+    private final Map<Integer, TrackEnvironment> environments = new HashMap<>();
+    private final TrackOccupancy occupancy = new TrackOccupancy();
+    private final Runnable dirtyListener;
+    private int nextSegmentId = 1;
+    private long generation = 0L;
+    private TrackNetworkSnapshot snapshot;
+    private TrackRegionStore store;
+    
+    /**
+     * @param dirtyListener Called every time the network is changed, to mark the owning save data dirty
+     */
+    public TrackNetwork(Runnable dirtyListener){
+        this.dirtyListener = dirtyListener;
+    }
+    
+    public TrackSegment addSegment(@Nonnull BlockPos start, @Nonnull BlockPos end, double length, double speedLimit){
+        TrackSegment segment = new TrackSegment(this.nextSegmentId++, start, end, length, speedLimit);
+        this.segments.put(segment.getId(), segment);
+        this.nodes.put(segment.getStart(), segment);
+        this.nodes.put(segment.getEnd(), segment);
+        this.indexPositions(segment);
+        if(this.store != null){
+            this.store.putSegment(segment);
+        }
+        this.onChanged();
+        return segment;
+    }
+    
+    public void removeSegment(int id){
+        TrackSegment segment = this.segments.remove(id);
+        if(segment != null){
+            this.nodes.remove(segment.getStart(), segment);
+            this.nodes.remove(segment.getEnd(), segment);
+            this.switches.values().removeIf(trackSwitch -> trackSwitch.getTrunk() == id || trackSwitch.getSelected() == id);
+            this.positions.values().removeIf(segment::equals);
+            // neighbours may have shared positions with the removed segment
+            this.nodes.get(segment.getStart()).forEach(this::indexPositions);
+            this.nodes.get(segment.getEnd()).forEach(this::indexPositions);
+            this.occupancy.onSegmentRemoved(segment);
+            this.environments.remove(id);
+            if(this.store != null){
+                this.store.removeSegment(id);
+            }
+            this.onChanged();
+        }
+    }
+    
+    public void setSwitch(@Nonnull TrackSwitch trackSwitch){
+        if(!trackSwitch.equals(this.switches.put(trackSwitch.getNode(), trackSwitch))){
+            if(this.store != null){
+                this.store.putSwitch(trackSwitch);
+            }
+            this.onChanged();
+        }
+    }
+    
+    public void removeSwitch(@Nonnull BlockPos node){
+        if(this.switches.remove(node) != null){
+            if(this.store != null){
+                this.store.removeSwitch(node);
+            }
+            this.onChanged();
+        }
+    }
+    
+    @Nullable
+    public TrackSegment getSegment(int id){
+        return this.segments.get(id);
+    }
+    
+    public Collection<TrackSegment> getSegments(){
+        return Collections.unmodifiableCollection(this.segments.values());
+    }
+    
+    public Collection<TrackSegment> getSegmentsAt(@Nonnull BlockPos node){
+        return Collections.unmodifiableCollection(this.nodes.get(node));
+    }
+    
+    /**
+     * @param pos Any block position
+     * @return The segment which passes through the given block, or null if there is none
+     */
+    @Nullable
+    public TrackSegment getSegmentAt(@Nonnull BlockPos pos){
+        return this.positions.get(pos);
+    }
+    
+    /**
+     * The environment is computed on the first request and cached until a block within its computed area changes.
+     *
+     * @param world   The world of this network
+     * @param segment A segment of this network
+     * @return The environment of the segment
+     * @see #invalidateEnvironment(BlockPos)
+     */
+    public TrackEnvironment getEnvironment(@Nonnull World world, @Nonnull TrackSegment segment){
+        TrackEnvironment environment = this.environments.get(segment.getId());
+        if(environment == null){
+            environment = TrackEnvironment.compute(world, segment);
+            if(environment.isComplete()){
+                this.environments.put(segment.getId(), environment);
+            }
+        }
+        return environment;
+    }
+    
+    /**
+     * Called on every block change. Removes the cached environment of all segments with the changed block in their computed area.
+     *
+     * @param pos The changed block position
+     */
+    public void invalidateEnvironment(@Nonnull BlockPos pos){
+        if(this.environments.isEmpty()){
+            return;
+        }
+        BlockPos.MutableBlockPos checkPos = new BlockPos.MutableBlockPos();
+        for(int x = -TrackEnvironment.MAX_GAUGE_HALF_WIDTH; x <= TrackEnvironment.MAX_GAUGE_HALF_WIDTH; x++){
+            for(int z = -TrackEnvironment.MAX_GAUGE_HALF_WIDTH; z <= TrackEnvironment.MAX_GAUGE_HALF_WIDTH; z++){
+                for(int y = 0; y < TrackEnvironment.MAX_GAUGE_HEIGHT; y++){
+                    TrackSegment segment = this.positions.get(checkPos.setPos(pos.getX() - x, pos.getY() - y, pos.getZ() - z));
+                    if(segment != null){
+                        this.environments.remove(segment.getId());
+                    }
+                    // nodes are shared by multiple segments, but only one of them is in the position index
+                    for(TrackSegment nodeSegment : this.nodes.get(checkPos)){
+                        this.environments.remove(nodeSegment.getId());
+                    }
+                }
+            }
+        }
+    }
+    
+    public TrackOccupancy getOccupancy(){
+        return this.occupancy;
+    }
+    
+    @Nullable
+    public TrackSwitch getSwitch(@Nonnull BlockPos node){
+        return this.switches.get(node);
+    }
+    
+    public long getGeneration(){
+        return this.generation;
+    }
+    
+    /**
+     * Creates an immutable copy of this network, which can be safely read from other threads.
+     * The snapshot is cached until the next modification, so calling this multiple times per tick is cheap.
+     *
+     * @return The snapshot for the current generation
+     */
+    public TrackNetworkSnapshot snapshot(){
+        if(this.snapshot == null){
+            this.snapshot = new TrackNetworkSnapshot(this.generation, this.segments.values(), this.switches.values());
+        }
+        return this.snapshot;
+    }
+    
+    /**
+     * Server side: Saves this network in the region store from now on. The network is loaded from the store, or, if the
+     * store is still empty, the network from the nbt is moved into it.
+     */
+    public void attachStore(@Nonnull TrackRegionStore store) throws IOException{
+        if(store.isEmpty()){
+            this.segments.values().forEach(store::putSegment);
+            this.switches.values().forEach(store::putSwitch);
+        } else{
+            this.clear();
+            store.load(segment -> {
+                this.segments.put(segment.getId(), segment);
+                this.nodes.put(segment.getStart(), segment);
+                this.nodes.put(segment.getEnd(), segment);
+                this.indexPositions(segment);
+                this.nextSegmentId = Math.max(this.nextSegmentId, segment.getId() + 1);
+            }, trackSwitch -> this.switches.put(trackSwitch.getNode(), trackSwitch));
+        }
+        this.store = store;
+        this.onChanged(); // the save data doesn't need the segments anymore
+    }
+    
+    @Nullable
+    public TrackRegionStore getStore(){
+        return this.store;
+    }
+    
+    private void clear(){
+        this.segments.clear();
+        this.nodes.clear();
+        this.switches.clear();
+        this.positions.clear();
+        this.environments.clear();
+    }
+    
+    private void indexPositions(TrackSegment segment){
+        for(BlockPos pos : segment.computeCoveredPositions()){
+            // on shared positions (e.g. nodes) the first segment wins, so the lookup stays stable
+            this.positions.putIfAbsent(pos, segment);
+        }
+    }
+    
+    private void onChanged(){
+        this.generation++;
+        this.snapshot = null;
+        this.dirtyListener.run();
+    }
+    
+    public void readFromNBT(NBTTagCompound nbt){
+        this.clear();
+        NBTTagList segmentList = nbt.getTagList("segments", Constants.NBT.TAG_COMPOUND);
+        for(int i = 0; i < segmentList.tagCount(); i++){
+            TrackSegment segment = TrackSegment.readFromNBT(segmentList.getCompoundTagAt(i));
+            this.segments.put(segment.getId(), segment);
+            this.nodes.put(segment.getStart(), segment);
+            this.nodes.put(segment.getEnd(), segment);
+            this.indexPositions(segment);
+        }
+        NBTTagList switchList = nbt.getTagList("switches", Constants.NBT.TAG_COMPOUND);
+        for(int i = 0; i < switchList.tagCount(); i++){
+            TrackSwitch trackSwitch = TrackSwitch.readFromNBT(switchList.getCompoundTagAt(i));
+            this.switches.put(trackSwitch.getNode(), trackSwitch);
+        }
+        this.nextSegmentId = Math.max(1, nbt.getInteger("next_segment_id"));
+        this.generation++;
+        this.snapshot = null;
+    }
+    
+    public NBTTagCompound writeToNBT(NBTTagCompound nbt){
+        nbt.setInteger("next_segment_id", this.nextSegmentId);
+        if(this.store != null){
+            return nbt; // the store saves the rest
+        }
+        NBTTagList segmentList = new NBTTagList();
+        for(TrackSegment segment : this.segments.values()){
+            segmentList.appendTag(segment.writeToNBT());
+        }
+        NBTTagList switchList = new NBTTagList();
+        for(TrackSwitch trackSwitch : this.switches.values()){
+            switchList.appendTag(trackSwitch.writeToNBT());
+        }
+        nbt.setTag("segments", segmentList);
+        nbt.setTag("switches", switchList);
+        return nbt;
+    }
+}
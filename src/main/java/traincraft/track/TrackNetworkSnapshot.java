@@ -0,0 +1,71 @@
+/*
+ * Traincraft
+ * Copyright (c) 2011-2020.
+ *
+ * This file ("TrackNetworkSnapshot.java") is part of the Traincraft mod for Minecraft.
+ * It is created by all people that are listed with @author below.
+ * It is distributed under LGPL-v3.0.
+ * You can find the source code at https://github.com/Traincraft/Traincraft
+ */
+
+package traincraft.track;
+
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import net.minecraft.util.math.BlockPos;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * An immutable copy of a {@link TrackNetwork} at a specific generation.
+ * This is the only view of the track graph which is allowed to be read off the server thread.
+ */
+public final class TrackNetworkSnapshot {
+    
+    private final long generation;
+    private final ImmutableMap<Integer, TrackSegment> segments;
+    private final ImmutableListMultimap<BlockPos, TrackSegment> nodes;
+    private final ImmutableMap<BlockPos, TrackSwitch> switches;
+    
+    TrackNetworkSnapshot(long generation, Collection<TrackSegment> segments, Collection<TrackSwitch> switches){
+        this.generation = generation;
+        ImmutableMap.Builder<Integer, TrackSegment> segmentBuilder = ImmutableMap.builder();
+        ImmutableListMultimap.Builder<BlockPos, TrackSegment> nodeBuilder = ImmutableListMultimap.builder();
+        for(TrackSegment segment : segments){
+            segmentBuilder.put(segment.getId(), segment);
+            nodeBuilder.put(segment.getStart(), segment);
+            nodeBuilder.put(segment.getEnd(), segment);
+        }
+        ImmutableMap.Builder<BlockPos, TrackSwitch> switchBuilder = ImmutableMap.builder();
+        for(TrackSwitch trackSwitch : switches){
+            switchBuilder.put(trackSwitch.getNode(), trackSwitch);
+        }
+        this.segments = segmentBuilder.build();
+        this.nodes = nodeBuilder.build();
+        this.switches = switchBuilder.build();
+    }
+    
+    public long getGeneration(){
+        return this.generation;
+    }
+    
+    @Nullable
+    public TrackSegment getSegment(int id){
+        return this.segments.get(id);
+    }
+    
+    public List<TrackSegment> getSegmentsAt(BlockPos node){
+        return this.nodes.get(node);
+    }
+    
+    @Nullable
+    public TrackSwitch getSwitch(BlockPos node){
+        return this.switches.get(node);
+    }
+    
+    public boolean hasNode(BlockPos node){
+        return this.nodes.containsKey(node);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Traincraft
+ * Copyright (c) 2011-2020.
+ *
+ * This file ("TrackOccupancy.java") is part of the Traincraft mod for Minecraft.
+ * It is created by all people that are listed with @author below.
+ * It is distributed under LGPL-v3.0.
+ * You can find the source code at https://github.com/Traincraft/Traincraft
+ */
+
+package traincraft.track;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import net.minecraft.util.math.BlockPos;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts the rolling stock on every {@link TrackSegment} of a {@link TrackNetwork}.
+ * The rolling stock reports when it enters or leaves a segment, so nothing has to search for entities.
+ * Listeners are only notified when a segment changes between free and occupied,
+ * which means that watching a segment costs nothing while no train is passing.
+ * This is runtime state only and is rebuilt by the rolling stock after a restart.
+ */
+public class TrackOccupancy {
+    
+    private final Map<Integer, Integer> occupants = new HashMap<>();
+    private final ListMultimap<BlockPos, ITrackOccupancyListener> listeners = ArrayListMultimap.create();
+    
+    public void enter(@Nonnull TrackSegment segment){
+        if(this.occupants.merge(segment.getId(), 1, Integer::sum) == 1){
+            this.fire(segment, true);
+        }
+    }
+    
+    public void leave(@Nonnull TrackSegment segment){
+        Integer count = this.occupants.get(segment.getId());
+        if(count == null){
+            return; // the segment was removed while the rolling stock was on it
+        }
+        if(count <= 1){
+            this.occupants.remove(segment.getId());
+            this.fire(segment, false);
+        } else{
+            this.occupants.put(segment.getId(), count - 1);
+        }
+    }
+    
+    public boolean isOccupied(@Nonnull TrackSegment segment){
+        return this.occupants.containsKey(segment.getId());
+    }
+    
+    /**
+     * Registers a listener for all segments which pass through the given block.
+     * The listener stays registered if the segments change, so detectors don't have to care about track rebuilding.
+     *
+     * @param watched  The watched block position
+     * @param listener The listener to call on changes
+     */
+    public void subscribe(@Nonnull BlockPos watched, @Nonnull ITrackOccupancyListener listener){
+        this.listeners.put(watched.toImmutable(), listener);
+    }
+    
+    public void unsubscribe(@Nonnull BlockPos watched, @Nonnull ITrackOccupancyListener listener){
+        this.listeners.remove(watched, listener);
+    }
+    
+    void onSegmentRemoved(TrackSegment segment){
+        if(this.occupants.remove(segment.getId()) != null){
+            this.fire(segment, false);
+        }
+    }
+    
+    private void fire(TrackSegment segment, boolean occupied){
+        if(this.listeners.isEmpty()){
+            return;
+        }
+        List<ITrackOccupancyListener> toNotify = new ArrayList<>();
+        for(BlockPos pos : segment.computeCoveredPositions()){
+            for(ITrackOccupancyListener listener : this.listeners.get(pos)){
+                if(!toNotify.contains(listener)){
+                    toNotify.add(listener);
+                }
+            }
+        }
+        // collected first, because a listener may change the subscriptions through block updates
+        toNotify.forEach(listener -> listener.onOccupancyChanged(segment, occupied));
+    }
+}
@@ -0,0 +1,416 @@
+/*
+ * Traincraft
+ * Copyright (c) 2011-2020.
+ *
+ * This file ("TrackRegionStore.java") is part of the Traincraft mod for Minecraft.
+ * It is created by all people that are listed with @author below.
+ * It is distributed under LGPL-v3.0.
+ * You can find the source code at https://github.com/Traincraft/Traincraft
+ */
+
+package traincraft.track;
+
+import net.minecraft.util.math.BlockPos;
+import traincraft.Traincraft;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * The binary storage of a {@link TrackNetwork}, partitioned into regions of {@link #REGION_SIZE} x {@link #REGION_SIZE}
+ * blocks with a file each. A region file consists of pages with fixed size records, so a changed segment or switch
+ * only changes a single page, instead of the whole network being written again.
+ * <p>
+ * The files are memory mapped for reading. Changes are made on a copy of the page, which is written back on the next
+ * {@link #flush()} (on every world save), so the mapped pages are never written in between.
+ * Segments are stored in the region of their start node, switches in the region of their node.
+ * The occupancy isn't stored, it is runtime state and rebuilt by the rolling stock.
+ * <p>
+ * Region file format: a header page with {@link #MAGIC} and {@link #VERSION}, followed by record pages.
+ * Every record has {@link #RECORD_SIZE} bytes and starts with its kind, free records are zero. The last 4 bytes of every
+ * page are the CRC32 of the rest of it, so a page which was only partly written before a crash is skipped on load
+ * instead of being read as garbage. Files of version 1 have no checksums, they are rewritten on the next flush.
+ * <ul>
+ *     <li>Segment: id, start x/y/z, end x/y/z, length, speed limit</li>
+ *     <li>Switch: node x/y/z, trunk id, selected id</li>
+ * </ul>
+ * This is owned by the server thread and must only be used from there.
+ */
+public class TrackRegionStore {
+    
+    public static final int MAGIC = 0x5443524E; // TCRN
+    public static final int VERSION = 2;
+    public static final int REGION_SIZE = 512;
+    public static final int PAGE_SIZE = 4096;
+    public static final int RECORD_SIZE = 48;
+    
+    private static final int CHECKSUM_OFFSET = PAGE_SIZE - 4; // behind the last record
+    private static final int RECORDS_PER_PAGE = CHECKSUM_OFFSET / RECORD_SIZE;
+    private static final int KIND_FREE = 0;
+    private static final int KIND_SEGMENT = 1;
+    private static final int KIND_SWITCH = 2;
+    private static final String FILE_EXTENSION = ".tcr";
+    
+    private final File directory;
+    private final Map<Long, Region> regions = new HashMap<>();
+    private final Map<Integer, Location> segments = new HashMap<>();
+    private final Map<BlockPos, Location> switches = new HashMap<>();
+    
+    /**
+     * @param directory The directory of the region files of a single dimension, is created on the first flush
+     */
+    public TrackRegionStore(@Nonnull File directory){
+        this.directory = directory;
+    }
+    
+    /**
+     * @return True if there are no region files yet
+     */
+    public boolean isEmpty(){
+        String[] files = this.directory.list((dir, name) -> name.endsWith(FILE_EXTENSION));
+        return files == null || files.length == 0;
+    }
+    
+    /**
+     * Reads all region files.
+     *
+     * @param segmentConsumer Gets every stored segment
+     * @param switchConsumer  Gets every stored switch
+     */
+    public void load(@Nonnull Consumer<TrackSegment> segmentConsumer, @Nonnull Consumer<TrackSwitch> switchConsumer) throws IOException{
+        File[] files = this.directory.listFiles((dir, name) -> name.endsWith(FILE_EXTENSION));
+        if(files == null){
+            return;
+        }
+        for(File file : files){
+            String[] parts = file.getName().split("\\.");
+            if(parts.length != 4 || !"r".equals(parts[0])){
+                continue;
+            }
+            int regionX, regionZ;
+            try{
+                regionX = Integer.parseInt(parts[1]);
+                regionZ = Integer.parseInt(parts[2]);
+            } catch(NumberFormatException e){
+                continue;
+            }
+            Region region = this.getRegion(regionX, regionZ);
+            for(int slot = 0; slot < region.getSlotCount(); slot++){
+                if(getOffset(slot) == 0 && !region.isIntact(getPage(slot))){
+                    Traincraft.LOGGER.warn("Skipping the damaged page " + getPage(slot) + " of the track region '" + file.getAbsolutePath() + "'");
+                    region.discardPage(getPage(slot));
+                    slot += RECORDS_PER_PAGE - 1;
+                    continue;
+                }
+                ByteBuffer page = region.getPage(getPage(slot));
+                int offset = getOffset(slot);
+                switch(page.getInt(offset)){
+                    case KIND_SEGMENT:
+                        TrackSegment segment = new TrackSegment(page.getInt(offset + 4), readPos(page, offset + 8), readPos(page, offset + 20), page.getDouble(offset + 32), page.getDouble(offset + 40));
+                        this.segments.put(segment.getId(), new Location(region, slot));
+                        region.used.set(slot);
+                        segmentConsumer.accept(segment);
+                        break;
+                    case KIND_SWITCH:
+                        TrackSwitch trackSwitch = new TrackSwitch(readPos(page, offset + 4), page.getInt(offset + 16), page.getInt(offset + 20));
+                        this.switches.put(trackSwitch.getNode(), new Location(region, slot));
+                        region.used.set(slot);
+                        switchConsumer.accept(trackSwitch);
+                        break;
+                    default:
+                        break; // free
+                }
+            }
+        }
+    }
+    
+    public void putSegment(@Nonnull TrackSegment segment){
+        Location location = this.segments.computeIfAbsent(segment.getId(), id -> this.allocate(segment.getStart()));
+        ByteBuffer page = location.region.getPageForWriting(getPage(location.slot));
+        int offset = getOffset(location.slot);
+        page.putInt(offset, KIND_SEGMENT);
+        page.putInt(offset + 4, segment.getId());
+        writePos(page, offset + 8, segment.getStart());
+        writePos(page, offset + 20, segment.getEnd());
+        page.putDouble(offset + 32, segment.getLength());
+        page.putDouble(offset + 40, segment.getSpeedLimit());
+    }
+    
+    public void removeSegment(int id){
+        this.free(this.segments.remove(id));
+    }
+    
+    public void putSwitch(@Nonnull TrackSwitch trackSwitch){
+        Location location = this.switches.computeIfAbsent(trackSwitch.getNode(), node -> this.allocate(node));
+        ByteBuffer page = location.region.getPageForWriting(getPage(location.slot));
+        int offset = getOffset(location.slot);
+        page.putInt(offset, KIND_SWITCH);
+        writePos(page, offset + 4, trackSwitch.getNode());
+        page.putInt(offset + 16, trackSwitch.getTrunk());
+        page.putInt(offset + 20, trackSwitch.getSelected());
+    }
+    
+    public void removeSwitch(@Nonnull BlockPos node){
+        this.free(this.switches.remove(node));
+    }
+    
+    /**
+     * Writes all changed pages into their region files and maps the grown files again.
+     */
+    public void flush() throws IOException{
+        if(this.regions.values().stream().anyMatch(region -> !region.dirtyPages.isEmpty())){
+            Files.createDirectories(this.directory.toPath());
+        }
+        for(Region region : this.regions.values()){
+            region.flush();
+        }
+    }
+    
+    /**
+     * Flushes and closes all region files. The store can't be used anymore afterwards.
+     */
+    public void close(){
+        try{
+            this.flush();
+        } catch(IOException e){
+            Traincraft.LOGGER.error("Can't save the track network to '" + this.directory.getAbsolutePath() + "'", e);
+        }
+        for(Region region : this.regions.values()){
+            region.close();
+        }
+        this.regions.clear();
+    }
+    
+    private Location allocate(BlockPos pos){
+        Region region = this.getRegion(Math.floorDiv(pos.getX(), REGION_SIZE), Math.floorDiv(pos.getZ(), REGION_SIZE));
+        int slot = region.used.nextClearBit(0);
+        region.used.set(slot);
+        return new Location(region, slot);
+    }
+    
+    private void free(Location location){
+        if(location != null){
+            ByteBuffer page = location.region.getPageForWriting(getPage(location.slot));
+            int offset = getOffset(location.slot);
+            for(int i = 0; i < RECORD_SIZE; i += 4){
+                page.putInt(offset + i, KIND_FREE);
+            }
+            location.region.used.clear(location.slot);
+        }
+    }
+    
+    private Region getRegion(int regionX, int regionZ){
+        long key = ((long) regionX << 32) | (regionZ & 0xFFFFFFFFL);
+        Region region = this.regions.get(key);
+        if(region == null){
+            region = new Region(new File(this.directory, "r." + regionX + "." + regionZ + FILE_EXTENSION));
+            this.regions.put(key, region);
+        }
+        return region;
+    }
+    
+    /**
+     * @return The page of a slot, the first page is the header
+     */
+    private static int getPage(int slot){
+        return 1 + slot / RECORDS_PER_PAGE;
+    }
+    
+    private static int getOffset(int slot){
+        return (slot % RECORDS_PER_PAGE) * RECORD_SIZE;
+    }
+    
+    private static int checksum(ByteBuffer page){
+        ByteBuffer records = page.duplicate();
+        records.clear();
+        records.limit(CHECKSUM_OFFSET);
+        CRC32 crc = new CRC32();
+        crc.update(records);
+        return (int) crc.getValue();
+    }
+    
+    private static BlockPos readPos(ByteBuffer page, int offset){
+        return new BlockPos(page.getInt(offset), page.getInt(offset + 4), page.getInt(offset + 8));
+    }
+    
+    private static void writePos(ByteBuffer page, int offset, BlockPos pos){
+        page.putInt(offset, pos.getX());
+        page.putInt(offset + 4, pos.getY());
+        page.putInt(offset + 8, pos.getZ());
+    }
+    
+    private static class Location {
+        
+        private final Region region;
+        private final int slot;
+        
+        private Location(Region region, int slot){
+            this.region = region;
+            this.slot = slot;
+        }
+    }
+    
+    private static class Region {
+        
+        private final File file;
+        private final BitSet used = new BitSet();
+        private final SortedMap<Integer, ByteBuffer> dirtyPages = new TreeMap<>(); // in file order
+        private FileChannel channel;
+        private MappedByteBuffer mapped;
+        private int mappedPages;
+        private int version = VERSION;
+        
+        private Region(File file){
+            this.file = file;
+            if(file.isFile()){
+                try{
+                    this.map();
+                    if(this.version < VERSION){
+                        this.upgrade();
+                    }
+                } catch(IOException e){
+                    Traincraft.LOGGER.error("Can't read the track region '" + file.getAbsolutePath() + "', it is rewritten", e);
+                    this.mapped = null;
+                    this.mappedPages = 0;
+                }
+            }
+        }
+        
+        private void map() throws IOException{
+            if(this.channel == null){
+                this.channel = FileChannel.open(this.file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            long size = this.channel.size() / PAGE_SIZE * PAGE_SIZE;
+            if(size == 0){
+                return;
+            }
+            this.mapped = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int version = this.mapped.getInt(4);
+            if(this.mapped.getInt(0) != MAGIC || version < 1 || version > VERSION){
+                throw new IOException("Not a Traincraft track region of version " + VERSION);
+            }
+            this.version = version;
+            this.mappedPages = (int) (size / PAGE_SIZE);
+        }
+        
+        /**
+         * Marks all pages of a file without checksums as changed, so they are written with checksums on the next flush.
+         */
+        private void upgrade(){
+            for(int page = 1; page < this.mappedPages; page++){
+                this.getPageForWriting(page);
+            }
+            ByteBuffer header = this.getPageForWriting(0);
+            header.putInt(4, VERSION);
+            this.version = VERSION;
+        }
+        
+        /**
+         * @return False if the page was written partly. Changed and new pages and those of old files are always intact
+         */
+        private boolean isIntact(int page){
+            if(this.version < VERSION || page >= this.mappedPages || this.dirtyPages.containsKey(page)){
+                return true;
+            }
+            ByteBuffer mappedPage = this.getPage(page);
+            return mappedPage.getInt(CHECKSUM_OFFSET) == checksum(mappedPage);
+        }
+        
+        /**
+         * Replaces a damaged page with an empty one, which is written on the next flush.
+         */
+        private void discardPage(int page){
+            this.dirtyPages.put(page, ByteBuffer.allocate(PAGE_SIZE));
+        }
+        
+        private int getSlotCount(){
+            return Math.max(0, Math.max(this.mappedPages, this.dirtyPages.isEmpty() ? 0 : this.dirtyPages.lastKey() + 1) - 1) * RECORDS_PER_PAGE;
+        }
+        
+        /**
+         * @return The changed copy of the page, or the mapped page. Must not be written
+         */
+        private ByteBuffer getPage(int page){
+            ByteBuffer dirty = this.dirtyPages.get(page);
+            if(dirty != null){
+                return dirty;
+            }
+            if(page < this.mappedPages){
+                ByteBuffer view = this.mapped.duplicate();
+                view.position(page * PAGE_SIZE).limit((page + 1) * PAGE_SIZE);
+                return view.slice();
+            }
+            return ByteBuffer.allocate(PAGE_SIZE);
+        }
+        
+        /**
+         * @return The copy of the page, which is written on the next flush
+         */
+        private ByteBuffer getPageForWriting(int page){
+            ByteBuffer dirty = this.dirtyPages.get(page);
+            if(dirty == null){
+                dirty = ByteBuffer.allocate(PAGE_SIZE);
+                if(page < this.mappedPages){
+                    dirty.put(this.getPage(page));
+                    dirty.clear();
+                }
+                this.dirtyPages.put(page, dirty);
+                if(this.mappedPages == 0 && !this.dirtyPages.containsKey(0)){
+                    ByteBuffer header = ByteBuffer.allocate(PAGE_SIZE);
+                    header.putInt(0, MAGIC);
+                    header.putInt(4, VERSION);
+                    this.dirtyPages.put(0, header);
+                }
+            }
+            return dirty;
+        }
+        
+        private void flush() throws IOException{
+            if(this.dirtyPages.isEmpty()){
+                return;
+            }
+            if(this.channel == null){
+                this.channel = FileChannel.open(this.file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            // the pages between the mapped ones and the first new one, if a page was only read
+            int lastPage = this.dirtyPages.lastKey();
+            for(int page = this.mappedPages; page < lastPage; page++){
+                this.dirtyPages.putIfAbsent(page, ByteBuffer.allocate(PAGE_SIZE));
+            }
+            for(Map.Entry<Integer, ByteBuffer> entry : this.dirtyPages.entrySet()){
+                ByteBuffer page = entry.getValue();
+                page.putInt(CHECKSUM_OFFSET, checksum(page));
+                page.clear();
+                long position = (long) entry.getKey() * PAGE_SIZE;
+                while(page.hasRemaining()){
+                    position += this.channel.write(page, position);
+                }
+            }
+            this.channel.force(true); // the pages are on the disk before the world save is done
+            this.dirtyPages.clear();
+            if(lastPage >= this.mappedPages){
+                this.map();
+            }
+        }
+        
+        private void close(){
+            if(this.channel != null){
+                try{
+                    this.channel.close();
+                } catch(IOException e){
+                    Traincraft.LOGGER.error("Can't close the track region '" + this.file.getAbsolutePath() + "'", e);
+                }
+            }
+            this.mapped = null; // unmapped by the garbage collector
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Traincraft
+ * Copyright (c) 2011-2020.
+ *
+ * This file ("TrackSegment.java") is part of the Traincraft mod for Minecraft.
+ * It is created by all people that are listed with @author below.
+ * It is distributed under LGPL-v3.0.
+ * You can find the source code at https://github.com/Traincraft/Traincraft
+ */
+
+package traincraft.track;
+
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTUtil;
+import net.minecraft.util.math.BlockPos;
+
+import javax.annotation.Nonnull;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * A single edge of the {@link TrackNetwork}.
+ * A segment connects two nodes (the start and the end position) and is immutable, so it can be shared
+ * between the network and all of its snapshots without copying.
+ *
+ * @see TrackNetwork
+ */
+public final class TrackSegment {
+    
+    private final int id;
+    private final BlockPos start, end;
+    private final double length;
+    private final double speedLimit;
+    
+    /**
+     * @param id         The network unique id of this segment
+     * @param start      The first node
+     * @param end        The second node
+     * @param length     The length of this segment in blocks (meter)
+     * @param speedLimit The line speed limit in meters/second (m/s). Zero or below means unlimited
+     */
+    public TrackSegment(int id, @Nonnull BlockPos start, @Nonnull BlockPos end, double length, double speedLimit){
+        this.id = id;
+        this.start = start.toImmutable();
+        this.end = end.toImmutable();
+        this.length = length;
+        this.speedLimit = speedLimit;
+    }
+    
+    public int getId(){
+        return this.id;
+    }
+    
+    public BlockPos getStart(){
+        return this.start;
+    }
+    
+    public BlockPos getEnd(){
+        return this.end;
+    }
+    
+    public double getLength(){
+        return this.length;
+    }
+    
+    public double getSpeedLimit(){
+        return this.speedLimit;
+    }
+    
+    public boolean hasSpeedLimit(){
+        return this.speedLimit > 0.0D;
+    }
+    
+    /**
+     * @param node One of the two nodes of this segment
+     * @return The node on the other side of this segment
+     */
+    public BlockPos getOtherNode(BlockPos node){
+        return this.start.equals(node) ? this.end : this.start;
+    }
+    
+    /**
+     * @return All block positions this segment passes through, ordered from start to end
+     */
+    public Set<BlockPos> computeCoveredPositions(){
+        Set<BlockPos> positions = new LinkedHashSet<>();
+        int dx = this.end.getX() - this.start.getX(), dy = this.end.getY() - this.start.getY(), dz = this.end.getZ() - this.start.getZ();
+        int steps = Math.max(1, (int) Math.ceil(Math.sqrt(dx * dx + dy * dy + dz * dz) * 2.0D));
+        for(int i = 0; i <= steps; i++){
+            double progress = i / (double) steps;
+            positions.add(new BlockPos(this.start.getX() + 0.5D + dx * progress, this.start.getY() + 0.5D + dy * progress, this.start.getZ() + 0.5D + dz * progress));
+        }
+        return positions;
+    }
+    
+    public NBTTagCompound writeToNBT(){
+        NBTTagCompound nbt = new NBTTagCompound();
+        nbt.setInteger("id", this.id);
+        nbt.setTag("start", NBTUtil.createPosTag(this.start));
+        nbt.setTag("end", NBTUtil.createPosTag(this.end));
+        nbt.setDouble("length", this.length);
+        nbt.setDouble("speed_limit", this.speedLimit);
+        return nbt;
+    }
+    
+    public static TrackSegment readFromNBT(NBTTagCompound nbt){
+        return new TrackSegment(
+            nbt.getInteger("id"),
+            NBTUtil.getPosFromTag(nbt.getCompoundTag("start")),
+            NBTUtil.getPosFromTag(nbt.getCompoundTag("end")),
+            nbt.getDouble("length"),
+            nbt.getDouble("speed_limit"));
+    }
+    
+    @Override
+    public boolean equals(Object o){
+        return this == o || (o instanceof TrackSegment && this.id == ((TrackSegment) o).id);
+    }
+    
+    @Override
+    public int hashCode(){
+        return this.id;
+    }
+    
+    @Override
+    public String toString(){
+        return String.format("TrackSegment[id=%d, start=%s, end=%s, length=%.2f]", this.id, this.start, this.end, this.length);
+    }
+}
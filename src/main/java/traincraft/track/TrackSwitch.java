@@ -0,0 +1,88 @@
+/*
+ * Traincraft
+ * Copyright (c) 2011-2020.
+ *
+ * This file ("TrackSwitch.java") is part of the Traincraft mod for Minecraft.
+ * It is created by all people that are listed with @author below.
+ * It is distributed under LGPL-v3.0.
+ * You can find the source code at https://github.com/Traincraft/Traincraft
+ */
+
+package traincraft.track;
+
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTUtil;
+import net.minecraft.util.math.BlockPos;
+
+import javax.annotation.Nonnull;
+
+/**
+ * The state of a switch at a node of the {@link TrackNetwork}.
+ * A rolling stock coming from the trunk segment can only leave over the selected segment and the other way around.
+ * All other segments of the node are blocked while this switch exists.
+ */
+public final class TrackSwitch {
+    
+    private final BlockPos node;
+    private final int trunk, selected;
+    
+    public TrackSwitch(@Nonnull BlockPos node, int trunk, int selected){
+        this.node = node.toImmutable();
+        this.trunk = trunk;
+        this.selected = selected;
+    }
+    
+    public BlockPos getNode(){
+        return this.node;
+    }
+    
+    public int getTrunk(){
+        return this.trunk;
+    }
+    
+    public int getSelected(){
+        return this.selected;
+    }
+    
+    /**
+     * @param incoming The segment id the rolling stock is coming from
+     * @param outgoing The segment id the rolling stock wants to leave over
+     * @return True if this switch allows the movement
+     */
+    public boolean canPass(int incoming, int outgoing){
+        return (incoming == this.trunk && outgoing == this.selected) || (incoming == this.selected && outgoing == this.trunk);
+    }
+    
+    public TrackSwitch withSelected(int selected){
+        return new TrackSwitch(this.node, this.trunk, selected);
+    }
+    
+    public NBTTagCompound writeToNBT(){
+        NBTTagCompound nbt = new NBTTagCompound();
+        nbt.setTag("node", NBTUtil.createPosTag(this.node));
+        nbt.setInteger("trunk", this.trunk);
+        nbt.setInteger("selected", this.selected);
+        return nbt;
+    }
+    
+    public static TrackSwitch readFromNBT(NBTTagCompound nbt){
+        return new TrackSwitch(NBTUtil.getPosFromTag(nbt.getCompoundTag("node")), nbt.getInteger("trunk"), nbt.getInteger("selected"));
+    }
+    
+    @Override
+    public boolean equals(Object o){
+        if(this == o){
+            return true;
+        }
+        if(!(o instanceof TrackSwitch)){
+            return false;
+        }
+        TrackSwitch other = (TrackSwitch) o;
+        return this.trunk == other.trunk && this.selected == other.selected && this.node.equals(other.node);
+    }
+    
+    @Override
+    public int hashCode(){
+        return 31 * (31 * this.node.hashCode() + this.trunk) + this.selected;
+    }
+}
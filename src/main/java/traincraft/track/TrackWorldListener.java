@@ -0,0 +1,98 @@
+/*
+ * Traincraft
+ * Copyright (c) 2011-2020.
+ *
+ * This file ("TrackWorldListener.java") is part of the Traincraft mod for Minecraft.
+ * It is created by all people that are listed with @author below.
+ * It is distributed under LGPL-v3.0.
+ * You can find the source code at https://github.com/Traincraft/Traincraft
+ */
+
+package traincraft.track;
+
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.util.SoundCategory;
+import net.minecraft.util.SoundEvent;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.IWorldEventListener;
+import net.minecraft.world.World;
+import traincraft.api.AbstractRollingStock;
+import traincraft.event.TCEvents;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Server side world listener to keep the runtime state of the {@link TrackNetwork} in sync with the world.
+ * Rolling stock which is unloaded or killed has to leave its {@link TrackOccupancy}, otherwise detectors would stay powered.
+ * Unloaded rolling stock is also unlinked from the loaded cars of its consist, and its parts leave the entity lists of their chunks.
+ * Block changes invalidate the cached {@link TrackEnvironment} of the segments around them.
+ */
+public class TrackWorldListener implements IWorldEventListener {
+    
+    private final TrackNetwork network;
+    
+    public TrackWorldListener(TrackNetwork network){
+        this.network = network;
+    }
+    
+    @Override
+    public void onEntityRemoved(@Nonnull Entity entity){
+        if(entity instanceof AbstractRollingStock){
+            ((AbstractRollingStock<?>) entity).releaseOccupancy();
+            ((AbstractRollingStock<?>) entity).removePartsFromChunks();
+            if(!entity.isDead){
+                TCEvents.getSaveData(entity.world).getConsistStore().onCarUnloaded((AbstractRollingStock<?>) entity);
+            }
+        }
+    }
+    
+    @Override
+    public void notifyBlockUpdate(@Nonnull World world, @Nonnull BlockPos pos, @Nonnull IBlockState oldState, @Nonnull IBlockState newState, int flags){
+        if(oldState != newState){
+            this.network.invalidateEnvironment(pos);
+        }
+    }
+    
+    @Override
+    public void notifyLightSet(@Nonnull BlockPos pos){
+    }
+    
+    @Override
+    public void markBlockRangeForRenderUpdate(int x1, int y1, int z1, int x2, int y2, int z2){
+    }
+    
+    @Override
+    public void playSoundToAllNearExcept(@Nullable EntityPlayer player, @Nonnull SoundEvent sound, @Nonnull SoundCategory category, double x, double y, double z, float volume, float pitch){
+    }
+    
+    @Override
+    public void playRecord(@Nonnull SoundEvent sound, @Nonnull BlockPos pos){
+    }
+    
+    @Override
+    public void spawnParticle(int particleID, boolean ignoreRange, double x, double y, double z, double xSpeed, double ySpeed, double zSpeed, @Nonnull int... parameters){
+    }
+    
+    @Override
+    public void spawnParticle(int id, boolean ignoreRange, boolean minimiseParticleLevel, double x, double y, double z, double xSpeed, double ySpeed, double zSpeed, @Nonnull int... parameters){
+    }
+    
+    @Override
+    public void onEntityAdded(@Nonnull Entity entity){
+    }
+    
+    @Override
+    public void broadcastSound(int soundID, @Nonnull BlockPos pos, int data){
+    }
+    
+    @Override
+    public void playEvent(@Nullable EntityPlayer player, int type, @Nonnull BlockPos pos, int data){
+    }
+    
+    @Override
+    public void sendBlockBreakProgress(int breakerId, @Nonnull BlockPos pos, int progress){
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Traincraft
+ * Copyright (c) 2011-2020.
+ *
+ * This file ("IncomingPacketQueueStressTest.java") is part of the Traincraft mod for Minecraft.
+ * It is created by all people that are listed with @author below.
+ * It is distributed under LGPL-v3.0.
+ * You can find the source code at https://github.com/Traincraft/Traincraft
+ */
+
+package traincraft.network;
+
+import net.minecraftforge.fml.relauncher.Side;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Many network threads offer packets while the main thread drains the queue like once per tick.
+ * Every packet has to arrive exactly once, grouped by entity and in the order every single producer has sent them.
+ */
+public class IncomingPacketQueueStressTest {
+    
+    private static final int PRODUCERS = 16;
+    private static final int PACKETS_PER_PRODUCER = 20000;
+    private static final int ENTITIES = 64;
+    private static final long TIMEOUT_MILLIS = 60000L;
+    
+    @Before
+    @After
+    public void clear(){
+        IncomingPacketQueue.clear(Side.SERVER);
+    }
+    
+    @Test
+    public void concurrentProducers() throws InterruptedException{
+        ExecutorService producers = Executors.newFixedThreadPool(PRODUCERS);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(PRODUCERS);
+        for(int producer = 0; producer < PRODUCERS; producer++){
+            int id = producer;
+            producers.execute(() -> {
+                try{
+                    start.await();
+                    for(int sequence = 0; sequence < PACKETS_PER_PRODUCER; sequence++){
+                        EntityPacketData data = new EntityPacketData().setInt(EntityField.INPUT_STATE, id).setInt(EntityField.CLIENT_TICK, sequence);
+                        IncomingPacketQueue.offer(Side.SERVER, null, new PacketTraincraftEntity(entityOf(id, sequence), TCEntityPackets.KEY_PRESS, data));
+                    }
+                } catch(InterruptedException e){
+                    Thread.currentThread().interrupt();
+                } finally{
+                    done.countDown();
+                }
+            });
+        }
+        
+        Checker checker = new Checker();
+        start.countDown();
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while(checker.received < PRODUCERS * PACKETS_PER_PRODUCER){
+            assertTrue("Only " + checker.received + " packets have arrived", System.currentTimeMillis() < deadline);
+            boolean finished = done.getCount() == 0L;
+            checker.tick();
+            if(finished && checker.packetsThisTick == 0){
+                break; // everything sent is drained
+            }
+        }
+        producers.shutdown();
+        assertTrue(producers.awaitTermination(10, TimeUnit.SECONDS));
+        
+        assertEquals(PRODUCERS * PACKETS_PER_PRODUCER, checker.received);
+        for(int producer = 0; producer < PRODUCERS; producer++){
+            assertEquals("Producer " + producer, PACKETS_PER_PRODUCER, checker.received(producer));
+        }
+        checker.tick();
+        assertEquals("Nothing may be left", 0, checker.packetsThisTick);
+    }
+    
+    @Test
+    public void drainIsLimitedPerTick(){
+        int packets = IncomingPacketQueue.MAX_PACKETS_PER_TICK * 2 + 10;
+        for(int sequence = 0; sequence < packets; sequence++){
+            EntityPacketData data = new EntityPacketData().setInt(EntityField.INPUT_STATE, 0).setInt(EntityField.CLIENT_TICK, sequence);
+            IncomingPacketQueue.offer(Side.SERVER, null, new PacketTraincraftEntity(entityOf(0, sequence), TCEntityPackets.KEY_PRESS, data));
+        }
+        Checker checker = new Checker();
+        checker.tick();
+        assertEquals(IncomingPacketQueue.MAX_PACKETS_PER_TICK, checker.packetsThisTick);
+        checker.tick();
+        assertEquals(IncomingPacketQueue.MAX_PACKETS_PER_TICK, checker.packetsThisTick);
+        checker.tick();
+        assertEquals(10, checker.packetsThisTick);
+        assertEquals(packets, checker.received);
+    }
+    
+    private static int entityOf(int producer, int sequence){
+        return (sequence * 31 + producer) % ENTITIES;
+    }
+    
+    /**
+     * Drains the queue and checks every dispatched group.
+     */
+    private static class Checker implements IncomingPacketQueue.Dispatcher {
+        
+        private final int[][] lastSequence = new int[PRODUCERS][ENTITIES];
+        private final BitSet[] seen = new BitSet[PRODUCERS];
+        private final Set<Integer> entitiesThisTick = new HashSet<>();
+        private int packetsThisTick;
+        private int received;
+        
+        private Checker(){
+            for(int[] sequences : this.lastSequence){
+                Arrays.fill(sequences, -1);
+            }
+            for(int producer = 0; producer < PRODUCERS; producer++){
+                this.seen[producer] = new BitSet(PACKETS_PER_PRODUCER);
+            }
+        }
+        
+        private void tick(){
+            this.entitiesThisTick.clear();
+            this.packetsThisTick = 0;
+            IncomingPacketQueue.drain(Side.SERVER, this);
+            assertTrue(this.packetsThisTick <= IncomingPacketQueue.MAX_PACKETS_PER_TICK);
+        }
+        
+        @Override
+        public void dispatch(Side side, int entityId, List<IncomingPacketQueue.Entry> entries){
+            assertEquals(Side.SERVER, side);
+            assertTrue("Entity " + entityId + " was dispatched twice in one tick", this.entitiesThisTick.add(entityId));
+            assertFalse(entries.isEmpty());
+            for(IncomingPacketQueue.Entry entry : entries){
+                assertNull(entry.sender);
+                assertEquals(entityId, entry.packet.getEntityId());
+                int producer = entry.packet.getData().getInt(EntityField.INPUT_STATE);
+                int sequence = entry.packet.getData().getInt(EntityField.CLIENT_TICK);
+                assertFalse("Packet " + sequence + " of producer " + producer + " arrived twice", this.seen[producer].get(sequence));
+                this.seen[producer].set(sequence);
+                assertTrue("The packets of producer " + producer + " for entity " + entityId + " were reordered", this.lastSequence[producer][entityId] < sequence);
+                this.lastSequence[producer][entityId] = sequence;
+            }
+            this.packetsThisTick += entries.size();
+            this.received += entries.size();
+        }
+        
+        private int received(int producer){
+            return this.seen[producer].cardinality();
+        }
+    }
+}
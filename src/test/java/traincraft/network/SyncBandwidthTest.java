@@ -0,0 +1,171 @@
+/*
+ * Traincraft
+ * Copyright (c) 2011-2020.
+ *
+ * This file ("SyncBandwidthTest.java") is part of the Traincraft mod for Minecraft.
+ * It is created by all people that are listed with @author below.
+ * It is distributed under LGPL-v3.0.
+ * You can find the source code at https://github.com/Traincraft/Traincraft
+ */
+
+package traincraft.network;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import net.minecraft.init.Blocks;
+import net.minecraft.init.Bootstrap;
+import net.minecraft.init.Items;
+import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraftforge.common.util.Constants;
+import net.minecraftforge.fluids.FluidRegistry;
+import net.minecraftforge.fluids.FluidStack;
+import net.minecraftforge.items.IItemHandler;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import traincraft.api.InventoryBase;
+import traincraft.api.LocomotiveSteam;
+import traincraft.entity.train.steam.small.LocomotiveSteamSmall;
+import traincraft.tile.BaseTile;
+
+import static org.junit.Assert.*;
+
+/**
+ * The sync traffic of a single burning steam locomotive over one minute, written by the sync writer of the {@link LocomotiveSteam}:
+ * the complete state every 5 ticks like before the delta sync and the delta sync on the same interval. Both are encoded
+ * with the current packet codec, so only the delta is measured. The locomotive has no world, so its burning and driving
+ * are simulated through its fields and inventory.
+ */
+public class SyncBandwidthTest {
+    
+    private static final int SECONDS = 60;
+    private static final int TICKS_PER_SECOND = 20;
+    private static final int SYNC_INTERVAL = 5; // the old LocomotiveSteam sent a sync every 5 ticks while burning
+    private static final int CARGO_SLOT = 3;
+    private static final int PLANKS_BURN_TIME = 300;
+    private static final int ENTITY_ID = 4711;
+    private static final double SPEED = 8.0D;
+    
+    @BeforeClass
+    public static void bootstrap(){
+        Bootstrap.register();
+    }
+    
+    @Test
+    public void burningLocomotiveSendsOnlyChangedFields(){
+        Locomotive locomotive = new Locomotive();
+        long fullBytes = 0L, deltaBytes = 0L;
+        NBTTagCompound lastSyncData = locomotive.writeSyncData();
+        for(int tick = 1; tick <= SECONDS * TICKS_PER_SECOND; tick++){
+            locomotive.tick();
+            if(tick % SYNC_INTERVAL != 0){
+                continue;
+            }
+            NBTTagCompound syncData = locomotive.writeSyncData();
+            fullBytes += sizeOfPacket(syncData);
+            
+            NBTTagCompound delta = NBTDelta.diff(lastSyncData, syncData);
+            lastSyncData = syncData;
+            if(!delta.getKeySet().isEmpty()){
+                deltaBytes += sizeOfPacket(delta);
+            }
+        }
+        System.out.printf("Burning locomotive: %d bytes/s with complete sync packets, %d bytes/s with delta sync packets%n", fullBytes / SECONDS, deltaBytes / SECONDS);
+        assertTrue("The delta sync should need less than a fifth of the complete sync, but needs " + deltaBytes + " instead of " + fullBytes + " bytes", deltaBytes * 5 < fullBytes);
+    }
+    
+    @Test
+    public void inventoryDeltaContainsOnlyChangedSlots(){
+        Locomotive locomotive = new Locomotive();
+        NBTTagCompound previous = locomotive.writeSyncData();
+        locomotive.inventory.extractItem(LocomotiveSteam.BURN_SLOT, 1, false);
+        locomotive.inventory.extractItem(CARGO_SLOT, 64, false);
+        NBTTagCompound delta = NBTDelta.diff(previous, locomotive.writeSyncData());
+        
+        NBTTagList slots = delta.getCompoundTag("inventory").getTagList("Items", Constants.NBT.TAG_COMPOUND);
+        assertEquals(2, slots.tagCount());
+        assertEquals(LocomotiveSteam.BURN_SLOT, InventoryBase.readSlot(slots.getCompoundTagAt(0)));
+        assertEquals(CARGO_SLOT, InventoryBase.readSlot(slots.getCompoundTagAt(1)));
+        assertFalse("A cleared slot is sent without a stack", slots.getCompoundTagAt(1).hasKey("id"));
+        assertFalse("The unchanged tank isn't part of the delta", delta.hasKey("fluid_tank"));
+    }
+    
+    @Test
+    public void removedNameIsReset(){
+        Locomotive sender = new Locomotive();
+        sender.entity.setRollingStockName("Express");
+        NBTTagCompound named = sender.writeSyncData();
+        Locomotive receiver = new Locomotive();
+        receiver.entity.readSyncData(EntityPacketData.fromNBT(named));
+        assertEquals("Express", receiver.entity.getRollingStockName());
+        
+        sender.entity.setRollingStockName(null);
+        NBTTagCompound delta = NBTDelta.diff(named, sender.writeSyncData());
+        assertTrue(NBTDelta.getRemovedKeys(delta).contains("name"));
+        receiver.entity.readSyncData(EntityPacketData.fromNBT(delta));
+        assertNull(receiver.entity.getRollingStockName());
+    }
+    
+    @Test
+    public void mergedDeltasKeepTheRemoval(){
+        Locomotive sender = new Locomotive();
+        NBTTagCompound unnamed = sender.writeSyncData();
+        sender.entity.setRollingStockName("Express");
+        NBTTagCompound named = sender.writeSyncData();
+        sender.entity.setRollingStockName(null);
+        
+        // both deltas wait in the queue and are sent as one
+        EntityPacketData merged = EntityPacketData.fromNBT(NBTDelta.diff(unnamed, named));
+        merged.mergeFrom(EntityPacketData.fromNBT(NBTDelta.diff(named, sender.writeSyncData())));
+        assertFalse(merged.has(EntityField.NAME));
+        
+        Locomotive receiver = new Locomotive();
+        receiver.entity.setRollingStockName("Old name");
+        receiver.entity.readSyncData(merged);
+        assertNull(receiver.entity.getRollingStockName());
+    }
+    
+    private static int sizeOfPacket(NBTTagCompound nbt){
+        ByteBuf buf = Unpooled.buffer();
+        new PacketTraincraftEntity(ENTITY_ID, TCEntityPackets.SYNC, EntityPacketData.fromNBT(nbt)).write(buf);
+        return buf.writerIndex();
+    }
+    
+    /**
+     * A small steam locomotive with fuel in its burn slot, some cargo and a partly filled water tank.
+     * The ticks do what the server update does with the synced fields.
+     */
+    private static class Locomotive {
+        
+        private final LocomotiveSteamSmall entity = new LocomotiveSteamSmall(null);
+        private final IItemHandler inventory = this.entity.getInventory(this.entity, null);
+        
+        private Locomotive(){
+            this.inventory.insertItem(LocomotiveSteam.BURN_SLOT, new ItemStack(Blocks.PLANKS, 32), false);
+            for(int slot = CARGO_SLOT; slot < this.inventory.getSlots(); slot += 2){
+                this.inventory.insertItem(slot, new ItemStack(Items.COAL, 16 + slot), false);
+            }
+            this.entity.getFluidTank(this.entity, null).fill(new FluidStack(FluidRegistry.WATER, 3000), true);
+            this.entity.setSpeed(SPEED);
+        }
+        
+        private void tick(){
+            if(this.entity.burnTime <= 0 && !this.inventory.extractItem(LocomotiveSteam.BURN_SLOT, 1, false).isEmpty()){
+                this.entity.maxBurnTime = this.entity.burnTime = PLANKS_BURN_TIME;
+            }
+            if(this.entity.burnTime > 0){
+                this.entity.burnTime--;
+                this.entity.setTemperature(Math.min(373.15D, this.entity.getTemperature() + 0.02D));
+            }
+            // the travel distance has no setter, it is moved like on a client
+            this.entity.readSyncData(new EntityPacketData().setDouble(EntityField.TRAVEL_DISTANCE, this.entity.getTravelDistance() + SPEED / TICKS_PER_SECOND));
+        }
+        
+        private NBTTagCompound writeSyncData(){
+            NBTTagCompound nbt = new NBTTagCompound();
+            this.entity.writeToNBT(this.entity, nbt, BaseTile.NBTState.SYNC);
+            return nbt;
+        }
+    }
+}